@@ -28,6 +28,10 @@ class AsyncAccountClient {
     private final String apiUrl;
 
     public AsyncAccountClient(String apiUrl) {
+        this(apiUrl, 16);
+    }
+
+    public AsyncAccountClient(String apiUrl, int maxConnections) {
         this.apiUrl = apiUrl;
         var requestConfig = RequestConfig.custom()
                 .setSocketTimeout(3000)
@@ -35,8 +39,8 @@ class AsyncAccountClient {
                 .build();
         this.httpClient = HttpAsyncClients.custom()
                 .setDefaultRequestConfig(requestConfig)
-                .setMaxConnPerRoute(16)
-                .setMaxConnTotal(256)
+                .setMaxConnPerRoute(maxConnections)
+                .setMaxConnTotal(Math.max(maxConnections, 256))
                 .setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
                     @Override
                     public long getKeepAliveDuration(org.apache.http.HttpResponse response, HttpContext context) {
@@ -73,6 +77,25 @@ class AsyncAccountClient {
         httpPut("/account/" + accountId + "/deposit?amount=" + amount + "&transactionId=" + txId, future);
     }
 
+    void withdraw(UUID accountId, int amount, CompletableFuture<HttpResponse> future) {
+        Supplier<HttpUriRequest> request = () -> {
+            var txId = UUID.randomUUID();
+            String path = String.format("/account/%s/withdraw?amount=%d&transactionId=%s", accountId, amount, txId);
+            return new HttpPut(apiUrl + path);
+        };
+        httpClient.execute(request.get(), new HttpResponseFutureCallback(future, request));
+    }
+
+    void transfer(UUID sourceAccountId, UUID targetAccountId, int amount, CompletableFuture<HttpResponse> future) {
+        Supplier<HttpUriRequest> request = () -> {
+            var txId = UUID.randomUUID();
+            String path = String.format("/account/%s/transfer?targetAccount=%s&amount=%d&transactionId=%s",
+                    sourceAccountId, targetAccountId, amount, txId);
+            return new HttpPut(apiUrl + path);
+        };
+        httpClient.execute(request.get(), new HttpResponseFutureCallback(future, request));
+    }
+
     private void httpGet(String path, CompletableFuture<HttpResponse> future) {
         var request = new HttpGet(apiUrl + path);
         httpClient.execute(request, new HttpResponseFutureCallback(future, () -> request));
@@ -33,7 +33,13 @@ class ConsistencyTest {
 
     static {
         String composeFile = "e2e-test.yml";
-        environment = new ComposeContainer(new File("src/blackBoxTest/resources/" + composeFile))
+        // a profile layers its own compose file over the default environment, i.e. -PcomposeProfile=tuned
+        String composeProfile = System.getProperty("composeProfile");
+        var composeFiles = composeProfile == null
+                ? new File[]{new File("src/blackBoxTest/resources/" + composeFile)}
+                : new File[]{new File("src/blackBoxTest/resources/" + composeFile),
+                        new File("src/blackBoxTest/resources/e2e-test." + composeProfile + ".yml")};
+        environment = new ComposeContainer(composeFiles)
                 .withLogConsumer(SERVICE_CONTAINER, new Slf4jLogConsumer(log).withPrefix(SERVICE_CONTAINER))
                 .withLogConsumer(LB_CONTAINER, new Slf4jLogConsumer(log).withPrefix(LB_CONTAINER))
                 .withExposedService(SERVICE_CONTAINER, 1, SERVICE_PORT, Wait.forListeningPort())
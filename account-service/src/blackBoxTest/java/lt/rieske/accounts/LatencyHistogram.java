@@ -0,0 +1,76 @@
+package lt.rieske.accounts;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * An HdrHistogram style latency histogram - every power of two is split into 2^precisionBits linear sub-buckets,
+ * values are recorded with a relative error of at most 2^-precisionBits. Recording is lock-free.
+ */
+class LatencyHistogram {
+
+    private final int precisionBits;
+    private final AtomicLongArray counts;
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(int precisionBits) {
+        if (precisionBits < 1 || precisionBits > 16) {
+            throw new IllegalArgumentException("Precision bits must be within 1-16, got " + precisionBits);
+        }
+        this.precisionBits = precisionBits;
+        this.counts = new AtomicLongArray((64 - precisionBits) << precisionBits);
+    }
+
+    void record(long value) {
+        long v = Math.max(0, value);
+        counts.incrementAndGet(index(v));
+        totalCount.incrementAndGet();
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    long count() {
+        return totalCount.get();
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    // the highest value equivalent to the one at the given percentile, as HdrHistogram reports it
+    long valueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long cumulativeCount = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            cumulativeCount += counts.get(i);
+            if (cumulativeCount >= countAtPercentile) {
+                return Math.min(highestEquivalentValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    // values below 2^precisionBits are counted exactly, each next power of two gets the same number of sub-buckets
+    int index(long value) {
+        if (value < 1L << precisionBits) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - precisionBits;
+        int subBucket = (int) (value >>> shift) - (1 << precisionBits);
+        return ((shift + 1) << precisionBits) + subBucket;
+    }
+
+    long highestEquivalentValue(int index) {
+        if (index < 1 << precisionBits) {
+            return index;
+        }
+        int shift = (index >>> precisionBits) - 1;
+        long subBucket = (index & ((1 << precisionBits) - 1)) + (1L << precisionBits);
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+}
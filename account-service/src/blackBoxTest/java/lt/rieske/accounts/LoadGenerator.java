@@ -0,0 +1,366 @@
+package lt.rieske.accounts;
+
+import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.api.Server;
+import lt.rieske.accounts.api.ServiceSettings;
+import lt.rieske.accounts.eventstore.Configuration;
+import lt.rieske.accounts.eventstore.H2EventStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * An open loop load generator - operations are started at a fixed rate, regardless of how long the previous ones
+ * take. Response times are measured from the time each operation was due to start, so that a stalled service is
+ * charged for all the operations it held up - the coordinated omission correction. Service times are measured from
+ * the time the request was actually sent.
+ * <p>
+ * Arguments are given as name=value pairs:
+ * <ul>
+ *     <li>target - {@code h2} (default) or {@code log} to run against an in-process server backed by an in-memory H2
+ *     database or a segmented log in a temporary directory, or the API url of a running service,
+ *     i.e. {@code http://localhost:8080/api}</li>
+ *     <li>rate - operations per second, 1000 by default</li>
+ *     <li>duration, warmup - ISO-8601 durations, PT30S and PT5S by default. Nothing is recorded during the warmup</li>
+ *     <li>mix - operation weights, {@code query:30,deposit:40,withdraw:10,transfer:20} by default</li>
+ *     <li>accounts - the number of accounts, 1000 by default</li>
+ *     <li>zipf - the exponent of the zipfian account distribution, 0.99 by default, 0 for uniform</li>
+ *     <li>connections - the client's connection limit, 64 by default</li>
+ *     <li>seed - the seed of the operation and account choices</li>
+ * </ul>
+ * The in-process server is configured from the same environment variables as the service.
+ */
+public class LoadGenerator {
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+    private static final String[] PERCENTILE_LABELS = {"p50", "p90", "p99", "p99.9", "p99.99"};
+    // about 0.8% relative error
+    private static final int PRECISION_BITS = 7;
+    private static final int INITIAL_BALANCE = 1_000_000_000;
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    enum Operation {
+        QUERY(200), DEPOSIT(204), WITHDRAW(204), TRANSFER(204);
+
+        private final int expectedStatus;
+
+        Operation(int expectedStatus) {
+            this.expectedStatus = expectedStatus;
+        }
+    }
+
+    record Settings(
+            String target,
+            int rate,
+            Duration duration,
+            Duration warmup,
+            Map<Operation, Integer> mix,
+            int accounts,
+            double zipfExponent,
+            int connections,
+            long seed) {
+
+        static Settings parse(String[] args) {
+            var values = new HashMap<String, String>();
+            for (var arg : args) {
+                var separator = arg.indexOf('=');
+                if (separator < 1) {
+                    throw new IllegalArgumentException("Arguments are expected as name=value pairs, got " + arg);
+                }
+                values.put(arg.substring(0, separator), arg.substring(separator + 1));
+            }
+            var settings = new Settings(
+                    values.getOrDefault("target", "h2"),
+                    Integer.parseInt(values.getOrDefault("rate", "1000")),
+                    Duration.parse(values.getOrDefault("duration", "PT30S")),
+                    Duration.parse(values.getOrDefault("warmup", "PT5S")),
+                    parseMix(values.getOrDefault("mix", "query:30,deposit:40,withdraw:10,transfer:20")),
+                    Integer.parseInt(values.getOrDefault("accounts", "1000")),
+                    Double.parseDouble(values.getOrDefault("zipf", "0.99")),
+                    Integer.parseInt(values.getOrDefault("connections", "64")),
+                    values.containsKey("seed") ? Long.parseLong(values.get("seed")) : System.nanoTime());
+            if (settings.rate < 1 || settings.duration.isNegative() || settings.duration.isZero() || settings.warmup.isNegative()) {
+                throw new IllegalArgumentException("Rate and duration must be positive, warmup must not be negative");
+            }
+            if (settings.accounts < 2 && settings.mix.containsKey(Operation.TRANSFER)) {
+                throw new IllegalArgumentException("Transfers need at least two accounts");
+            }
+            return settings;
+        }
+
+        private static Map<Operation, Integer> parseMix(String mix) {
+            var weights = new EnumMap<Operation, Integer>(Operation.class);
+            for (var entry : mix.split(",")) {
+                var parts = entry.split(":");
+                var weight = Integer.parseInt(parts[1]);
+                if (weight > 0) {
+                    weights.put(Operation.valueOf(parts[0].trim().toUpperCase()), weight);
+                }
+            }
+            if (weights.isEmpty()) {
+                throw new IllegalArgumentException("The operation mix is empty: " + mix);
+            }
+            return weights;
+        }
+    }
+
+    private static class OperationStats {
+        private final LatencyHistogram responseTimes = new LatencyHistogram(PRECISION_BITS);
+        private final LatencyHistogram serviceTimes = new LatencyHistogram(PRECISION_BITS);
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder conflicts = new LongAdder();
+
+        void record(long responseTimeNanos, long serviceTimeNanos, boolean error, int conflicts) {
+            responseTimes.record(responseTimeNanos);
+            serviceTimes.record(serviceTimeNanos);
+            if (error) {
+                errors.increment();
+            }
+            this.conflicts.add(conflicts);
+        }
+    }
+
+    private record Target(String apiUrl, AutoCloseable service) implements AutoCloseable {
+
+        static Target start(String target) throws IOException {
+            if (target.startsWith("http")) {
+                return new Target(target, () -> {
+                });
+            }
+            var settings = ServiceSettings.fromEnvironment(System::getenv);
+            return switch (target) {
+                case "h2" -> inProcess(ApiConfiguration.server(() -> H2EventStore.create("load-generator"), settings), null);
+                case "log" -> {
+                    var directory = Files.createTempDirectory("event-log");
+                    var server = ApiConfiguration.server(() -> Configuration.segmentedLogEventStore(
+                            directory.toString(),
+                            Objects.requireNonNullElse(System.getenv("EVENT_LOG_FSYNC_POLICY"), "GROUP"),
+                            Objects.requireNonNullElse(System.getenv("EVENT_LOG_FSYNC_INTERVAL"), "PT0.1S")), settings);
+                    yield inProcess(server, directory);
+                }
+                default -> throw new IllegalArgumentException("Unknown target " + target + ", expected h2, log or an API url");
+            };
+        }
+
+        private static Target inProcess(Server server, Path directory) {
+            int port = server.start(0);
+            return new Target("http://localhost:" + port + "/api", () -> {
+                server.stop();
+                if (directory != null) {
+                    delete(directory);
+                }
+            });
+        }
+
+        @Override
+        public void close() throws Exception {
+            service.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var settings = Settings.parse(args);
+        try (var target = Target.start(settings.target)) {
+            var client = new AsyncAccountClient(target.apiUrl(), settings.connections);
+            try {
+                var accountIds = openAccounts(client, settings.accounts);
+                System.out.printf("Opened %d accounts, running %s at %d ops/s for %s after %s of warmup\n",
+                        accountIds.size(), settings.mix, settings.rate, settings.duration, settings.warmup);
+                run(client, accountIds, settings);
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private static void run(AsyncAccountClient client, List<UUID> accountIds, Settings settings) throws InterruptedException {
+        var stats = new EnumMap<Operation, OperationStats>(Operation.class);
+        settings.mix.keySet().forEach(operation -> stats.put(operation, new OperationStats()));
+        var all = new OperationStats();
+        var operations = operationTable(settings.mix);
+        var accounts = new ZipfianDistribution(accountIds.size(), settings.zipfExponent);
+        var random = new SplittableRandom(settings.seed);
+
+        var issued = new LongAdder();
+        var completed = new LongAdder();
+        var lastCompletion = new AtomicLong();
+        double nanosPerOperation = 1e9 / settings.rate;
+        long start = System.nanoTime();
+        long measureFrom = start + settings.warmup.toNanos();
+        long end = measureFrom + settings.duration.toNanos();
+
+        for (long i = 0; ; i++) {
+            long intendedStart = start + (long) (i * nanosPerOperation);
+            if (intendedStart - end >= 0) {
+                break;
+            }
+            awaitNanoTime(intendedStart);
+
+            var operation = operations[random.nextInt(operations.length)];
+            boolean measured = intendedStart - measureFrom >= 0;
+            var future = new CompletableFuture<AsyncAccountClient.HttpResponse>();
+            long sent = System.nanoTime();
+            future.whenComplete((response, failure) -> {
+                long now = System.nanoTime();
+                if (measured) {
+                    boolean error = failure != null || response.code() != operation.expectedStatus;
+                    int conflicts = response != null ? response.conflicts() : 0;
+                    stats.get(operation).record(now - intendedStart, now - sent, error, conflicts);
+                    all.record(now - intendedStart, now - sent, error, conflicts);
+                    lastCompletion.accumulateAndGet(now, Math::max);
+                }
+                completed.increment();
+            });
+            issued.increment();
+            issue(client, operation, accountIds, accounts, random, future);
+        }
+
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (completed.sum() < issued.sum() && System.nanoTime() - drainDeadline < 0) {
+            Thread.sleep(10);
+        }
+        long outstanding = issued.sum() - completed.sum();
+        report(stats, all, Math.max(lastCompletion.get(), end) - measureFrom, outstanding);
+    }
+
+    private static Operation[] operationTable(Map<Operation, Integer> mix) {
+        var operations = new ArrayList<Operation>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                operations.add(operation);
+            }
+        });
+        return operations.toArray(new Operation[0]);
+    }
+
+    private static void issue(
+            AsyncAccountClient client,
+            Operation operation,
+            List<UUID> accountIds,
+            ZipfianDistribution accounts,
+            SplittableRandom random,
+            CompletableFuture<AsyncAccountClient.HttpResponse> future) {
+        var accountId = accountIds.get(accounts.next(random));
+        switch (operation) {
+            case QUERY -> client.queryAccount(accountId, future);
+            case DEPOSIT -> client.deposit(accountId, 1, future);
+            case WITHDRAW -> client.withdraw(accountId, 1, future);
+            case TRANSFER -> {
+                var targetAccountId = accountIds.get(accounts.next(random));
+                while (targetAccountId.equals(accountId)) {
+                    targetAccountId = accountIds.get(accounts.next(random));
+                }
+                client.transfer(accountId, targetAccountId, 1, future);
+            }
+        }
+    }
+
+    // parks until shortly before the deadline and spins the rest of the way - parking alone overshoots
+    private static void awaitNanoTime(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (remaining > 100_000) {
+                LockSupport.parkNanos(remaining - 50_000);
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    // accounts are funded so that withdrawals and transfers do not run out of money
+    private static List<UUID> openAccounts(AsyncAccountClient client, int count) throws ExecutionException, InterruptedException {
+        var accountIds = new ArrayList<UUID>(count);
+        for (int i = 0; i < count; i++) {
+            accountIds.add(UUID.randomUUID());
+        }
+        for (int from = 0; from < count; from += 128) {
+            var batch = accountIds.subList(from, Math.min(count, from + 128));
+            awaitStatus(batch, 201, (accountId, future) -> client.openAccount(accountId, UUID.randomUUID(), future));
+            awaitStatus(batch, 204, (accountId, future) -> client.deposit(accountId, INITIAL_BALANCE, future));
+        }
+        return accountIds;
+    }
+
+    private static void awaitStatus(
+            List<UUID> accountIds,
+            int expectedStatus,
+            BiConsumer<UUID, CompletableFuture<AsyncAccountClient.HttpResponse>> request)
+            throws ExecutionException, InterruptedException {
+        var futures = new ArrayList<CompletableFuture<AsyncAccountClient.HttpResponse>>(accountIds.size());
+        for (var accountId : accountIds) {
+            var future = new CompletableFuture<AsyncAccountClient.HttpResponse>();
+            request.accept(accountId, future);
+            futures.add(future);
+        }
+        for (var future : futures) {
+            assertThat(future.get().code()).isEqualTo(expectedStatus);
+        }
+    }
+
+    private static void report(Map<Operation, OperationStats> stats, OperationStats all, long elapsedNanos, long outstanding) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("\nCompleted %d operations in %.3fs - %.1f ops/s, %d errors, %d conflicts, %d outstanding\n",
+                all.responseTimes.count(), seconds, all.responseTimes.count() / seconds,
+                all.errors.sum(), all.conflicts.sum(), outstanding);
+
+        System.out.println("\nResponse time (ms) - from the intended start, corrected for coordinated omission");
+        printTable(stats, all, s -> s.responseTimes);
+        System.out.println("\nService time (ms) - from the actual send");
+        printTable(stats, all, s -> s.serviceTimes);
+    }
+
+    private static void printTable(
+            Map<Operation, OperationStats> stats, OperationStats all, Function<OperationStats, LatencyHistogram> histogram) {
+        var header = new StringBuilder(String.format("%-10s\t%-10s\t%-10s\t%-10s", "OPERATION", "COUNT", "ERRORS", "CONFLICTS"));
+        for (var label : PERCENTILE_LABELS) {
+            header.append(String.format("\t%-10s", label));
+        }
+        header.append(String.format("\t%-10s", "MAX"));
+        System.out.println(header);
+
+        stats.forEach((operation, operationStats) -> printRow(operation.name(), operationStats, histogram.apply(operationStats)));
+        printRow("ALL", all, histogram.apply(all));
+    }
+
+    private static void printRow(String name, OperationStats stats, LatencyHistogram histogram) {
+        var row = new StringBuilder(String.format("%-10s\t%-10d\t%-10d\t%-10d",
+                name, histogram.count(), stats.errors.sum(), stats.conflicts.sum()));
+        for (var percentile : PERCENTILES) {
+            row.append(String.format("\t%-10.3f", histogram.valueAtPercentile(percentile) / 1e6));
+        }
+        row.append(String.format("\t%-10.3f", histogram.max() / 1e6));
+        System.out.println(row);
+    }
+
+    private static void delete(Path directory) {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package lt.rieske.accounts;
+
+import java.util.Arrays;
+import java.util.random.RandomGenerator;
+
+/**
+ * Ranks from 0 to n - 1, rank k drawn with a probability proportional to 1 / (k + 1)^exponent - rank 0 being the
+ * hottest. An exponent of 0 gives a uniform distribution, YCSB uses 0.99 for its hot keys.
+ */
+class ZipfianDistribution {
+
+    private final double[] cumulativeProbabilities;
+
+    ZipfianDistribution(int n, double exponent) {
+        if (n < 1 || exponent < 0) {
+            throw new IllegalArgumentException(String.format("Invalid zipfian distribution: n=%d, exponent=%s", n, exponent));
+        }
+        this.cumulativeProbabilities = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulativeProbabilities[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulativeProbabilities[k] /= sum;
+        }
+    }
+
+    int next(RandomGenerator random) {
+        int i = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        int rank = i >= 0 ? i : -i - 1;
+        return Math.min(rank, cumulativeProbabilities.length - 1);
+    }
+}
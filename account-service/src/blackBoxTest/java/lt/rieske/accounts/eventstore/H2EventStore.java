@@ -0,0 +1,19 @@
+package lt.rieske.accounts.eventstore;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+import java.util.function.Function;
+
+// an in-memory H2 database in PostgreSQL mode, migrated like the real one
+public final class H2EventStore {
+
+    private H2EventStore() {
+    }
+
+    public static BlobEventStore create(String databaseName) {
+        var dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + databaseName
+                + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1");
+        return EventStoreFactory.postgresEventStore(dataSource, Function.identity());
+    }
+}
@@ -0,0 +1,51 @@
+package lt.rieske.accounts.api;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.SequencedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventStreamJsonSerializerBenchmark {
+
+    @Param({"10", "1000"})
+    public int eventCount;
+
+    private final List<SequencedEvent<AccountEvent>> events = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        var accountId = UUID.randomUUID();
+        events.add(new SequencedEvent<>(accountId, 1, UUID.randomUUID(), new AccountEvent.AccountOpenedEvent(UUID.randomUUID())));
+        for (int i = 2; i <= eventCount; i++) {
+            AccountEvent event = i % 2 == 0
+                    ? new AccountEvent.MoneyDepositedEvent(10, i * 10L)
+                    : new AccountEvent.MoneyWithdrawnEvent(5, i * 5L);
+            events.add(new SequencedEvent<>(accountId, i, UUID.randomUUID(), event));
+        }
+    }
+
+    @Benchmark
+    public String toJson() {
+        return new EventStreamJsonSerializer().toJson(events);
+    }
+}
@@ -0,0 +1,89 @@
+package lt.rieske.accounts.api;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.SequencedEvent;
+import org.msgpack.core.MessagePack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Encoding cost of a request under either content type - the JSON bodies are measured down to the bytes sent.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagePackCodecBenchmark {
+
+    @Param({"10", "1000"})
+    public int eventCount;
+
+    private final List<SequencedEvent<AccountEvent>> events = new ArrayList<>();
+
+    private final UUID transactionId = UUID.randomUUID();
+    private final String amountParameter = "1000";
+    private final String transactionIdParameter = transactionId.toString();
+    private byte[] depositBody;
+
+    @Setup
+    public void setup() {
+        var accountId = UUID.randomUUID();
+        events.add(new SequencedEvent<>(accountId, 1, UUID.randomUUID(), new AccountEvent.AccountOpenedEvent(UUID.randomUUID())));
+        for (int i = 2; i <= eventCount; i++) {
+            AccountEvent event = i % 2 == 0
+                    ? new AccountEvent.MoneyDepositedEvent(10, i * 10L)
+                    : new AccountEvent.MoneyWithdrawnEvent(5, i * 5L);
+            events.add(new SequencedEvent<>(accountId, i, UUID.randomUUID(), event));
+        }
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(3)
+                    .packLong(1000)
+                    .packLong(transactionId.getMostSignificantBits())
+                    .packLong(transactionId.getLeastSignificantBits());
+            depositBody = packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    public byte[] eventsJson() {
+        return new EventStreamJsonSerializer().toJson(events).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] eventsMessagePack() {
+        return MessagePackCodec.events(events);
+    }
+
+    @Benchmark
+    public void depositQueryParameters(Blackhole blackhole) {
+        blackhole.consume(Long.parseLong(amountParameter));
+        blackhole.consume(UUID.fromString(transactionIdParameter));
+    }
+
+    @Benchmark
+    public void depositMessagePackBody(Blackhole blackhole) {
+        var body = MessagePackCodec.body(depositBody, 3);
+        blackhole.consume(body.nextLong());
+        blackhole.consume(body.nextUUID());
+    }
+}
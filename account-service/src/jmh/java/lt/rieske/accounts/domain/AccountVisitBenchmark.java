@@ -0,0 +1,55 @@
+package lt.rieske.accounts.domain;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+// Dispatch over a mix of all event types, so that the pattern switch can not be specialized for a single one.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AccountVisitBenchmark {
+
+    private static final int EVENT_COUNT = 1000;
+
+    private final Account account = new Account((event, aggregate, aggregateId) -> {
+    }, UUID.randomUUID());
+    private final AccountEvent[] events = new AccountEvent[EVENT_COUNT];
+
+    @Setup
+    public void setup() {
+        var ownerId = UUID.randomUUID();
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            events[i] = switch (i % 5) {
+                case 0 -> new AccountEvent.AccountSnapshot(account.id(), ownerId, i, true);
+                case 1 -> new AccountEvent.AccountOpenedEvent(ownerId);
+                case 2 -> new AccountEvent.MoneyDepositedEvent(10, i);
+                case 3 -> new AccountEvent.MoneyWithdrawnEvent(10, i);
+                default -> new AccountEvent.AccountClosedEvent();
+            };
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public long visit() {
+        for (var event : events) {
+            account.visit(event);
+        }
+        return account.balance();
+    }
+}
@@ -0,0 +1,103 @@
+package lt.rieske.accounts.eventsourcing;
+
+import lt.rieske.accounts.domain.Account;
+import lt.rieske.accounts.domain.AccountEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Replay of already deserialized history - the store is a stub serving the same history on every load.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EventReplayerBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int eventCount;
+
+    // with a snapshot, only the events following it (a tenth of them) are replayed
+    @Param({"false", "true"})
+    public boolean withSnapshot;
+
+    private final UUID accountId = UUID.randomUUID();
+    private EventReplayer<Account, AccountEvent> replayer;
+
+    @Setup
+    public void setup() {
+        var events = new ArrayList<SequencedEvent<AccountEvent>>();
+        events.add(new SequencedEvent<>(accountId, 1, UUID.randomUUID(), new AccountEvent.AccountOpenedEvent(UUID.randomUUID())));
+        for (int i = 2; i <= eventCount; i++) {
+            events.add(new SequencedEvent<>(accountId, i, UUID.randomUUID(), new AccountEvent.MoneyDepositedEvent(1, i - 1)));
+        }
+        SequencedEvent<AccountEvent> snapshot = null;
+        if (withSnapshot) {
+            int snapshotVersion = eventCount - eventCount / 10;
+            snapshot = new SequencedEvent<>(accountId, snapshotVersion, null,
+                    new AccountEvent.AccountSnapshot(accountId, UUID.randomUUID(), snapshotVersion - 1, true));
+            events = new ArrayList<>(events.subList(snapshotVersion, eventCount));
+        }
+        replayer = new EventReplayer<>(new FixedHistoryEventStore(new AggregateHistory<>(snapshot, events, false)));
+    }
+
+    @Benchmark
+    public long replay() {
+        var account = new Account((event, aggregate, aggregateId) -> {
+        }, accountId);
+        replayer.replay(account, accountId);
+        return account.balance();
+    }
+
+    private record FixedHistoryEventStore(AggregateHistory<AccountEvent> history) implements EventStore<AccountEvent> {
+
+        @Override
+        public AggregateHistory<AccountEvent> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+            return history;
+        }
+
+        @Override
+        public void append(
+                Collection<SequencedEvent<AccountEvent>> uncommittedEvents,
+                Collection<SequencedEvent<AccountEvent>> uncommittedSnapshots,
+                UUID transactionId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Stream<SequencedEvent<AccountEvent>> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public SequencedEvent<AccountEvent> loadSnapshot(UUID aggregateId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
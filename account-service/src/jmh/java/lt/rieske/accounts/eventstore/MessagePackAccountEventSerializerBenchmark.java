@@ -0,0 +1,77 @@
+package lt.rieske.accounts.eventstore;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessagePackAccountEventSerializerBenchmark {
+
+    @Param({"snapshot", "opened", "deposited"})
+    public String eventType;
+
+    private final MessagePackAccountEventSerializer serializer = new MessagePackAccountEventSerializer();
+    private AccountEvent event;
+    private byte[] serializedEvent;
+    private final ByteBuffer buffer = ByteBuffer.allocate(128);
+
+    @Setup
+    public void setup() {
+        event = switch (eventType) {
+            case "snapshot" -> new AccountEvent.AccountSnapshot(UUID.randomUUID(), UUID.randomUUID(), 1000, true);
+            case "opened" -> new AccountEvent.AccountOpenedEvent(UUID.randomUUID());
+            case "deposited" -> new AccountEvent.MoneyDepositedEvent(10, 1000);
+            default -> throw new IllegalArgumentException(eventType);
+        };
+        serializedEvent = serializer.serialize(event);
+    }
+
+    @Benchmark
+    public int serializeIntoBuffer() {
+        buffer.clear();
+        return serializer.serialize(event, buffer);
+    }
+
+    @Benchmark
+    public AccountEvent deserializeFromBuffer() {
+        buffer.clear();
+        serializer.serialize(event, buffer);
+        return serializer.deserialize(buffer.flip());
+    }
+
+    @Benchmark
+    public byte[] serialize() {
+        return serializer.serialize(event);
+    }
+
+    @Benchmark
+    public AccountEvent deserialize() {
+        return serializer.deserialize(serializedEvent);
+    }
+
+    // as the requests are executed - a new virtual thread for each, deserializing an event or a few
+    @Benchmark
+    public AccountEvent deserializeOnNewVirtualThread() throws InterruptedException {
+        var deserializedEvent = new AccountEvent[1];
+        Thread.ofVirtual().start(() -> deserializedEvent[0] = serializer.deserialize(serializedEvent)).join();
+        return deserializedEvent[0];
+    }
+}
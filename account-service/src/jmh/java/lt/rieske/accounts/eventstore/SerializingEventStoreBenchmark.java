@@ -0,0 +1,132 @@
+package lt.rieske.accounts.eventstore;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.AggregateHistory;
+import lt.rieske.accounts.eventsourcing.SequencedEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Serialization overhead of the store - the blob store underneath only keeps the serialized events in memory.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializingEventStoreBenchmark {
+
+    @Param({"1", "100"})
+    public int eventCount;
+
+    private final UUID accountId = UUID.randomUUID();
+    private final UUID transactionId = UUID.randomUUID();
+    private final InMemoryBlobEventStore blobStore = new InMemoryBlobEventStore();
+    private final SerializingEventStore<AccountEvent> eventStore =
+            new SerializingEventStore<>(new MessagePackAccountEventSerializer(), blobStore);
+    private final List<SequencedEvent<AccountEvent>> events = new ArrayList<>();
+    private final List<SequencedEvent<AccountEvent>> snapshots = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        events.add(new SequencedEvent<>(accountId, 1, transactionId, new AccountEvent.AccountOpenedEvent(UUID.randomUUID())));
+        for (int i = 2; i <= eventCount; i++) {
+            events.add(new SequencedEvent<>(accountId, i, transactionId, new AccountEvent.MoneyDepositedEvent(10, i * 10L)));
+        }
+        snapshots.add(new SequencedEvent<>(accountId, eventCount, null,
+                new AccountEvent.AccountSnapshot(accountId, UUID.randomUUID(), eventCount * 10L, true)));
+    }
+
+    @Benchmark
+    public AggregateHistory<AccountEvent> appendAndLoad() {
+        blobStore.clear();
+        eventStore.append(events, List.of(), transactionId);
+        return eventStore.loadAggregate(accountId, 0, transactionId);
+    }
+
+    @Benchmark
+    public AggregateHistory<AccountEvent> appendWithSnapshotAndLoad() {
+        blobStore.clear();
+        eventStore.append(events, snapshots, transactionId);
+        return eventStore.loadAggregate(accountId, 0, transactionId);
+    }
+
+    private static class InMemoryBlobEventStore implements BlobEventStore {
+        private final Map<UUID, List<SerializedEvent>> events = new HashMap<>();
+        private final Map<UUID, SerializedEvent> snapshots = new HashMap<>();
+
+        void clear() {
+            events.clear();
+            snapshots.clear();
+        }
+
+        @Override
+        public void append(Collection<SerializedEvent> serializedEvents, Collection<SerializedEvent> serializedSnapshots, UUID transactionId) {
+            serializedEvents.forEach(e -> events.computeIfAbsent(e.aggregateId(), id -> new ArrayList<>()).add(e));
+            serializedSnapshots.forEach(s -> snapshots.put(s.aggregateId(), s));
+        }
+
+        @Override
+        public Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+            return events.getOrDefault(aggregateId, List.of()).stream()
+                    .filter(e -> e.sequenceNumber() > fromVersion && e.sequenceNumber() <= toVersion);
+        }
+
+        @Override
+        public SerializedEvent loadLatestSnapshot(UUID aggregateId) {
+            return snapshots.get(aggregateId);
+        }
+
+        @Override
+        public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+            return events.getOrDefault(aggregateId, List.of()).stream().anyMatch(e -> transactionId.equals(e.transactionId()));
+        }
+
+        @Override
+        public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+            var transactions = new HashSet<UUID>();
+            for (var transactionId : transactionIds) {
+                if (transactionExists(aggregateId, transactionId)) {
+                    transactions.add(transactionId);
+                }
+            }
+            return transactions;
+        }
+
+        @Override
+        public SerializedAggregateHistory loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+            var snapshot = snapshots.get(aggregateId);
+            if (snapshot != null && snapshot.sequenceNumber() <= fromVersion) {
+                snapshot = null;
+            }
+            long eventsFrom = snapshot != null ? snapshot.sequenceNumber() : fromVersion;
+            return new SerializedAggregateHistory(snapshot, getEvents(aggregateId, eventsFrom).toList(),
+                    transactionId != null && transactionExists(aggregateId, transactionId));
+        }
+
+        // the benchmarked paths never read the log
+        @Override
+        public List<PositionedEvent> getEventsAfter(long position, int maxEvents) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
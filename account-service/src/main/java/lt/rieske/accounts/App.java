@@ -1,6 +1,7 @@
 package lt.rieske.accounts;
 
 import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.api.ServiceSettings;
 import lt.rieske.accounts.eventstore.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,13 +15,25 @@ public class App {
 
     public static void main(String[] args) {
         var port = ApiConfiguration.server(
-                () -> Configuration.blobEventStore(
-                        getRequiredEnvVariable("JDBC_URL"), getRequiredEnvVariable("DB_USER"),
-                        getRequiredEnvVariable("DB_PASSWORD"))
+                () -> System.getenv("EVENT_LOG_DIRECTORY") != null
+                        ? Configuration.segmentedLogEventStore(
+                                System.getenv("EVENT_LOG_DIRECTORY"), getEnvVariable("EVENT_LOG_FSYNC_POLICY", "GROUP"),
+                                getEnvVariable("EVENT_LOG_FSYNC_INTERVAL", "PT0.1S"))
+                        : Configuration.blobEventStore(
+                                getRequiredEnvVariable("JDBC_URL"), getRequiredEnvVariable("DB_USER"),
+                                getRequiredEnvVariable("DB_PASSWORD"),
+                                Integer.parseInt(getEnvVariable("SNAPSHOT_HISTORY_SIZE", "0")),
+                                Boolean.parseBoolean(getEnvVariable("EVENT_LOG", "false")),
+                                Boolean.parseBoolean(getEnvVariable("APPEND_NOTIFICATIONS", "false"))),
+                ServiceSettings.fromEnvironment(System::getenv)
                 ).start(8080);
         log.info("Server started on port: {}", port);
     }
 
+    private static String getEnvVariable(String variableName, String defaultValue) {
+        return Objects.requireNonNullElse(System.getenv(variableName), defaultValue);
+    }
+
     private static String getRequiredEnvVariable(String variableName) {
         return Objects.requireNonNull(System.getenv(variableName), String.format("Environment variable '%s' is required", variableName));
     }
@@ -0,0 +1,143 @@
+package lt.rieske.accounts.api;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Access log of the served requests, kept off the request path.
+ * <p>
+ * Requests record their route, status and latency into a preallocated ring buffer - nothing gets formatted or
+ * allocated there. A background thread drains the buffer every flush interval, or as soon as it gets half full,
+ * and writes the drained entries out. Should the buffer fill up regardless, new entries are dropped and counted
+ * rather than holding the requests up.
+ * <p>
+ * One in every sampling requests gets recorded - server errors always do. Sampling of 0 disables the log.
+ */
+class AccessLog implements AutoCloseable {
+
+    @FunctionalInterface
+    interface Sink {
+        void write(String route, int status, long durationNanos);
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(AccessLog.class);
+
+    private static final long FLUSH_INTERVAL_NANOS = Duration.ofMillis(100).toNanos();
+
+    private final int sampling;
+    private final Sink sink;
+    private final int mask;
+    private final String[] routes;
+    private final int[] statuses;
+    private final long[] durations;
+    // one past the sequence of the entry each slot holds - the slot is readable once it matches
+    private final AtomicLongArray published;
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread drainer;
+    private volatile long tail;
+    private volatile boolean closed;
+    private long reportedDrops;
+
+    // written to the access log logger at INFO - its level above INFO disables the log too
+    static AccessLog toLogger(int capacity, int sampling) {
+        var accessLogger = LoggerFactory.getLogger("access");
+        return new AccessLog(capacity, accessLogger.isInfoEnabled() ? sampling : 0,
+                (route, status, durationNanos) -> accessLogger.info("{} {} {}us", route, status, durationNanos / 1000));
+    }
+
+    AccessLog(int capacity, int sampling, Sink sink) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Access log capacity must be positive: " + capacity);
+        }
+        if (sampling < 0) {
+            throw new IllegalArgumentException("Access log sampling can not be negative: " + sampling);
+        }
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.sampling = sampling;
+        this.sink = sink;
+        this.mask = size - 1;
+        this.routes = new String[size];
+        this.statuses = new int[size];
+        this.durations = new long[size];
+        this.published = new AtomicLongArray(size);
+        this.drainer = sampling > 0 ? Thread.ofVirtual().name("access-log").start(this::run) : null;
+    }
+
+    void record(String route, int status, long durationNanos) {
+        if (sampling == 0 || status < 500 && sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= routes.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) sequence & mask;
+        routes[slot] = route;
+        statuses[slot] = status;
+        durations[slot] = durationNanos;
+        published.lazySet(slot, sequence + 1);
+        if (sequence - tail == routes.length / 2) {
+            LockSupport.unpark(drainer);
+        }
+    }
+
+    long droppedEntries() {
+        return dropped.sum();
+    }
+
+    // drains whatever has been recorded before closing
+    @Override
+    public void close() {
+        if (drainer == null) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            drain();
+            LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+        }
+        drain();
+    }
+
+    private void drain() {
+        long sequence = tail;
+        int slot = (int) sequence & mask;
+        while (published.get(slot) == sequence + 1) {
+            try {
+                sink.write(routes[slot], statuses[slot], durations[slot]);
+            } catch (RuntimeException e) {
+                log.warn("Could not write access log entry", e);
+            }
+            routes[slot] = null;
+            tail = ++sequence;
+            slot = (int) sequence & mask;
+        }
+        long drops = dropped.sum();
+        if (drops > reportedDrops) {
+            log.warn("Dropped {} access log entries", drops - reportedDrops);
+            reportedDrops = drops;
+        }
+    }
+}
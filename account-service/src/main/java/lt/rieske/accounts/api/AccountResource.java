@@ -5,9 +5,22 @@ import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.PathTemplateMatch;
 import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.AggregateNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ConcurrentModificationException;
 import java.util.Deque;
+import java.util.List;
 import java.util.UUID;
 
 
@@ -15,10 +28,17 @@ class AccountResource {
 
     private static final String APPLICATION_JSON = "application/json";
 
+    private static final int MAX_EVENT_PAGE_SIZE = 1000;
+    private static final int MAX_BATCH_SIZE = 10000;
+
     private static final String MDC_ACCOUNT_ID_KEY = "accountId";
     private static final String MDC_SOURCE_ACCOUNT_ID_KEY = "sourceAccountId";
     private static final String MDC_TARGET_ACCOUNT_ID_KEY = "targetAccountId";
 
+    // the request context only makes it to the detailed request logs of the server
+    private static final Logger requestLog = LoggerFactory.getLogger(Server.class);
+    private static final Logger log = LoggerFactory.getLogger(AccountResource.class);
+
     private final AccountService accountService;
 
     AccountResource(AccountService accountService) {
@@ -27,8 +47,10 @@ class AccountResource {
 
     void openAccount(HttpServerExchange exchange) {
         var accountId = accountIdPathParam(exchange);
-        var ownerId = UUID.fromString(getMandatoryQueryParameter(exchange, "owner"));
-        MDC.put(MDC_ACCOUNT_ID_KEY, accountId.toString());
+        var ownerId = isMessagePackBody(exchange)
+                ? messagePackBody(exchange, 2).nextUUID()
+                : UUID.fromString(getMandatoryQueryParameter(exchange, "owner"));
+        putRequestContext(MDC_ACCOUNT_ID_KEY, accountId);
 
         accountService.openAccount(accountId, ownerId);
 
@@ -38,19 +60,48 @@ class AccountResource {
 
     void getAccount(HttpServerExchange exchange) {
         var accountId = accountIdPathParam(exchange);
-        MDC.put(MDC_ACCOUNT_ID_KEY, accountId.toString());
+        putRequestContext(MDC_ACCOUNT_ID_KEY, accountId);
 
-        var account = accountService.queryAccount(accountId);
+        var atVersion = getOptionalQueryParameter(exchange, "atVersion");
+        var atTime = getOptionalQueryParameter(exchange, "atTime");
+        if (atVersion != null && atTime != null) {
+            throw new IllegalArgumentException("Only one of 'atVersion' and 'atTime' can be given");
+        }
+        AccountEvent.AccountSnapshot account;
+        if (atVersion != null) {
+            account = accountService.queryAccountAt(accountId, Long.parseLong(atVersion));
+        } else if (atTime != null) {
+            if (!accountService.canQueryAccountAtTime()) {
+                error(exchange, 501, "Account state at a given time is not supported by the event store");
+                return;
+            }
+            account = accountService.queryAccountAt(accountId, parseTime(atTime));
+        } else {
+            account = accountService.queryAccount(accountId, minVersionQueryParam(exchange));
+        }
 
+        if (acceptsMessagePack(exchange)) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MessagePackCodec.APPLICATION_MSGPACK);
+            exchange.getResponseSender().send(ByteBuffer.wrap(MessagePackCodec.account(account)));
+            return;
+        }
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, APPLICATION_JSON);
         exchange.getResponseSender().send(accountJson(account));
     }
 
     void deposit(HttpServerExchange exchange) {
         var accountId = accountIdPathParam(exchange);
-        MDC.put(MDC_ACCOUNT_ID_KEY, accountId.toString());
-        long amount = amountQueryParam(exchange);
-        var transactionId = transactionIdQueryParam(exchange);
+        putRequestContext(MDC_ACCOUNT_ID_KEY, accountId);
+        long amount;
+        UUID transactionId;
+        if (isMessagePackBody(exchange)) {
+            var body = messagePackBody(exchange, 3);
+            amount = body.nextLong();
+            transactionId = body.nextUUID();
+        } else {
+            amount = amountQueryParam(exchange);
+            transactionId = transactionIdQueryParam(exchange);
+        }
 
         accountService.deposit(accountId, amount, transactionId);
 
@@ -59,9 +110,17 @@ class AccountResource {
 
     void withdraw(HttpServerExchange exchange) {
         var accountId = accountIdPathParam(exchange);
-        MDC.put(MDC_ACCOUNT_ID_KEY, accountId.toString());
-        long amount = amountQueryParam(exchange);
-        var transactionId = transactionIdQueryParam(exchange);
+        putRequestContext(MDC_ACCOUNT_ID_KEY, accountId);
+        long amount;
+        UUID transactionId;
+        if (isMessagePackBody(exchange)) {
+            var body = messagePackBody(exchange, 3);
+            amount = body.nextLong();
+            transactionId = body.nextUUID();
+        } else {
+            amount = amountQueryParam(exchange);
+            transactionId = transactionIdQueryParam(exchange);
+        }
 
         accountService.withdraw(accountId, amount, transactionId);
 
@@ -70,11 +129,21 @@ class AccountResource {
 
     void transfer(HttpServerExchange exchange) {
         var sourceAccountId = accountIdPathParam(exchange);
-        MDC.put(MDC_SOURCE_ACCOUNT_ID_KEY, sourceAccountId.toString());
-        var targetAccountId = UUID.fromString(getMandatoryQueryParameter(exchange, "targetAccount"));
-        MDC.put(MDC_TARGET_ACCOUNT_ID_KEY, targetAccountId.toString());
-        long amount = amountQueryParam(exchange);
-        var transactionId = transactionIdQueryParam(exchange);
+        putRequestContext(MDC_SOURCE_ACCOUNT_ID_KEY, sourceAccountId);
+        UUID targetAccountId;
+        long amount;
+        UUID transactionId;
+        if (isMessagePackBody(exchange)) {
+            var body = messagePackBody(exchange, 5);
+            targetAccountId = body.nextUUID();
+            amount = body.nextLong();
+            transactionId = body.nextUUID();
+        } else {
+            targetAccountId = UUID.fromString(getMandatoryQueryParameter(exchange, "targetAccount"));
+            amount = amountQueryParam(exchange);
+            transactionId = transactionIdQueryParam(exchange);
+        }
+        putRequestContext(MDC_TARGET_ACCOUNT_ID_KEY, targetAccountId);
 
         accountService.transfer(sourceAccountId, targetAccountId, amount, transactionId);
 
@@ -89,27 +158,73 @@ class AccountResource {
         exchange.setStatusCode(204);
     }
 
-    void getEvents(HttpServerExchange exchange) {
-        var accountId = accountIdPathParam(exchange);
+    // Commands in a msgpack body, each getting the status its own endpoint would have responded with.
+    // The batch as a whole is not atomic - every command succeeds or fails on its own.
+    void batch(HttpServerExchange exchange) {
+        if (!isMessagePackBody(exchange)) {
+            exchange.setStatusCode(415);
+            return;
+        }
+        var commands = MessagePackCodec.batchCommands(readBody(exchange), MAX_BATCH_SIZE);
 
-        var events = accountService.getEvents(accountId);
+        var results = accountService.executeBatch(commands).stream().map(AccountResource::batchResult).toList();
 
+        if (acceptsMessagePack(exchange)) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MessagePackCodec.APPLICATION_MSGPACK);
+            exchange.getResponseSender().send(ByteBuffer.wrap(MessagePackCodec.batchResults(results)));
+            return;
+        }
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, APPLICATION_JSON);
-        exchange.getResponseSender().send(new EventStreamJsonSerializer().toJson(events));
+        exchange.getResponseSender().send(batchResultsJson(results));
+    }
+
+    // With a limit - a page of events starting at fromSequence, linking to the next page if there might be one.
+    // Without - all events starting at fromSequence, read in pages and encoded to a chunked response as they are read.
+    void getEvents(HttpServerExchange exchange) {
+        var accountId = accountIdPathParam(exchange);
+        long fromSequence = fromSequenceQueryParam(exchange);
+        var limit = getOptionalQueryParameter(exchange, "limit");
+        boolean messagePack = acceptsMessagePack(exchange);
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, messagePack ? MessagePackCodec.APPLICATION_MSGPACK : APPLICATION_JSON);
+        if (limit == null) {
+            streamEvents(exchange, accountId, fromSequence, messagePack);
+            return;
+        }
+
+        int pageSize = pageSize(limit);
+        var events = accountService.getEvents(accountId, fromSequence - 1, pageSize);
+        if (events.size() == pageSize) {
+            long nextSequence = events.getLast().sequenceNumber() + 1;
+            exchange.getResponseHeaders().put(new HttpString("Link"),
+                    "</account/" + accountId + "/events?fromSequence=" + nextSequence + "&limit=" + pageSize + ">; rel=\"next\"");
+        }
+        if (messagePack) {
+            exchange.getResponseSender().send(ByteBuffer.wrap(MessagePackCodec.events(events)));
+        } else {
+            exchange.getResponseSender().send(new EventStreamJsonSerializer().toJson(events));
+        }
     }
 
     void badRequest(Exception e, HttpServerExchange exchange) {
-        errorJson(exchange, 400, e.getMessage());
+        error(exchange, 400, e.getMessage());
     }
 
     void notFound(Exception e, HttpServerExchange exchange) {
-        errorJson(exchange, 404, e.getMessage());
+        error(exchange, 404, e.getMessage());
     }
 
     void conflict(Exception e, HttpServerExchange exchange) {
         exchange.setStatusCode(409);
     }
 
+    // not worth formatting the ids unless the detailed request logs are enabled
+    private static void putRequestContext(String key, UUID id) {
+        if (requestLog.isDebugEnabled()) {
+            MDC.put(key, id.toString());
+        }
+    }
+
     private static UUID accountIdPathParam(HttpServerExchange exchange) {
         return UUID.fromString(pathParam(exchange, "accountId"));
     }
@@ -126,6 +241,79 @@ class AccountResource {
         return value;
     }
 
+    private void streamEvents(HttpServerExchange exchange, UUID accountId, long fromSequence, boolean messagePack) {
+        if (messagePack) {
+            try (var events = accountService.streamEvents(accountId, fromSequence - 1)) {
+                MessagePackCodec.writeEvents(events, exchange.getOutputStream());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return;
+        }
+        try (var events = accountService.streamEvents(accountId, fromSequence - 1);
+             var writer = new BufferedWriter(new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8))) {
+            new EventStreamJsonSerializer().writeJson(events, writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // JSON stays the default - msgpack only when the client asks for it
+    private static boolean acceptsMessagePack(HttpServerExchange exchange) {
+        var accept = exchange.getRequestHeaders().getFirst(Headers.ACCEPT);
+        return accept != null && accept.contains(MessagePackCodec.APPLICATION_MSGPACK);
+    }
+
+    private static boolean isMessagePackBody(HttpServerExchange exchange) {
+        var contentType = exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE);
+        return contentType != null && contentType.startsWith(MessagePackCodec.APPLICATION_MSGPACK);
+    }
+
+    private static MessagePackCodec.Body messagePackBody(HttpServerExchange exchange, int fieldCount) {
+        return MessagePackCodec.body(readBody(exchange), fieldCount);
+    }
+
+    private static byte[] readBody(HttpServerExchange exchange) {
+        try {
+            return exchange.getInputStream().readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long fromSequenceQueryParam(HttpServerExchange exchange) {
+        var fromSequence = getOptionalQueryParameter(exchange, "fromSequence");
+        if (fromSequence == null) {
+            return 1;
+        }
+        long sequence = Long.parseLong(fromSequence);
+        if (sequence < 1) {
+            throw new IllegalArgumentException("'fromSequence' must be positive");
+        }
+        return sequence;
+    }
+
+    private static long minVersionQueryParam(HttpServerExchange exchange) {
+        var minVersion = getOptionalQueryParameter(exchange, "minVersion");
+        return minVersion == null ? 0 : Long.parseLong(minVersion);
+    }
+
+    private static Instant parseTime(String time) {
+        try {
+            return Instant.parse(time);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("'atTime' must be an ISO-8601 instant, i.e. 2024-01-31T10:15:30Z", e);
+        }
+    }
+
+    private static int pageSize(String limit) {
+        int pageSize = Integer.parseInt(limit);
+        if (pageSize < 1 || pageSize > MAX_EVENT_PAGE_SIZE) {
+            throw new IllegalArgumentException(String.format("'limit' must be between 1 and %d", MAX_EVENT_PAGE_SIZE));
+        }
+        return pageSize;
+    }
+
     private static long amountQueryParam(HttpServerExchange exchange) {
         return Long.parseLong(getMandatoryQueryParameter(exchange, "amount"));
     }
@@ -134,6 +322,11 @@ class AccountResource {
         return UUID.fromString(getMandatoryQueryParameter(exchange, "transactionId"));
     }
 
+    private static String getOptionalQueryParameter(HttpServerExchange exchange, String paramName) {
+        Deque<String> values = exchange.getQueryParameters().get(paramName);
+        return values == null || values.isEmpty() ? null : values.getFirst();
+    }
+
     private static String getMandatoryQueryParameter(HttpServerExchange exchange, String paramName) {
         Deque<String> values = exchange.getQueryParameters().get(paramName);
         if (values == null || values.isEmpty()) {
@@ -151,8 +344,44 @@ class AccountResource {
                 + "}";
     }
 
-    private static void errorJson(HttpServerExchange exchange, int status, String message) {
+    private static BatchResult batchResult(RuntimeException failure) {
+        return switch (failure) {
+            case null -> new BatchResult(204, null);
+            case IllegalArgumentException e -> new BatchResult(400, e.getMessage());
+            case AggregateNotFoundException e -> new BatchResult(404, e.getMessage());
+            case ConcurrentModificationException e -> new BatchResult(409, null);
+            default -> internalError(failure);
+        };
+    }
+
+    // the cause stays in the log - the client only learns that its command failed
+    private static BatchResult internalError(RuntimeException failure) {
+        log.error("Batched command failed", failure);
+        return new BatchResult(500, "Internal server error");
+    }
+
+    private static String batchResultsJson(List<BatchResult> results) {
+        var json = new StringBuilder(results.size() * 16).append('[');
+        for (var result : results) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append("{\"status\":").append(result.status());
+            if (result.message() != null) {
+                json.append(",\"message\":\"").append(result.message().replace("\"", "'")).append('"');
+            }
+            json.append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static void error(HttpServerExchange exchange, int status, String message) {
         exchange.setStatusCode(status);
+        if (acceptsMessagePack(exchange)) {
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MessagePackCodec.APPLICATION_MSGPACK);
+            exchange.getResponseSender().send(ByteBuffer.wrap(MessagePackCodec.error(message)));
+            return;
+        }
         exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, APPLICATION_JSON);
         exchange.getResponseSender().send("{\"message\":\"" + message.replace("\"", "'") + "\"}");
     }
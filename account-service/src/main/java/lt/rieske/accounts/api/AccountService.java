@@ -4,62 +4,199 @@ import lt.rieske.accounts.domain.Account;
 import lt.rieske.accounts.domain.AccountEvent;
 import lt.rieske.accounts.domain.AtomicOperation;
 import lt.rieske.accounts.eventsourcing.AggregateRepository;
+import lt.rieske.accounts.eventsourcing.AggregateTransaction;
 import lt.rieske.accounts.eventsourcing.EventStore;
 import lt.rieske.accounts.eventsourcing.SequencedEvent;
+import lt.rieske.accounts.metrics.Counter;
+import lt.rieske.accounts.metrics.MetricsRegistry;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 class AccountService {
 
+    private static final int EVENT_STREAM_PAGE_SIZE = 1000;
+
     private final AggregateRepository<Account, AccountEvent> accountRepository;
     private final EventStore<AccountEvent> eventStore;
+    private final CommandLanes commandLanes;
+    private final Counter conflicts;
+    private final Counter retries;
 
-    AccountService(AggregateRepository<Account, AccountEvent> accountRepository, EventStore<AccountEvent> eventStore) {
+    AccountService(
+            AggregateRepository<Account, AccountEvent> accountRepository,
+            EventStore<AccountEvent> eventStore,
+            CommandLanes commandLanes,
+            MetricsRegistry metrics) {
         this.accountRepository = accountRepository;
         this.eventStore = eventStore;
+        this.commandLanes = commandLanes;
+        this.conflicts = metrics.counter("account_command_conflicts_total", "Commands that lost the optimistic lock");
+        this.retries = metrics.counter("account_command_retries_total", "Commands retried after losing the optimistic lock");
     }
 
     void openAccount(UUID accountId, UUID ownerId) {
-        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        commandLanes.execute(accountId, () ->
+                accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId)));
     }
 
     void deposit(UUID accountId, long amount, UUID transactionId) {
-        withRetryOnConcurrentModification(() ->
-                accountRepository.transact(accountId, transactionId, AtomicOperation.deposit(amount)));
+        commandLanes.executeBatched(accountId,
+                new AggregateTransaction<>(transactionId, AtomicOperation.deposit(amount)), this::transact);
     }
 
     void withdraw(UUID accountId, long amount, UUID transactionId) {
-        withRetryOnConcurrentModification(() ->
-                accountRepository.transact(accountId, transactionId, AtomicOperation.withdraw(amount)));
+        commandLanes.executeBatched(accountId,
+                new AggregateTransaction<>(transactionId, AtomicOperation.withdraw(amount)), this::transact);
     }
 
+    // routed by the source account only - the target account might still be contended from other lanes,
+    // but taking both lanes would open the door for deadlocks between opposite transfers
     void transfer(UUID sourceAccountId, UUID targetAccountId, long amount, UUID transactionId) {
-        withRetryOnConcurrentModification(() ->
-                accountRepository.transact(sourceAccountId, targetAccountId, transactionId, AtomicOperation.transfer(amount)));
+        commandLanes.execute(sourceAccountId, () -> withRetryOnConcurrentModification(sourceAccountId, () ->
+                accountRepository.transact(sourceAccountId, targetAccountId, transactionId, AtomicOperation.transfer(amount))));
     }
 
     void close(UUID accountId) {
-        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.close());
+        commandLanes.execute(accountId, () ->
+                accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.close()));
     }
 
-    AccountEvent.AccountSnapshot queryAccount(UUID accountId) {
+    /**
+     * Deposits and withdrawals are grouped per account - each group gets loaded and committed once, in the account's
+     * lane. A transfer is executed on its own, after the groups collected so far for either of its accounts, so that
+     * every account sees its commands in the given order.
+     *
+     * @return the failure of each command, in order - null where the command succeeded
+     */
+    List<RuntimeException> executeBatch(List<BatchCommand> commands) {
+        var failures = new ArrayList<RuntimeException>(Collections.nCopies(commands.size(), null));
+        Map<UUID, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < commands.size(); i++) {
+            if (commands.get(i) instanceof BatchCommand.Transfer t) {
+                executeGroup(t.accountId(), groups.remove(t.accountId()), commands, failures);
+                executeGroup(t.targetAccountId(), groups.remove(t.targetAccountId()), commands, failures);
+                try {
+                    transfer(t.accountId(), t.targetAccountId(), t.amount(), t.transactionId());
+                } catch (RuntimeException e) {
+                    failures.set(i, e);
+                }
+            } else {
+                groups.computeIfAbsent(commands.get(i).accountId(), id -> new ArrayList<>()).add(i);
+            }
+        }
+        groups.forEach((accountId, group) -> executeGroup(accountId, group, commands, failures));
+        return failures;
+    }
+
+    // served from the stored account view when there is one reflecting at least minVersion, replayed otherwise
+    AccountEvent.AccountSnapshot queryAccount(UUID accountId, long minVersion) {
+        if (accountRepository.queryView(accountId, minVersion) instanceof AccountEvent.AccountSnapshot view) {
+            return view;
+        }
         return accountRepository.query(accountId).snapshot();
     }
 
-    List<SequencedEvent<AccountEvent>> getEvents(UUID accountId) {
-        return eventStore.getEvents(accountId, 0).toList();
+    // replayed from the nearest snapshot at or before the version - neither the view nor the cache hold past states
+    AccountEvent.AccountSnapshot queryAccountAt(UUID accountId, long version) {
+        return accountRepository.queryAt(accountId, version).snapshot();
+    }
+
+    boolean canQueryAccountAtTime() {
+        return accountRepository.canQueryAtTime();
+    }
+
+    AccountEvent.AccountSnapshot queryAccountAt(UUID accountId, Instant time) {
+        return accountRepository.queryAt(accountId, time).snapshot();
     }
 
-    private static void withRetryOnConcurrentModification(Runnable r) {
+    // sequence numbers of an aggregate's events are contiguous - a page is a range of them
+    List<SequencedEvent<AccountEvent>> getEvents(UUID accountId, long fromVersion, int limit) {
+        long toVersion = fromVersion > Long.MAX_VALUE - limit ? Long.MAX_VALUE : fromVersion + limit;
+        try (var events = eventStore.getEvents(accountId, fromVersion, toVersion)) {
+            return events.toList();
+        }
+    }
+
+    // Read a page at a time, the next page only once the previous one has been consumed - the event store connection
+    // is released between the pages instead of being held for as long as a slow client takes to read all the events.
+    Stream<SequencedEvent<AccountEvent>> streamEvents(UUID accountId, long fromVersion) {
+        return Stream.iterate(
+                        getEvents(accountId, fromVersion, EVENT_STREAM_PAGE_SIZE),
+                        page -> !page.isEmpty(),
+                        page -> page.size() < EVENT_STREAM_PAGE_SIZE
+                                ? List.of()
+                                : getEvents(accountId, page.getLast().sequenceNumber(), EVENT_STREAM_PAGE_SIZE))
+                .flatMap(List::stream);
+    }
+
+    // all transactions queued for the account get committed together
+    private List<RuntimeException> transact(UUID accountId, List<AggregateTransaction<Account>> transactions) {
+        return withRetryOnConcurrentModification(accountId, () -> accountRepository.transact(accountId, transactions));
+    }
+
+    private void executeGroup(UUID accountId, List<Integer> group, List<BatchCommand> commands, List<RuntimeException> failures) {
+        if (group == null) {
+            return;
+        }
+        var transactions = group.stream().map(i -> transaction(commands.get(i))).toList();
+        try {
+            var groupFailures = commandLanes.execute(accountId, () -> transact(accountId, transactions));
+            for (int i = 0; i < group.size(); i++) {
+                failures.set(group.get(i), groupFailures.get(i));
+            }
+        } catch (RuntimeException e) {
+            group.forEach(i -> failures.set(i, e));
+        }
+    }
+
+    private static AggregateTransaction<Account> transaction(BatchCommand command) {
+        return switch (command) {
+            case BatchCommand.Deposit d -> new AggregateTransaction<>(d.transactionId(), AtomicOperation.deposit(d.amount()));
+            case BatchCommand.Withdrawal w -> new AggregateTransaction<>(w.transactionId(), AtomicOperation.withdraw(w.amount()));
+            case BatchCommand.Transfer t -> throw new IllegalArgumentException("Transfers span two accounts");
+        };
+    }
+
+    private void withRetryOnConcurrentModification(UUID aggregateId, Runnable r) {
+        withRetryOnConcurrentModification(aggregateId, () -> {
+            r.run();
+            return null;
+        });
+    }
+
+    private <T> T withRetryOnConcurrentModification(UUID aggregateId, Supplier<T> s) {
         ConcurrentModificationException concurrentModification = null;
         for (int attempt = 0; attempt < 3; attempt++) {
+            if (attempt > 0) {
+                retries.increment();
+            }
+            var attemptEvent = new CommandAttemptJfrEvent();
+            attemptEvent.begin();
+            attemptEvent.outcome = "failed";
             try {
-                r.run();
-                return;
+                var result = s.get();
+                attemptEvent.outcome = "applied";
+                return result;
             } catch (ConcurrentModificationException e) {
+                attemptEvent.outcome = "conflict";
+                conflicts.increment();
                 concurrentModification = e;
+            } finally {
+                attemptEvent.end();
+                if (attemptEvent.shouldCommit()) {
+                    attemptEvent.aggregateId = aggregateId.toString();
+                    attemptEvent.attempt = attempt + 1;
+                    attemptEvent.commit();
+                }
             }
         }
         throw concurrentModification;
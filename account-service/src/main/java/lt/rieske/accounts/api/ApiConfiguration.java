@@ -3,22 +3,64 @@ package lt.rieske.accounts.api;
 import lt.rieske.accounts.domain.Account;
 import lt.rieske.accounts.domain.AccountEvent;
 import lt.rieske.accounts.domain.AccountSnapshotter;
+import lt.rieske.accounts.eventsourcing.AdaptiveSnapshotter;
+import lt.rieske.accounts.eventsourcing.AggregateCache;
 import lt.rieske.accounts.eventsourcing.AggregateRepository;
+import lt.rieske.accounts.eventsourcing.AsyncSnapshotWriter;
 import lt.rieske.accounts.eventsourcing.EventStore;
+import lt.rieske.accounts.eventsourcing.Snapshotter;
 import lt.rieske.accounts.eventstore.BlobEventStore;
 import lt.rieske.accounts.eventstore.Configuration;
+import lt.rieske.accounts.metrics.MetricsRegistry;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.function.Supplier;
 
 public class ApiConfiguration {
 
+    private static final int SNAPSHOTTING_FREQUENCY = 50;
+    private static final int MAX_EVENTS_BETWEEN_ADAPTIVE_SNAPSHOTS = 1000;
+    private static final int ADAPTIVE_SNAPSHOTTER_TRACKED_AGGREGATES = 10_000;
+
     public static Server server(Supplier<BlobEventStore> eventStoreSupplier) {
-        var eventStore = Configuration.accountEventStore(eventStoreSupplier.get());
-        var accountRepository = snapshottingAccountRepository(eventStore, 50);
-        var accountService = new AccountService(accountRepository, eventStore);
+        return server(eventStoreSupplier, ServiceSettings.defaults());
+    }
+
+    public static Server server(Supplier<BlobEventStore> eventStoreSupplier, ServiceSettings settings) {
+        var metrics = new MetricsRegistry();
+        var eventStore = Configuration.accountEventStore(Configuration.timedBlobEventStore(eventStoreSupplier.get(), metrics));
+        var accountCache = accountCache(settings.aggregateCacheSize(), settings.aggregateCacheExpireAfterAccess());
+        var snapshotWriter = settings.asyncSnapshots() ? new AsyncSnapshotWriter<>(eventStore) : null;
+        var snapshotter = new MeteredSnapshotter<>(settings.snapshotReplayBudget() > 0
+                ? adaptiveSnapshotter(settings.snapshotReplayBudget())
+                : new AccountSnapshotter(SNAPSHOTTING_FREQUENCY), metrics);
+        var accountRepository = settings.accountViews()
+                ? viewingAccountRepository(eventStore, snapshotter, accountCache, snapshotWriter)
+                : accountRepository(eventStore, snapshotter, accountCache, snapshotWriter);
+        var commandLanes = new CommandLanes(
+                settings.commandLanes(), settings.groupCommitMaxBatchSize(), settings.groupCommitWindow());
+        var accountService = new AccountService(accountRepository, eventStore, commandLanes, metrics);
         var accountResource = new AccountResource(accountService);
 
-        return new Server(accountResource);
+        // lanes are drained first - the commands still in them may hand over snapshots to the writer
+        var resources = new ArrayList<AutoCloseable>(List.of(commandLanes));
+        if (snapshotWriter != null) {
+            resources.add(snapshotWriter);
+        }
+        var accessLog = AccessLog.toLogger(settings.accessLogBufferSize(), settings.accessLogSampling());
+
+        metrics.counter("aggregate_cache_hits_total", "Aggregate loads served from the cache", accountCache::hits);
+        metrics.counter("aggregate_cache_misses_total", "Aggregate loads not served from the cache", accountCache::misses);
+        metrics.counter("aggregate_cache_evictions_total", "Aggregates evicted from the cache", accountCache::evictions);
+        metrics.gauge("aggregate_cache_size", "Aggregates in the cache", accountCache::size);
+        metrics.gauge("command_lanes_queued_commands", "Commands waiting in the command lanes", commandLanes::queuedCommands);
+        if (snapshotWriter != null) {
+            metrics.gauge("snapshot_writer_pending_snapshots", "Snapshots waiting to be written", snapshotWriter::pendingSnapshots);
+        }
+        metrics.counter("access_log_dropped_entries_total", "Access log entries dropped on a full buffer", accessLog::droppedEntries);
+        return new Server(accountResource, settings.virtualThreadRequests(), accessLog, metrics, resources);
     }
 
     public static AggregateRepository<Account, AccountEvent> accountRepository(EventStore<AccountEvent> eventStore) {
@@ -30,6 +72,47 @@ public class ApiConfiguration {
         return new AggregateRepository<>(eventStore, Account::new, new AccountSnapshotter(snapshottingFrequency));
     }
 
+    public static AggregateRepository<Account, AccountEvent> cachingAccountRepository(
+            EventStore<AccountEvent> eventStore, int snapshottingFrequency, AggregateCache<Account, AccountEvent> cache) {
+        return new AggregateRepository<>(eventStore, Account::new, new AccountSnapshotter(snapshottingFrequency), cache);
+    }
+
+    public static AggregateRepository<Account, AccountEvent> cachingAccountRepository(
+            EventStore<AccountEvent> eventStore, int snapshottingFrequency, AggregateCache<Account, AccountEvent> cache,
+            AsyncSnapshotWriter<AccountEvent> snapshotWriter) {
+        return accountRepository(eventStore, new AccountSnapshotter(snapshottingFrequency), cache, snapshotWriter);
+    }
+
+    public static AggregateRepository<Account, AccountEvent> accountRepository(
+            EventStore<AccountEvent> eventStore,
+            Snapshotter<Account, AccountEvent> snapshotter,
+            AggregateCache<Account, AccountEvent> cache,
+            AsyncSnapshotWriter<AccountEvent> snapshotWriter) {
+        return new AggregateRepository<>(eventStore, Account::new, snapshotter, cache, snapshotWriter);
+    }
+
+    // stores the view of each modified account along with its events
+    public static AggregateRepository<Account, AccountEvent> viewingAccountRepository(
+            EventStore<AccountEvent> eventStore,
+            Snapshotter<Account, AccountEvent> snapshotter,
+            AggregateCache<Account, AccountEvent> cache,
+            AsyncSnapshotWriter<AccountEvent> snapshotWriter) {
+        return new AggregateRepository<>(eventStore, Account::new, snapshotter, cache, snapshotWriter, Account::snapshot);
+    }
+
+    public static AdaptiveSnapshotter<Account, AccountEvent> adaptiveSnapshotter(long replayBudget) {
+        return adaptiveSnapshotter(replayBudget, MAX_EVENTS_BETWEEN_ADAPTIVE_SNAPSHOTS);
+    }
+
+    public static AdaptiveSnapshotter<Account, AccountEvent> adaptiveSnapshotter(long replayBudget, long maxEventsBetweenSnapshots) {
+        return new AdaptiveSnapshotter<>(
+                Account::snapshot, replayBudget, maxEventsBetweenSnapshots, ADAPTIVE_SNAPSHOTTER_TRACKED_AGGREGATES);
+    }
+
+    public static AggregateCache<Account, AccountEvent> accountCache(int maximumSize, Duration expireAfterAccess) {
+        return new AggregateCache<>(Account::snapshot, maximumSize, expireAfterAccess);
+    }
+
     private ApiConfiguration() {
     }
 
@@ -0,0 +1,20 @@
+package lt.rieske.accounts.api;
+
+import java.util.UUID;
+
+
+sealed interface BatchCommand {
+
+    UUID accountId();
+
+    UUID transactionId();
+
+    record Deposit(UUID accountId, long amount, UUID transactionId) implements BatchCommand {
+    }
+
+    record Withdrawal(UUID accountId, long amount, UUID transactionId) implements BatchCommand {
+    }
+
+    record Transfer(UUID accountId, UUID targetAccountId, long amount, UUID transactionId) implements BatchCommand {
+    }
+}
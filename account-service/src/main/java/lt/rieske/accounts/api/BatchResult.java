@@ -0,0 +1,5 @@
+package lt.rieske.accounts.api;
+
+// the outcome of a batched command - the status its own endpoint would have responded with
+record BatchResult(int status, String message) {
+}
@@ -0,0 +1,23 @@
+package lt.rieske.accounts.api;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.CommandAttempt")
+@Label("Command Attempt")
+@Category({"Event Sourced Account", "Commands"})
+@Description("An attempt to apply a command - retried when it loses the optimistic lock")
+class CommandAttemptJfrEvent extends jdk.jfr.Event {
+
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Attempt")
+    int attempt;
+
+    // applied, conflict or failed
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,287 @@
+package lt.rieske.accounts.api;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Serializes commands per aggregate within this process.
+ * <p>
+ * Every aggregate id is mapped to one of a fixed number of lanes. Each lane is a mailbox drained by a single virtual
+ * thread, so commands for the same aggregate never race each other for the optimistic lock - concurrent modifications
+ * are left to happen only between service instances. The caller blocks until its command completes.
+ * <p>
+ * Batched commands queued for the same aggregate are handed to their {@link BatchExecutor} together - up to
+ * maxBatchSize of them, waiting for at most batchWindow for more to arrive after the first one. Each caller still
+ * gets the outcome of its own command.
+ * <p>
+ * With zero lanes, commands are executed directly on the calling thread.
+ * <p>
+ * Closing lets the lanes finish the commands queued so far and rejects the ones submitted after. The lane threads are
+ * never interrupted - an interrupt would reach the command being executed, closing the file channels of the event store
+ * under it.
+ */
+class CommandLanes implements AutoCloseable {
+
+    @FunctionalInterface
+    interface BatchExecutor<T> {
+        /**
+         * @return the failure of each command, in order - null where the command succeeded.
+         * Throwing fails all the commands of the batch.
+         */
+        List<RuntimeException> execute(UUID aggregateId, List<T> commands);
+    }
+
+    // queued behind the commands accepted before the lanes got closed
+    private static final PendingCommand<Void> STOP = new PlainCommand<>(null, () -> null);
+
+    private final Lane[] lanes;
+    private final int maxBatchSize;
+    private final long batchWindowNanos;
+    private volatile boolean closed;
+
+    CommandLanes(int laneCount) {
+        this(laneCount, 1, Duration.ZERO);
+    }
+
+    CommandLanes(int laneCount, int maxBatchSize, Duration batchWindow) {
+        if (laneCount < 0) {
+            throw new IllegalArgumentException("Lane count can not be negative: " + laneCount);
+        }
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindowNanos = batchWindow.toNanos();
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+    void execute(UUID aggregateId, Runnable command) {
+        execute(aggregateId, () -> {
+            command.run();
+            return null;
+        });
+    }
+
+    <T> T execute(UUID aggregateId, Supplier<T> command) {
+        if (lanes.length == 0) {
+            return command.get();
+        }
+        return submit(new PlainCommand<>(aggregateId, command));
+    }
+
+    <T> void executeBatched(UUID aggregateId, T command, BatchExecutor<T> batchExecutor) {
+        if (lanes.length == 0) {
+            var failure = batchExecutor.execute(aggregateId, List.of(command)).getFirst();
+            if (failure != null) {
+                throw failure;
+            }
+            return;
+        }
+        submit(new BatchedCommand<>(aggregateId, command, batchExecutor));
+    }
+
+    int queuedCommands() {
+        int queuedCommands = 0;
+        for (var lane : lanes) {
+            queuedCommands += lane.mailbox.size();
+        }
+        return queuedCommands;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (var lane : lanes) {
+            lane.mailbox.add(STOP);
+        }
+        for (var lane : lanes) {
+            try {
+                lane.thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private <T> T submit(PendingCommand<T> command) {
+        if (closed) {
+            throw new RejectedExecutionException("Command lanes are closed");
+        }
+        laneFor(command.aggregateId).submit(command);
+        try {
+            return command.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private Lane laneFor(UUID aggregateId) {
+        return lanes[Math.floorMod(aggregateId.hashCode(), lanes.length)];
+    }
+
+    private final class Lane {
+        private final BlockingQueue<PendingCommand<?>> mailbox = new LinkedBlockingQueue<>();
+        private final Thread thread;
+
+        Lane(int index) {
+            this.thread = Thread.ofVirtual().name("command-lane-" + index).start(this::run);
+        }
+
+        void submit(PendingCommand<?> command) {
+            mailbox.add(command);
+            // the lane might have drained its mailbox for the last time before the command got in
+            if (closed && mailbox.remove(command)) {
+                command.reject();
+            }
+        }
+
+        private void run() {
+            var commands = new ArrayList<PendingCommand<?>>();
+            try {
+                boolean stopped = false;
+                while (!stopped) {
+                    commands.add(mailbox.take());
+                    collectBatch(commands);
+                    int stop = commands.indexOf(STOP);
+                    stopped = stop >= 0;
+                    if (stopped) {
+                        var rejected = commands.subList(stop + 1, commands.size());
+                        rejected.forEach(PendingCommand::reject);
+                        commands.subList(stop, commands.size()).clear();
+                    }
+                    execute(commands);
+                    commands.clear();
+                }
+            } catch (InterruptedException e) {
+                commands.forEach(PendingCommand::reject);
+            }
+            PendingCommand<?> command;
+            while ((command = mailbox.poll()) != null) {
+                command.reject();
+            }
+        }
+
+        // whatever got queued while the previous batch was being executed is taken at once -
+        // the window only matters when the lane is idle
+        private void collectBatch(List<PendingCommand<?>> commands) throws InterruptedException {
+            mailbox.drainTo(commands, maxBatchSize - commands.size());
+            long deadline = System.nanoTime() + batchWindowNanos;
+            while (commands.size() < maxBatchSize && !commands.contains(STOP)) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return;
+                }
+                var command = mailbox.poll(remaining, TimeUnit.NANOSECONDS);
+                if (command == null) {
+                    return;
+                }
+                commands.add(command);
+                mailbox.drainTo(commands, maxBatchSize - commands.size());
+            }
+        }
+
+        // batched commands are grouped per aggregate, keeping their order -
+        // a plain command for the same aggregate closes the batch collected before it
+        private void execute(List<PendingCommand<?>> commands) {
+            Map<UUID, List<BatchedCommand<?>>> batches = new LinkedHashMap<>();
+            for (var command : commands) {
+                if (command instanceof BatchedCommand<?> batchedCommand) {
+                    batches.computeIfAbsent(command.aggregateId, id -> new ArrayList<>()).add(batchedCommand);
+                } else {
+                    var batch = batches.remove(command.aggregateId);
+                    if (batch != null) {
+                        executeBatch(command.aggregateId, batch);
+                    }
+                    ((PlainCommand<?>) command).run();
+                }
+            }
+            batches.forEach(this::executeBatch);
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private void executeBatch(UUID aggregateId, List<BatchedCommand<?>> batch) {
+            // all commands of a batch are executed by the executor of the first one
+            BatchExecutor batchExecutor = batch.getFirst().batchExecutor;
+            List<RuntimeException> failures;
+            try {
+                failures = batchExecutor.execute(aggregateId, batch.stream().map(c -> c.command).toList());
+            } catch (Throwable t) {
+                batch.forEach(command -> command.result.completeExceptionally(t));
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                var failure = failures.get(i);
+                if (failure != null) {
+                    batch.get(i).result.completeExceptionally(failure);
+                } else {
+                    batch.get(i).result.complete(null);
+                }
+            }
+        }
+    }
+
+    private abstract static class PendingCommand<T> {
+        final UUID aggregateId;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        PendingCommand(UUID aggregateId) {
+            this.aggregateId = aggregateId;
+        }
+
+        void reject() {
+            result.completeExceptionally(new RejectedExecutionException("Command lanes are closed"));
+        }
+    }
+
+    private static final class PlainCommand<T> extends PendingCommand<T> {
+        private final Supplier<T> command;
+
+        PlainCommand(UUID aggregateId, Supplier<T> command) {
+            super(aggregateId);
+            this.command = command;
+        }
+
+        void run() {
+            try {
+                result.complete(command.get());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        }
+    }
+
+    private static final class BatchedCommand<T> extends PendingCommand<Void> {
+        private final T command;
+        private final BatchExecutor<T> batchExecutor;
+
+        BatchedCommand(UUID aggregateId, T command, BatchExecutor<T> batchExecutor) {
+            super(aggregateId);
+            this.command = command;
+            this.batchExecutor = batchExecutor;
+        }
+    }
+}
@@ -3,7 +3,10 @@ package lt.rieske.accounts.api;
 import lt.rieske.accounts.domain.AccountEvent;
 import lt.rieske.accounts.eventsourcing.SequencedEvent;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
+import java.util.stream.Stream;
 
 
 // not thread safe - do not reuse
@@ -15,12 +18,8 @@ public class EventStreamJsonSerializer {
         sb = new StringBuilder();
         sb.append("[");
         events.forEach(e -> {
-            sb.append("{");
-            appendJsonLong("sequenceNumber", e.sequenceNumber());
-            separateField();
-            appendJsonString("transactionId", e.transactionId().toString());
-            serializeAccountEvent(e.event());
-            sb.append("},");
+            appendEvent(e);
+            sb.append(",");
         });
         if (!events.isEmpty()) {
             sb.deleteCharAt(sb.length() - 1);
@@ -29,6 +28,31 @@ public class EventStreamJsonSerializer {
         return sb.toString();
     }
 
+    // encodes one event at a time into the writer - only a single event is ever held in memory
+    void writeJson(Stream<SequencedEvent<AccountEvent>> events, Writer writer) throws IOException {
+        sb = new StringBuilder();
+        writer.write("[");
+        var iterator = events.iterator();
+        while (iterator.hasNext()) {
+            sb.setLength(0);
+            appendEvent(iterator.next());
+            writer.append(sb);
+            if (iterator.hasNext()) {
+                writer.write(",");
+            }
+        }
+        writer.write("]");
+    }
+
+    private void appendEvent(SequencedEvent<AccountEvent> e) {
+        sb.append("{");
+        appendJsonLong("sequenceNumber", e.sequenceNumber());
+        separateField();
+        appendJsonString("transactionId", e.transactionId().toString());
+        serializeAccountEvent(e.event());
+        sb.append("}");
+    }
+
     private void serializeAccountEvent(AccountEvent event) {
         switch (event) {
             case AccountEvent.AccountSnapshot accountSnapshot -> {
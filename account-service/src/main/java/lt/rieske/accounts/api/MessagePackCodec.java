@@ -0,0 +1,211 @@
+package lt.rieske.accounts.api;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.SequencedEvent;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePackException;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+
+/**
+ * The application/msgpack bodies - a compact alternative to JSON for high volume clients.
+ * <p>
+ * Every body is a msgpack array of a fixed layout, UUIDs being packed as two integers: the most significant bits
+ * followed by the least significant ones. Nothing gets formatted to or parsed from text.
+ * <p>
+ * Account: [accountId, ownerId, balance, open].
+ * Events: a stream of event arrays - [sequenceNumber, transactionId, type, fields of the type...].
+ * Error: [message].
+ * <p>
+ * Batch: an array of commands - [type, accountId, fields of the type...], the fields being those of the command's own
+ * body. Batch results: an array of [status] or [status, message], one for each command.
+ */
+final class MessagePackCodec {
+
+    static final String APPLICATION_MSGPACK = "application/msgpack";
+
+    private static final int ACCOUNT_SNAPSHOT = 0;
+    private static final int ACCOUNT_OPENED = 1;
+    private static final int MONEY_DEPOSITED = 2;
+    private static final int MONEY_WITHDRAWN = 3;
+    private static final int ACCOUNT_CLOSED = 4;
+
+    private MessagePackCodec() {
+    }
+
+    static byte[] account(AccountEvent.AccountSnapshot account) {
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(6);
+            packUUID(packer, account.accountId());
+            packUUID(packer, account.ownerId());
+            packer.packLong(account.balance())
+                    .packBoolean(account.open());
+            return packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static byte[] events(List<SequencedEvent<AccountEvent>> events) {
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            for (var event : events) {
+                packEvent(packer, event);
+            }
+            return packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // packs one event at a time into the output - only a single event is ever held in memory
+    static void writeEvents(Stream<SequencedEvent<AccountEvent>> events, OutputStream output) throws IOException {
+        try (var packer = MessagePack.newDefaultPacker(output)) {
+            var iterator = events.iterator();
+            while (iterator.hasNext()) {
+                packEvent(packer, iterator.next());
+            }
+        }
+    }
+
+    static byte[] error(String message) {
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(1).packString(message);
+            return packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // a request body of the given number of fields, UUIDs counting as two
+    static Body body(byte[] body, int fieldCount) {
+        var unpacker = MessagePack.newDefaultUnpacker(body);
+        try {
+            int size = unpacker.unpackArrayHeader();
+            if (size != fieldCount) {
+                throw new IllegalArgumentException(String.format("Body must be an array of %d elements, got %d", fieldCount, size));
+            }
+        } catch (IOException | MessagePackException e) {
+            throw new IllegalArgumentException("Malformed msgpack body", e);
+        }
+        return new Body(unpacker);
+    }
+
+    static List<BatchCommand> batchCommands(byte[] body, int maxCommands) {
+        try (var unpacker = MessagePack.newDefaultUnpacker(body)) {
+            int size = unpacker.unpackArrayHeader();
+            if (size < 1 || size > maxCommands) {
+                throw new IllegalArgumentException(String.format("Batch must have between 1 and %d commands", maxCommands));
+            }
+            var commands = new ArrayList<BatchCommand>(size);
+            for (int i = 0; i < size; i++) {
+                commands.add(batchCommand(new Body(unpacker), unpacker.unpackArrayHeader()));
+            }
+            return commands;
+        } catch (IOException | MessagePackException e) {
+            throw new IllegalArgumentException("Malformed msgpack body", e);
+        }
+    }
+
+    static byte[] batchResults(List<BatchResult> results) {
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(results.size());
+            for (var result : results) {
+                if (result.message() == null) {
+                    packer.packArrayHeader(1).packInt(result.status());
+                } else {
+                    packer.packArrayHeader(2).packInt(result.status()).packString(result.message());
+                }
+            }
+            return packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static BatchCommand batchCommand(Body command, int size) {
+        var type = command.nextString();
+        int expectedSize = switch (type) {
+            case "deposit", "withdraw" -> 6;
+            case "transfer" -> 8;
+            default -> throw new IllegalArgumentException("Unknown command type: " + type);
+        };
+        if (size != expectedSize) {
+            throw new IllegalArgumentException(String.format("'%s' command must be an array of %d elements, got %d", type, expectedSize, size));
+        }
+        return switch (type) {
+            case "deposit" -> new BatchCommand.Deposit(command.nextUUID(), command.nextLong(), command.nextUUID());
+            case "withdraw" -> new BatchCommand.Withdrawal(command.nextUUID(), command.nextLong(), command.nextUUID());
+            default -> new BatchCommand.Transfer(command.nextUUID(), command.nextUUID(), command.nextLong(), command.nextUUID());
+        };
+    }
+
+    private static void packEvent(MessagePacker packer, SequencedEvent<AccountEvent> e) throws IOException {
+        switch (e.event()) {
+            case AccountEvent.AccountSnapshot accountSnapshot -> packEventHeader(packer, e, 0, ACCOUNT_SNAPSHOT);
+            case AccountEvent.AccountOpenedEvent accountOpened -> {
+                packEventHeader(packer, e, 2, ACCOUNT_OPENED);
+                packUUID(packer, accountOpened.ownerId());
+            }
+            case AccountEvent.AccountClosedEvent accountClosed -> packEventHeader(packer, e, 0, ACCOUNT_CLOSED);
+            case AccountEvent.MoneyDepositedEvent moneyDeposited -> {
+                packEventHeader(packer, e, 2, MONEY_DEPOSITED);
+                packer.packLong(moneyDeposited.amountDeposited())
+                        .packLong(moneyDeposited.balance());
+            }
+            case AccountEvent.MoneyWithdrawnEvent moneyWithdrawn -> {
+                packEventHeader(packer, e, 2, MONEY_WITHDRAWN);
+                packer.packLong(moneyWithdrawn.amountWithdrawn())
+                        .packLong(moneyWithdrawn.balance());
+            }
+        }
+    }
+
+    private static void packEventHeader(MessagePacker packer, SequencedEvent<AccountEvent> e, int fieldCount, int type) throws IOException {
+        packer.packArrayHeader(4 + fieldCount)
+                .packLong(e.sequenceNumber());
+        packUUID(packer, e.transactionId());
+        packer.packInt(type);
+    }
+
+    private static void packUUID(MessagePacker packer, UUID uuid) throws IOException {
+        packer.packLong(uuid.getMostSignificantBits()).packLong(uuid.getLeastSignificantBits());
+    }
+
+    // malformed fields are a bad request
+    static final class Body {
+        private final MessageUnpacker unpacker;
+
+        private Body(MessageUnpacker unpacker) {
+            this.unpacker = unpacker;
+        }
+
+        long nextLong() {
+            try {
+                return unpacker.unpackLong();
+            } catch (IOException | MessagePackException e) {
+                throw new IllegalArgumentException("Malformed msgpack body", e);
+            }
+        }
+
+        UUID nextUUID() {
+            return new UUID(nextLong(), nextLong());
+        }
+
+        String nextString() {
+            try {
+                return unpacker.unpackString();
+            } catch (IOException | MessagePackException e) {
+                throw new IllegalArgumentException("Malformed msgpack body", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package lt.rieske.accounts.api;
+
+import lt.rieske.accounts.eventsourcing.Event;
+import lt.rieske.accounts.eventsourcing.Snapshotter;
+import lt.rieske.accounts.metrics.Counter;
+import lt.rieske.accounts.metrics.Histogram;
+import lt.rieske.accounts.metrics.MetricsRegistry;
+
+import java.util.UUID;
+
+// observes the replays and the snapshots through the snapshotter - the repository hands both to it
+class MeteredSnapshotter<A, E extends Event> implements Snapshotter<A, E> {
+
+    private final Snapshotter<A, E> snapshotter;
+    private final Histogram replayedEvents;
+    private final Counter snapshots;
+
+    MeteredSnapshotter(Snapshotter<A, E> snapshotter, MetricsRegistry metrics) {
+        this.snapshotter = snapshotter;
+        this.replayedEvents = metrics.countHistogram(
+                "aggregate_replayed_events", "Events applied on top of the snapshot or cached state per aggregate load");
+        this.snapshots = metrics.counter("aggregate_snapshots_total", "Snapshots taken to be written with the events");
+    }
+
+    @Override
+    public E takeSnapshot(A aggregate, long version) {
+        return counted(snapshotter.takeSnapshot(aggregate, version));
+    }
+
+    @Override
+    public E takeSnapshot(UUID aggregateId, A aggregate, long version) {
+        return counted(snapshotter.takeSnapshot(aggregateId, aggregate, version));
+    }
+
+    @Override
+    public void aggregateLoaded(UUID aggregateId, int replayedEvents) {
+        this.replayedEvents.record(replayedEvents);
+        snapshotter.aggregateLoaded(aggregateId, replayedEvents);
+    }
+
+    private E counted(E snapshot) {
+        if (snapshot != null) {
+            snapshots.increment();
+        }
+        return snapshot;
+    }
+}
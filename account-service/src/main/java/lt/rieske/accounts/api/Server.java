@@ -6,13 +6,18 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
 import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
 import lt.rieske.accounts.eventsourcing.AggregateNotFoundException;
+import lt.rieske.accounts.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
 import java.net.InetSocketAddress;
 import java.util.ConcurrentModificationException;
+import java.util.List;
 import java.util.function.Consumer;
 
 
@@ -21,27 +26,51 @@ public class Server {
     private static final Logger log = LoggerFactory.getLogger(Server.class);
 
     private final AccountResource accountResource;
+    private final int virtualThreadRequests;
+    private final AccessLog accessLog;
+    private final MetricsRegistry metrics;
+    private final List<AutoCloseable> resources;
     private Undertow undertow;
+    private VirtualThreadHandler virtualThreadHandler;
 
-    Server(AccountResource accountResource) {
+    // resources are closed in the given order once the server stops accepting requests, the access log last
+    Server(AccountResource accountResource, int virtualThreadRequests, AccessLog accessLog, MetricsRegistry metrics,
+           List<AutoCloseable> resources) {
         this.accountResource = accountResource;
+        this.virtualThreadRequests = virtualThreadRequests;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.resources = resources;
     }
 
     public int start(int port) {
         RoutingHandler routes = Handlers.routing()
                 .get("/ping", exchange -> exchange.setStatusCode(200))
-                .post("/api/account/{accountId}", handle(accountResource::openAccount))
-                .get("/api/account/{accountId}", handle(accountResource::getAccount))
-                .get("/api/account/{accountId}/events", handle(accountResource::getEvents))
-                .put("/api/account/{accountId}/deposit", handle(accountResource::deposit))
-                .put("/api/account/{accountId}/withdraw", handle(accountResource::withdraw))
-                .put("/api/account/{accountId}/transfer", handle(accountResource::transfer))
-                .delete("/api/account/{accountId}", handle(accountResource::close))
+                .get("/metrics", exchange -> {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, MetricsRegistry.CONTENT_TYPE);
+                    exchange.getResponseSender().send(metrics.scrape());
+                })
                 .setFallbackHandler(exchange -> exchange.setStatusCode(404));
+        route(routes, Methods.POST, "/api/account/{accountId}", accountResource::openAccount);
+        route(routes, Methods.GET, "/api/account/{accountId}", accountResource::getAccount);
+        route(routes, Methods.GET, "/api/account/{accountId}/events", accountResource::getEvents);
+        route(routes, Methods.PUT, "/api/account/{accountId}/deposit", accountResource::deposit);
+        route(routes, Methods.PUT, "/api/account/{accountId}/withdraw", accountResource::withdraw);
+        route(routes, Methods.PUT, "/api/account/{accountId}/transfer", accountResource::transfer);
+        route(routes, Methods.DELETE, "/api/account/{accountId}", accountResource::close);
+        route(routes, Methods.POST, "/api/batch", accountResource::batch);
 
+        HttpHandler rootHandler;
+        if (virtualThreadRequests > 0) {
+            virtualThreadHandler = new VirtualThreadHandler(routes, virtualThreadRequests, metrics.counter(
+                    "http_server_rejected_requests_total", "Requests rejected over the concurrent request limit"));
+            rootHandler = virtualThreadHandler;
+        } else {
+            rootHandler = new BlockingHandler(routes);
+        }
         undertow = Undertow.builder()
                 .addHttpListener(port, "0.0.0.0")
-                .setHandler(new BlockingHandler(routes))
+                .setHandler(rootHandler)
                 .build();
         undertow.start();
 
@@ -57,23 +86,50 @@ public class Server {
             undertow.stop();
             undertow = null;
         }
+        if (virtualThreadHandler != null) {
+            virtualThreadHandler.close();
+            virtualThreadHandler = null;
+        }
+        for (var resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("Could not close {}", resource, e);
+            }
+        }
+        accessLog.close();
     }
 
-    private HttpHandler handle(Consumer<HttpServerExchange> action) {
-        return exchange -> {
+    // the route is logged and measured by its template - the same string for all the requests it serves
+    private void route(RoutingHandler routes, HttpString method, String template, Consumer<HttpServerExchange> action) {
+        var route = method + " " + template;
+        var latency = metrics.latencyHistogram("http_server_request_duration_seconds", "Time spent handling requests", "route", route);
+        routes.add(method, template, exchange -> {
+            long start = System.nanoTime();
+            int status = 500;
             try {
-                log.info("Request {} {}", exchange.getRequestMethod(), exchange.getRequestPath());
-                action.accept(exchange);
-            } catch (IllegalArgumentException e) {
-                accountResource.badRequest(e, exchange);
-            } catch (AggregateNotFoundException e) {
-                accountResource.notFound(e, exchange);
-            } catch (ConcurrentModificationException e) {
-                accountResource.conflict(e, exchange);
+                log.debug("Request {} {}", exchange.getRequestMethod(), exchange.getRequestPath());
+                handle(exchange, action);
+                status = exchange.getStatusCode();
             } finally {
-                log.info("Responding with {}", exchange.getStatusCode());
+                long duration = System.nanoTime() - start;
+                latency.record(duration);
+                accessLog.record(route, status, duration);
+                log.debug("Responding with {}", status);
                 MDC.clear();
             }
-        };
+        });
+    }
+
+    private void handle(HttpServerExchange exchange, Consumer<HttpServerExchange> action) {
+        try {
+            action.accept(exchange);
+        } catch (IllegalArgumentException e) {
+            accountResource.badRequest(e, exchange);
+        } catch (AggregateNotFoundException e) {
+            accountResource.notFound(e, exchange);
+        } catch (ConcurrentModificationException e) {
+            accountResource.conflict(e, exchange);
+        }
     }
 }
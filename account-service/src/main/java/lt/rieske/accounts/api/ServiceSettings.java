@@ -0,0 +1,138 @@
+package lt.rieske.accounts.api;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+public record ServiceSettings(
+        int aggregateCacheSize,
+        Duration aggregateCacheExpireAfterAccess,
+        int commandLanes,
+        int groupCommitMaxBatchSize,
+        Duration groupCommitWindow,
+        int virtualThreadRequests,
+        boolean asyncSnapshots,
+        int snapshotReplayBudget,
+        boolean accountViews,
+        int accessLogSampling,
+        int accessLogBufferSize
+) {
+
+    // all the optional execution modes are off - the aggregate cache too, a cache size of 0 disables it
+    public static ServiceSettings defaults() {
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static ServiceSettings fromEnvironment(Function<String, String> environment) {
+        var defaults = defaults();
+        return builder()
+                .aggregateCache(
+                        intVariable(environment, "AGGREGATE_CACHE_SIZE", defaults.aggregateCacheSize()),
+                        durationVariable(environment, "AGGREGATE_CACHE_EXPIRE_AFTER_ACCESS", defaults.aggregateCacheExpireAfterAccess()))
+                .commandLanes(intVariable(environment, "COMMAND_LANES", defaults.commandLanes()))
+                .groupCommit(
+                        intVariable(environment, "GROUP_COMMIT_MAX_BATCH_SIZE", defaults.groupCommitMaxBatchSize()),
+                        durationVariable(environment, "GROUP_COMMIT_WINDOW", defaults.groupCommitWindow()))
+                .virtualThreadRequests(intVariable(environment, "VIRTUAL_THREAD_REQUESTS", defaults.virtualThreadRequests()))
+                .asyncSnapshots(booleanVariable(environment, "ASYNC_SNAPSHOTS", defaults.asyncSnapshots()))
+                .snapshotReplayBudget(intVariable(environment, "SNAPSHOT_REPLAY_BUDGET", defaults.snapshotReplayBudget()))
+                .accountViews(booleanVariable(environment, "ACCOUNT_VIEWS", defaults.accountViews()))
+                .accessLog(
+                        intVariable(environment, "ACCESS_LOG_SAMPLING", defaults.accessLogSampling()),
+                        intVariable(environment, "ACCESS_LOG_BUFFER_SIZE", defaults.accessLogBufferSize()))
+                .build();
+    }
+
+    public static final class Builder {
+        private int aggregateCacheSize = 0;
+        private Duration aggregateCacheExpireAfterAccess = Duration.ofMinutes(10);
+        private int commandLanes = 0;
+        private int groupCommitMaxBatchSize = 1;
+        private Duration groupCommitWindow = Duration.ZERO;
+        private int virtualThreadRequests = 0;
+        private boolean asyncSnapshots = false;
+        private int snapshotReplayBudget = 0;
+        private boolean accountViews = false;
+        private int accessLogSampling = 1;
+        private int accessLogBufferSize = 8192;
+
+        private Builder() {
+        }
+
+        public Builder aggregateCache(int size, Duration expireAfterAccess) {
+            this.aggregateCacheSize = size;
+            this.aggregateCacheExpireAfterAccess = expireAfterAccess;
+            return this;
+        }
+
+        // 0 disables single writer lanes - commands are executed on the request thread
+        public Builder commandLanes(int laneCount) {
+            this.commandLanes = laneCount;
+            return this;
+        }
+
+        // batch size of 1 disables group commit, it also needs command lanes to be enabled
+        public Builder groupCommit(int maxBatchSize, Duration window) {
+            this.groupCommitMaxBatchSize = maxBatchSize;
+            this.groupCommitWindow = window;
+            return this;
+        }
+
+        // 0 executes requests on Undertow's worker pool, a positive value on virtual threads - at most that many at a time
+        public Builder virtualThreadRequests(int maxConcurrentRequests) {
+            this.virtualThreadRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        // snapshots are written by a background writer instead of within the command's transaction
+        public Builder asyncSnapshots(boolean enabled) {
+            this.asyncSnapshots = enabled;
+            return this;
+        }
+
+        // 0 snapshots every 50 events, a positive value once the events replayed by the loads of an aggregate add up to it
+        public Builder snapshotReplayBudget(int replayBudget) {
+            this.snapshotReplayBudget = replayBudget;
+            return this;
+        }
+
+        // account views are stored along with the events and serve account queries without replaying the events
+        public Builder accountViews(boolean enabled) {
+            this.accountViews = enabled;
+            return this;
+        }
+
+        // one in every sampling requests is logged, server errors always are - 0 disables the access log.
+        // Entries that do not fit the buffer until they are written out get dropped
+        public Builder accessLog(int sampling, int bufferSize) {
+            this.accessLogSampling = sampling;
+            this.accessLogBufferSize = bufferSize;
+            return this;
+        }
+
+        public ServiceSettings build() {
+            return new ServiceSettings(aggregateCacheSize, aggregateCacheExpireAfterAccess, commandLanes,
+                    groupCommitMaxBatchSize, groupCommitWindow, virtualThreadRequests, asyncSnapshots, snapshotReplayBudget,
+                    accountViews, accessLogSampling, accessLogBufferSize);
+        }
+    }
+
+    private static int intVariable(Function<String, String> environment, String name, int defaultValue) {
+        var value = environment.apply(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static boolean booleanVariable(Function<String, String> environment, String name, boolean defaultValue) {
+        var value = environment.apply(name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    // ISO-8601 duration, i.e. PT10M
+    private static Duration durationVariable(Function<String, String> environment, String name, Duration defaultValue) {
+        var value = environment.apply(name);
+        return value != null ? Duration.parse(value) : defaultValue;
+    }
+}
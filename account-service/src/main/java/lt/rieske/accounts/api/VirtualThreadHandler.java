@@ -0,0 +1,77 @@
+package lt.rieske.accounts.api;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import lt.rieske.accounts.metrics.Counter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Executes each request on a new virtual thread instead of Undertow's bounded worker pool.
+ * <p>
+ * A request blocked on I/O (a database round trip, a connection from the pool) then holds nothing but a cheap virtual
+ * thread. At most maxConcurrentRequests requests are executed at a time. A permit is taken on the I/O thread before a
+ * request gets its virtual thread - a request arriving when there is none is rejected with 503 right away, instead of
+ * queueing up in memory for as long as the load lasts.
+ */
+class VirtualThreadHandler implements HttpHandler, AutoCloseable {
+
+    private final HttpHandler next;
+    private final Semaphore permits;
+    private final Counter rejectedRequests;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("request-", 0).factory());
+
+    VirtualThreadHandler(HttpHandler next, int maxConcurrentRequests, Counter rejectedRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("Concurrent request limit must be positive: " + maxConcurrentRequests);
+        }
+        this.next = next;
+        this.permits = new Semaphore(maxConcurrentRequests);
+        this.rejectedRequests = rejectedRequests;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) {
+        if (!permits.tryAcquire()) {
+            rejectedRequests.increment();
+            exchange.setStatusCode(503);
+            exchange.endExchange();
+            return;
+        }
+        try {
+            exchange.startBlocking();
+            exchange.dispatch(task -> execute(exchange, task), this::handleWithPermit);
+        } catch (RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    // the dispatched task is only submitted once handleRequest returns - a request the closed executor turns away
+    // gives its permit back there
+    private void execute(HttpServerExchange exchange, Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            exchange.setStatusCode(503);
+            exchange.endExchange();
+        }
+    }
+
+    private void handleWithPermit(HttpServerExchange exchange) throws Exception {
+        try {
+            next.handleRequest(exchange);
+        } finally {
+            permits.release();
+        }
+    }
+}
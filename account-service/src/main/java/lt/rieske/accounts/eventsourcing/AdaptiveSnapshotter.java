@@ -0,0 +1,136 @@
+package lt.rieske.accounts.eventsourcing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+
+/**
+ * Snapshotting policy driven by the observed replay cost of each aggregate.
+ * <p>
+ * Every load of an aggregate adds the number of events that had to be replayed to the aggregate's replay cost.
+ * Once the cost accumulated since the aggregate's last snapshot reaches the replay budget, the next version of the
+ * aggregate gets snapshotted and the cost starts over. An aggregate that is loaded often, and has to replay many
+ * events each time, gets snapshotted soon. One that is rarely loaded, or served from the aggregate cache with few
+ * or no events to replay, does not pay for snapshots it would never use.
+ * <p>
+ * Replay costs are kept for a bounded number of recently loaded aggregates. As a safety net, every
+ * maxEventsBetweenSnapshots-th version is snapshotted regardless of the cost, bounding the replay of aggregates whose
+ * cost is not known.
+ */
+public class AdaptiveSnapshotter<A, E extends Event> implements Snapshotter<A, E> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Function<A, E> snapshot;
+    private final long replayBudget;
+    private final long maxEventsBetweenSnapshots;
+    private final Segment[] segments;
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder replayedEvents = new LongAdder();
+    private final LongAccumulator longestReplay = new LongAccumulator(Math::max, 0);
+    private final LongAdder snapshots = new LongAdder();
+
+    /**
+     * @param snapshot                  - creates the snapshot event of the aggregate
+     * @param replayBudget              - replayed events, accumulated over the loads of an aggregate, that make it
+     *                                  due for a snapshot
+     * @param maxEventsBetweenSnapshots - versions divisible by this are always snapshotted
+     * @param trackedAggregates         - maximum number of aggregates to keep the replay cost of
+     */
+    public AdaptiveSnapshotter(Function<A, E> snapshot, long replayBudget, long maxEventsBetweenSnapshots, int trackedAggregates) {
+        if (replayBudget <= 0 || maxEventsBetweenSnapshots <= 0 || trackedAggregates <= 0) {
+            throw new IllegalArgumentException("Replay budget, max events between snapshots and tracked aggregates must be positive");
+        }
+        this.snapshot = snapshot;
+        this.replayBudget = replayBudget;
+        this.maxEventsBetweenSnapshots = maxEventsBetweenSnapshots;
+        this.segments = new Segment[Math.min(SEGMENT_COUNT, trackedAggregates)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment(trackedAggregates / segments.length + (i < trackedAggregates % segments.length ? 1 : 0));
+        }
+    }
+
+    @Override
+    public E takeSnapshot(A aggregate, long version) {
+        return version % maxEventsBetweenSnapshots == 0 ? takeSnapshot(aggregate) : null;
+    }
+
+    @Override
+    public E takeSnapshot(UUID aggregateId, A aggregate, long version) {
+        if (version % maxEventsBetweenSnapshots == 0) {
+            segmentFor(aggregateId).reset(aggregateId);
+            return takeSnapshot(aggregate);
+        }
+        return segmentFor(aggregateId).resetIfDue(aggregateId, replayBudget) ? takeSnapshot(aggregate) : null;
+    }
+
+    @Override
+    public void aggregateLoaded(UUID aggregateId, int replayedEvents) {
+        loads.increment();
+        this.replayedEvents.add(replayedEvents);
+        longestReplay.accumulate(replayedEvents);
+        if (replayedEvents > 0) {
+            segmentFor(aggregateId).addCost(aggregateId, replayedEvents);
+        }
+    }
+
+    public long loads() {
+        return loads.sum();
+    }
+
+    public long replayedEvents() {
+        return replayedEvents.sum();
+    }
+
+    public long longestReplay() {
+        return longestReplay.get();
+    }
+
+    public long snapshots() {
+        return snapshots.sum();
+    }
+
+    private E takeSnapshot(A aggregate) {
+        snapshots.increment();
+        return snapshot.apply(aggregate);
+    }
+
+    private Segment segmentFor(UUID aggregateId) {
+        return segments[Math.floorMod(aggregateId.hashCode(), segments.length)];
+    }
+
+    private static final class Segment {
+        private final Map<UUID, Long> replayCosts;
+
+        Segment(int maximumSize) {
+            this.replayCosts = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, Long> eldest) {
+                    return size() > maximumSize;
+                }
+            };
+        }
+
+        synchronized void addCost(UUID aggregateId, long cost) {
+            replayCosts.merge(aggregateId, cost, Long::sum);
+        }
+
+        synchronized boolean resetIfDue(UUID aggregateId, long replayBudget) {
+            var cost = replayCosts.get(aggregateId);
+            if (cost == null || cost < replayBudget) {
+                return false;
+            }
+            replayCosts.remove(aggregateId);
+            return true;
+        }
+
+        synchronized void reset(UUID aggregateId) {
+            replayCosts.remove(aggregateId);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package lt.rieske.accounts.eventsourcing;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+
+/**
+ * Bounded in-process cache of aggregate states, keyed by aggregate id.
+ * <p>
+ * Each entry holds the state of the aggregate (as captured by the state function) together with the version it
+ * corresponds to. A cached state is never served on its own - the event store is always asked for the events
+ * after the cached version - so an entry can be behind, but never inconsistent with the store. This makes the cache
+ * safe to use with multiple service instances writing to the same event store.
+ * <p>
+ * The cache is split into segments, each an access ordered map guarded by its own lock, evicting least recently used
+ * entries once the segment is full. Entries not accessed for longer than expireAfterAccess are discarded on lookup.
+ * <p>
+ * An entry may also carry a filter of the transaction ids applied to the aggregate up to the cached version, letting
+ * most idempotency checks be answered without asking the event store.
+ */
+public class AggregateCache<A, E extends Event> {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Function<A, E> stateCapture;
+    private final long expireAfterAccessNanos;
+    private final LongSupplier nanoTime;
+    private final Segment<E>[] segments;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param stateCapture      - captures the full state of the aggregate as an event, typically its snapshot
+     * @param maximumSize       - maximum number of cached aggregates, 0 disables caching
+     * @param expireAfterAccess - entries not accessed for this long are discarded
+     */
+    public AggregateCache(Function<A, E> stateCapture, int maximumSize, Duration expireAfterAccess) {
+        this(stateCapture, maximumSize, expireAfterAccess, System::nanoTime);
+    }
+
+    /**
+     * @param nanoTime - the time source the accesses are measured by, in nanoseconds
+     */
+    @SuppressWarnings("unchecked")
+    public AggregateCache(Function<A, E> stateCapture, int maximumSize, Duration expireAfterAccess, LongSupplier nanoTime) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("Cache size can not be negative: " + maximumSize);
+        }
+        this.stateCapture = stateCapture;
+        this.expireAfterAccessNanos = expireAfterAccess.toNanos();
+        this.nanoTime = nanoTime;
+        this.segments = new Segment[maximumSize == 0 ? 0 : Math.min(SEGMENT_COUNT, maximumSize)];
+        for (int i = 0; i < segments.length; i++) {
+            int segmentSize = maximumSize / segments.length + (i < maximumSize % segments.length ? 1 : 0);
+            segments[i] = new Segment<>(segmentSize, evictions);
+        }
+    }
+
+    public static <A, E extends Event> AggregateCache<A, E> disabled() {
+        return new AggregateCache<>(aggregate -> null, 0, Duration.ZERO);
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (var segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    boolean enabled() {
+        return segments.length != 0;
+    }
+
+    CachedAggregate<E> get(UUID aggregateId) {
+        if (segments.length == 0) {
+            return null;
+        }
+        var entry = segmentFor(aggregateId).get(aggregateId, nanoTime.getAsLong(), expireAfterAccessNanos);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    void put(UUID aggregateId, long version, A aggregate) {
+        put(aggregateId, version, aggregate, null);
+    }
+
+    // the transaction filter, if given, has to contain all the transactions applied to the aggregate up to the version
+    void put(UUID aggregateId, long version, A aggregate, TransactionIdFilter transactions) {
+        if (segments.length == 0) {
+            return;
+        }
+        var state = new SequencedEvent<>(aggregateId, version, null, stateCapture.apply(aggregate));
+        segmentFor(aggregateId).put(aggregateId, new CachedAggregate<>(state, transactions), nanoTime.getAsLong());
+    }
+
+    void evict(UUID aggregateId) {
+        if (segments.length == 0) {
+            return;
+        }
+        if (segmentFor(aggregateId).remove(aggregateId)) {
+            evictions.increment();
+        }
+    }
+
+    private Segment<E> segmentFor(UUID aggregateId) {
+        return segments[Math.floorMod(aggregateId.hashCode(), segments.length)];
+    }
+
+    private static final class Segment<E> {
+        private final Map<UUID, Entry<E>> entries;
+        private final LongAdder evictions;
+
+        Segment(int maximumSize, LongAdder evictions) {
+            this.evictions = evictions;
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<UUID, Entry<E>> eldest) {
+                    if (size() > maximumSize) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized CachedAggregate<E> get(UUID aggregateId, long now, long expireAfterAccessNanos) {
+            var entry = entries.get(aggregateId);
+            if (entry == null) {
+                return null;
+            }
+            if (now - entry.lastAccess > expireAfterAccessNanos) {
+                entries.remove(aggregateId);
+                evictions.increment();
+                return null;
+            }
+            entry.lastAccess = now;
+            return entry.aggregate;
+        }
+
+        synchronized void put(UUID aggregateId, CachedAggregate<E> aggregate, long now) {
+            var existing = entries.get(aggregateId);
+            // never replace a state with an older one - a slower concurrent load might finish after a newer commit
+            if (existing != null && existing.aggregate.state().sequenceNumber() > aggregate.state().sequenceNumber()) {
+                return;
+            }
+            entries.put(aggregateId, new Entry<>(aggregate, now));
+        }
+
+        synchronized boolean remove(UUID aggregateId) {
+            return entries.remove(aggregateId) != null;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    record CachedAggregate<E>(SequencedEvent<E> state, TransactionIdFilter transactions) {
+    }
+
+    private static final class Entry<E> {
+        private final CachedAggregate<E> aggregate;
+        private long lastAccess;
+
+        Entry(CachedAggregate<E> aggregate, long lastAccess) {
+            this.aggregate = aggregate;
+            this.lastAccess = lastAccess;
+        }
+    }
+}
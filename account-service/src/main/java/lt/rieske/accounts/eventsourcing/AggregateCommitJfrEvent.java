@@ -0,0 +1,33 @@
+package lt.rieske.accounts.eventsourcing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.AggregateCommit")
+@Label("Aggregate Commit")
+@Category({"Event Sourced Account", "Event Sourcing"})
+@Description("Events appended to the store, along with the snapshots and views due")
+class AggregateCommitJfrEvent extends jdk.jfr.Event {
+
+    // the first of the modified aggregates
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Transaction Id")
+    String transactionId;
+
+    @Label("Aggregates")
+    int aggregates;
+
+    @Label("Events")
+    int events;
+
+    @Label("Snapshots")
+    int snapshots;
+
+    // committed, conflict or failed
+    @Label("Outcome")
+    String outcome;
+}
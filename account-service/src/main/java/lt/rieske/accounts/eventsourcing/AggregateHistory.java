@@ -0,0 +1,11 @@
+package lt.rieske.accounts.eventsourcing;
+
+import java.util.List;
+
+
+public record AggregateHistory<E>(
+        SequencedEvent<E> snapshot,
+        List<SequencedEvent<E>> events,
+        boolean transactionExists
+) {
+}
@@ -0,0 +1,32 @@
+package lt.rieske.accounts.eventsourcing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.AggregateLoad")
+@Label("Aggregate Load")
+@Category({"Event Sourced Account", "Event Sourcing"})
+@Description("An aggregate rebuilt from the cache, the store and the idempotency check of the command's transaction")
+class AggregateLoadJfrEvent extends jdk.jfr.Event {
+
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Cached Version")
+    long cachedVersion;
+
+    @Label("Loaded Version")
+    long version;
+
+    @Label("Replayed Events")
+    int replayedEvents;
+
+    @Label("From Snapshot")
+    boolean fromSnapshot;
+
+    // loaded, transactionApplied, notFound or failed
+    @Label("Outcome")
+    String outcome;
+}
@@ -0,0 +1,22 @@
+package lt.rieske.accounts.eventsourcing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.AggregateReplay")
+@Label("Aggregate Replay")
+@Category({"Event Sourced Account", "Event Sourcing"})
+@Description("The loaded snapshot and events visited by an aggregate")
+class AggregateReplayJfrEvent extends jdk.jfr.Event {
+
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Replayed Events")
+    int replayedEvents;
+
+    @Label("From Snapshot")
+    boolean fromSnapshot;
+}
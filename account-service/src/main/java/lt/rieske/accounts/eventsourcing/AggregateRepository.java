@@ -1,23 +1,70 @@
 package lt.rieske.accounts.eventsourcing;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 public class AggregateRepository<A extends EventVisitor<E>, E extends Event> {
     private final EventStore<E> eventStore;
     private final AggregateFactory<A, E> aggregateFactory;
     private final Snapshotter<A, E> snapshotter;
+    private final AggregateCache<A, E> cache;
+    private final AsyncSnapshotWriter<E> snapshotWriter;
+    private final Function<A, E> viewCapture;
 
     public AggregateRepository(EventStore<E> eventStore, AggregateFactory<A, E> aggregateFactory) {
         this(eventStore, aggregateFactory, (aggregate, version) -> null);
     }
 
     public AggregateRepository(EventStore<E> eventStore, AggregateFactory<A, E> aggregateFactory, Snapshotter<A, E> snapshotter) {
+        this(eventStore, aggregateFactory, snapshotter, AggregateCache.disabled());
+    }
+
+    public AggregateRepository(
+            EventStore<E> eventStore,
+            AggregateFactory<A, E> aggregateFactory,
+            Snapshotter<A, E> snapshotter,
+            AggregateCache<A, E> cache) {
+        this(eventStore, aggregateFactory, snapshotter, cache, null);
+    }
+
+    /**
+     * @param snapshotWriter - when not null, snapshots are stored by it in the background instead of within the commit
+     *                       that made them due
+     */
+    public AggregateRepository(
+            EventStore<E> eventStore,
+            AggregateFactory<A, E> aggregateFactory,
+            Snapshotter<A, E> snapshotter,
+            AggregateCache<A, E> cache,
+            AsyncSnapshotWriter<E> snapshotWriter) {
+        this(eventStore, aggregateFactory, snapshotter, cache, snapshotWriter, null);
+    }
+
+    /**
+     * @param viewCapture - when not null, captures the view of each modified aggregate, to be stored along with the events
+     *                    in the same commit. The stored views can then be queried without replaying the aggregates
+     */
+    public AggregateRepository(
+            EventStore<E> eventStore,
+            AggregateFactory<A, E> aggregateFactory,
+            Snapshotter<A, E> snapshotter,
+            AggregateCache<A, E> cache,
+            AsyncSnapshotWriter<E> snapshotWriter,
+            Function<A, E> viewCapture) {
         this.eventStore = eventStore;
         this.aggregateFactory = aggregateFactory;
         this.snapshotter = snapshotter;
+        this.cache = cache;
+        this.snapshotWriter = snapshotWriter;
+        this.viewCapture = viewCapture;
     }
 
     public void create(UUID aggregateId, UUID transactionId, Consumer<A> transaction) {
@@ -28,11 +75,12 @@ public class AggregateRepository<A extends EventVisitor<E>, E extends Event> {
     }
 
     public void transact(UUID aggregateId, UUID transactionId, Consumer<A> transaction) {
-        // aggregate has to be loaded fist thing, before checking for transaction existence - otherwise we might operate on stale data
+        // the transaction existence check is answered from the same read as the aggregate state -
+        // checking it separately before loading the aggregate might let us operate on stale data
         var eventStream = transactionalEventStream();
-        var aggregate = loadAggregate(eventStream, aggregateId);
+        var aggregate = aggregateFactory.makeAggregate(eventStream, aggregateId);
 
-        if (eventStore.transactionExists(aggregateId, transactionId)) {
+        if (eventStream.replay(aggregate, aggregateId, transactionId)) {
             return;
         }
 
@@ -41,13 +89,15 @@ public class AggregateRepository<A extends EventVisitor<E>, E extends Event> {
     }
 
     public void transact(UUID aggregateId1, UUID aggregateId2, UUID transactionId, BiConsumer<A, A> transaction) {
-        // aggregates have to be loaded fist thing, before checking for transaction existence - otherwise we might operate on stale data
+        // each aggregate's state and its transaction existence check come from a single read -
+        // should the transaction land on an aggregate after it was read, the commit will conflict
         var eventStream = transactionalEventStream();
-        var aggregate1 = loadAggregate(eventStream, aggregateId1);
-        var aggregate2 = loadAggregate(eventStream, aggregateId2);
+        var aggregate1 = aggregateFactory.makeAggregate(eventStream, aggregateId1);
+        var aggregate2 = aggregateFactory.makeAggregate(eventStream, aggregateId2);
 
-        if (eventStore.transactionExists(aggregateId1, transactionId)
-                || eventStore.transactionExists(aggregateId2, transactionId)) {
+        boolean appliedToAggregate1 = eventStream.replay(aggregate1, aggregateId1, transactionId);
+        boolean appliedToAggregate2 = eventStream.replay(aggregate2, aggregateId2, transactionId);
+        if (appliedToAggregate1 || appliedToAggregate2) {
             return;
         }
 
@@ -55,22 +105,135 @@ public class AggregateRepository<A extends EventVisitor<E>, E extends Event> {
         eventStream.commit(transactionId);
     }
 
+    /**
+     * Applies the given transactions to the aggregate one after another and commits all the resulting events at once,
+     * each event tagged with the id of the transaction that produced it.
+     * <p>
+     * A transaction failing in the domain does not affect the others - its operation is expected to validate
+     * before appending any events. Transactions that have already been applied are skipped.
+     *
+     * @return the failure of each transaction, in order - null where the transaction has been applied
+     * @throws java.util.ConcurrentModificationException if the aggregate has been modified concurrently -
+     *                                                   none of the transactions got applied
+     */
+    public List<RuntimeException> transact(UUID aggregateId, List<AggregateTransaction<A>> transactions) {
+        var eventStream = transactionalEventStream();
+        var aggregate = aggregateFactory.makeAggregate(eventStream, aggregateId);
+
+        var firstTransactionId = transactions.getFirst().transactionId();
+        var appliedTransactions = new HashSet<UUID>();
+        if (eventStream.replay(aggregate, aggregateId, firstTransactionId)) {
+            appliedTransactions.add(firstTransactionId);
+        }
+        // the rest are checked after the aggregate has been read - any of them landing later will conflict on commit.
+        // Those ruled out by the cached transactions of the aggregate need not be looked for
+        var otherTransactionIds = transactions.stream()
+                .skip(1)
+                .map(AggregateTransaction::transactionId)
+                .filter(transactionId -> eventStream.mightContainTransaction(aggregateId, transactionId))
+                .toList();
+        if (!otherTransactionIds.isEmpty()) {
+            appliedTransactions.addAll(eventStore.findTransactions(aggregateId, otherTransactionIds));
+        }
+
+        var failures = new ArrayList<RuntimeException>(transactions.size());
+        for (var transaction : transactions) {
+            failures.add(apply(eventStream, aggregate, transaction, appliedTransactions));
+        }
+        if (eventStream.uncommittedEventCount() > 0) {
+            eventStream.commit(firstTransactionId);
+        }
+        return failures;
+    }
+
+    /**
+     * Looks up the stored view of the aggregate - a single read, no replay.
+     *
+     * @param minVersion - the least version of the aggregate the view has to reflect, i.e. the version of a write the
+     *                   caller needs to observe
+     * @return the view, or null if views are not captured, or the stored view is missing or older than minVersion -
+     * the aggregate has to be queried then
+     */
+    public E queryView(UUID aggregateId, long minVersion) {
+        if (viewCapture == null) {
+            return null;
+        }
+        var view = eventStore.loadView(aggregateId);
+        return view != null && view.sequenceNumber() >= minVersion ? view.event() : null;
+    }
+
     public A query(UUID aggregateId) {
-        EventStream<A, E> readOnlyStream = (event, aggregate, id) -> {
-            throw new UnsupportedOperationException("Can not append to read only event stream");
-        };
-        var aggregate = aggregateFactory.makeAggregate(readOnlyStream, aggregateId);
-        new EventReplayer<>(eventStore).replay(aggregate, aggregateId);
+        var aggregate = aggregateFactory.makeAggregate(readOnlyStream(), aggregateId);
+        new EventReplayer<>(eventStore, cache, snapshotter).replay(aggregate, aggregateId);
         return aggregate;
     }
 
-    private A loadAggregate(TransactionalEventStream<A, E> eventStream, UUID aggregateId) {
-        var aggregate = aggregateFactory.makeAggregate(eventStream, aggregateId);
-        eventStream.replay(aggregate, aggregateId);
+    /**
+     * The aggregate as it was at the given version - replayed from the nearest snapshot at or before the version,
+     * only the events in between get read. The current state if the aggregate has not reached the version yet.
+     */
+    public A queryAt(UUID aggregateId, long atVersion) {
+        if (atVersion < 1) {
+            throw new IllegalArgumentException("Version must be positive, got " + atVersion);
+        }
+        var aggregate = aggregateFactory.makeAggregate(readOnlyStream(), aggregateId);
+        new EventReplayer<>(eventStore).replayAt(aggregate, aggregateId, atVersion);
         return aggregate;
     }
 
+    /**
+     * Whether the aggregates can be queried at a given time - only if the event store records the times of the events.
+     */
+    public boolean canQueryAtTime() {
+        return eventStore.recordsEventTimes();
+    }
+
+    /**
+     * The aggregate as it was at the given time - as of its last event appended by then.
+     *
+     * @throws UnsupportedOperationException if the event store does not record the times of the events,
+     *                                       see {@link #canQueryAtTime()}
+     * @throws IllegalArgumentException      if the time precedes the times the event store knows of the aggregate -
+     *                                       events stored before the times got recorded have none
+     */
+    public A queryAt(UUID aggregateId, Instant time) {
+        long version = eventStore.versionAt(aggregateId, time);
+        if (version == 0) {
+            throw new AggregateNotFoundException(aggregateId);
+        }
+        return queryAt(aggregateId, version);
+    }
+
+    private RuntimeException apply(
+            TransactionalEventStream<A, E> eventStream,
+            A aggregate,
+            AggregateTransaction<A> transaction,
+            Set<UUID> appliedTransactions) {
+        if (!appliedTransactions.add(transaction.transactionId())) {
+            return null;
+        }
+        int uncommittedEventCount = eventStream.uncommittedEventCount();
+        try {
+            eventStream.beginTransaction(transaction.transactionId());
+            transaction.operation().accept(aggregate);
+            return null;
+        } catch (RuntimeException e) {
+            if (eventStream.uncommittedEventCount() != uncommittedEventCount) {
+                throw new IllegalStateException("Transaction " + transaction.transactionId()
+                        + " failed after modifying the aggregate, the batch can not be committed", e);
+            }
+            appliedTransactions.remove(transaction.transactionId());
+            return e;
+        }
+    }
+
+    private EventStream<A, E> readOnlyStream() {
+        return (event, aggregate, id) -> {
+            throw new UnsupportedOperationException("Can not append to read only event stream");
+        };
+    }
+
     private TransactionalEventStream<A, E> transactionalEventStream() {
-        return new TransactionalEventStream<>(eventStore, snapshotter);
+        return new TransactionalEventStream<>(eventStore, snapshotter, cache, snapshotWriter, viewCapture);
     }
 }
@@ -0,0 +1,11 @@
+package lt.rieske.accounts.eventsourcing;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+
+public record AggregateTransaction<A>(
+        UUID transactionId,
+        Consumer<A> operation
+) {
+}
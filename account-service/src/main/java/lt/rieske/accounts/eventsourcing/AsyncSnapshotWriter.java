@@ -0,0 +1,113 @@
+package lt.rieske.accounts.eventsourcing;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Stores snapshots in the background, off the command path.
+ * <p>
+ * A commit only hands over the snapshots its aggregates were due for. Snapshots waiting to be written are coalesced
+ * per aggregate - only the most recent one gets written - and written in batches, each in its own append, separate
+ * from any command's transaction. A snapshot is an optimization only: one failing to be written is logged and dropped,
+ * the aggregate gets snapshotted again when it is due for the next one.
+ * <p>
+ * The event store is expected to keep the newest snapshot of an aggregate - writers of different service instances,
+ * or of the same instance over time, may race each other with snapshots of different versions.
+ */
+public class AsyncSnapshotWriter<E extends Event> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncSnapshotWriter.class);
+
+    private static final int MAX_BATCH_SIZE = 100;
+    // compared by identity - tells the writer to stop once everything queued before it is written
+    private static final UUID STOP = new UUID(0, 0);
+
+    private final EventStore<E> eventStore;
+    private final ConcurrentHashMap<UUID, SequencedEvent<E>> pendingSnapshots = new ConcurrentHashMap<>();
+    private final BlockingQueue<UUID> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    public AsyncSnapshotWriter(EventStore<E> eventStore) {
+        this.eventStore = eventStore;
+        this.writer = Thread.ofVirtual().name("snapshot-writer").start(this::run);
+    }
+
+    void submit(SequencedEvent<E> snapshot) {
+        if (closed) {
+            return;
+        }
+        boolean[] alreadyQueued = {false};
+        pendingSnapshots.compute(snapshot.aggregateId(), (aggregateId, pendingSnapshot) -> {
+            if (pendingSnapshot == null) {
+                return snapshot;
+            }
+            alreadyQueued[0] = true;
+            return pendingSnapshot.sequenceNumber() > snapshot.sequenceNumber() ? pendingSnapshot : snapshot;
+        });
+        if (!alreadyQueued[0]) {
+            queue.add(snapshot.aggregateId());
+        }
+    }
+
+    public int pendingSnapshots() {
+        return pendingSnapshots.size();
+    }
+
+    // pending snapshots are written out before the writer stops.
+    // The writer is not interrupted - an interrupt would close the file channels of stores doing interruptible I/O
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(STOP);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        var aggregateIds = new ArrayList<UUID>(MAX_BATCH_SIZE);
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                aggregateIds.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(aggregateIds, MAX_BATCH_SIZE - 1);
+            stopped = aggregateIds.removeIf(aggregateId -> aggregateId == STOP);
+            write(aggregateIds);
+            aggregateIds.clear();
+        }
+    }
+
+    private void write(List<UUID> aggregateIds) {
+        var snapshots = new ArrayList<SequencedEvent<E>>(aggregateIds.size());
+        for (var aggregateId : aggregateIds) {
+            var snapshot = pendingSnapshots.remove(aggregateId);
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+        }
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        try {
+            eventStore.append(List.of(), snapshots, null);
+        } catch (RuntimeException e) {
+            log.warn("Could not store {} snapshots", snapshots.size(), e);
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package lt.rieske.accounts.eventsourcing;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -8,29 +10,181 @@ import java.util.UUID;
 class EventReplayer<A extends EventVisitor<E>, E extends Event> {
 
     private final EventStore<E> eventStore;
+    private final AggregateCache<A, E> cache;
+    private final Snapshotter<A, E> snapshotter;
     private final Map<UUID, Long> aggregateVersions = new HashMap<>();
+    private final Map<UUID, TransactionIdFilter> transactionFilters = new HashMap<>();
 
     EventReplayer(EventStore<E> eventStore) {
+        this(eventStore, AggregateCache.disabled());
+    }
+
+    EventReplayer(EventStore<E> eventStore, AggregateCache<A, E> cache) {
+        this(eventStore, cache, (aggregate, version) -> null);
+    }
+
+    // the snapshotter gets to observe the cost of each replay
+    EventReplayer(EventStore<E> eventStore, AggregateCache<A, E> cache, Snapshotter<A, E> snapshotter) {
         this.eventStore = eventStore;
+        this.cache = cache;
+        this.snapshotter = snapshotter;
     }
 
     void replay(A aggregate, UUID aggregateId) {
-        long currentVersion = applySnapshot(aggregate, aggregateId);
-        currentVersion = replayEvents(aggregate, currentVersion, aggregateId);
+        replay(aggregate, aggregateId, null);
+    }
+
+    // returns whether the given transaction has already been applied to the aggregate
+    boolean replay(A aggregate, UUID aggregateId, UUID transactionId) {
+        var loadEvent = new AggregateLoadJfrEvent();
+        loadEvent.begin();
+        loadEvent.outcome = "failed";
+        try {
+            boolean transactionExists = load(aggregate, aggregateId, transactionId, loadEvent);
+            loadEvent.outcome = transactionExists ? "transactionApplied" : "loaded";
+            return transactionExists;
+        } catch (AggregateNotFoundException e) {
+            loadEvent.outcome = "notFound";
+            throw e;
+        } finally {
+            loadEvent.end();
+            if (loadEvent.shouldCommit()) {
+                loadEvent.aggregateId = aggregateId.toString();
+                loadEvent.commit();
+            }
+        }
+    }
+
+    // the flight recorder event gets the sizes of the load - only formatted if the event is recorded
+    private boolean load(A aggregate, UUID aggregateId, UUID transactionId, AggregateLoadJfrEvent loadEvent) {
+        var cached = cache.get(aggregateId);
+        var cachedState = cached != null ? cached.state() : null;
+        long cachedVersion = cachedState != null ? cachedState.sequenceNumber() : 0;
+        var transactions = cached != null && cached.transactions() != null && !cached.transactions().saturated()
+                ? cached.transactions()
+                : null;
+
+        // only the events newer than the cached state are fetched - unless the store has a more recent snapshot.
+        // The cached transactions cover the cached state - the store is only asked for the transaction if the
+        // cached transactions can not rule it out
+        boolean checkCachedTransactions = transactionId != null && transactions != null;
+        var history = eventStore.loadAggregate(aggregateId, cachedVersion, checkCachedTransactions ? null : transactionId);
+        long currentVersion = replayHistory(aggregate, aggregateId, cachedState, history);
+        recordLoad(loadEvent, cachedVersion, currentVersion, history);
 
         if (currentVersion == 0) {
             throw new AggregateNotFoundException(aggregateId);
         }
+        snapshotter.aggregateLoaded(aggregateId, history.events().size());
+
+        if (history.snapshot() != null && transactions != null) {
+            // the events between the cached state and the snapshot have not been seen - only their transactions are read
+            transactions.addAll(transactionIds(aggregateId, cachedVersion, history.snapshot().sequenceNumber()));
+        }
+        boolean transactionExists = checkTransaction(aggregateId, transactionId, history, checkCachedTransactions ? transactions : null);
+
+        var cachedTransactions = cached != null ? cached.transactions() : null;
+        if (transactions != null) {
+            transactions.addAll(transactionIds(history.events()));
+        } else if (cache.enabled() && cachedState == null && history.snapshot() == null) {
+            // an aggregate replayed in full reveals all its transactions. Otherwise they are left untracked - collecting
+            // them would take a scan of the whole history, the store looks each transaction up by index instead
+            transactions = TransactionIdFilter.of(transactionIds(history.events()));
+        }
 
         aggregateVersions.put(aggregateId, currentVersion);
+        transactionFilters.put(aggregateId, transactions);
+        if (currentVersion != cachedVersion || transactions != cachedTransactions) {
+            cache.put(aggregateId, currentVersion, aggregate, transactions);
+        }
+        return transactionExists;
+    }
+
+    // the newer snapshot or else the cached state, followed by the events after it
+    private long replayHistory(A aggregate, UUID aggregateId, SequencedEvent<E> cachedState, AggregateHistory<E> history) {
+        var replayEvent = new AggregateReplayJfrEvent();
+        replayEvent.begin();
+        long currentVersion = applySnapshot(aggregate, history.snapshot() != null ? history.snapshot() : cachedState);
+        currentVersion = replayEvents(aggregate, currentVersion, history.events());
+        replayEvent.end();
+        if (replayEvent.shouldCommit()) {
+            replayEvent.aggregateId = aggregateId.toString();
+            replayEvent.replayedEvents = history.events().size();
+            replayEvent.fromSnapshot = history.snapshot() != null;
+            replayEvent.commit();
+        }
+        return currentVersion;
+    }
+
+    // with the cached transactions given, the store was not asked for the transaction along with the history.
+    // The filter has false positives - a transaction it might contain is only reported applied once the store has it
+    private boolean checkTransaction(
+            UUID aggregateId, UUID transactionId, AggregateHistory<E> history, TransactionIdFilter cachedTransactions) {
+        var idempotencyCheck = new IdempotencyCheckJfrEvent();
+        idempotencyCheck.begin();
+        boolean transactionExists = cachedTransactions != null
+                ? containsTransaction(history.events(), transactionId)
+                || cachedTransactions.mightContain(transactionId) && eventStore.transactionExists(aggregateId, transactionId)
+                : history.transactionExists();
+        idempotencyCheck.end();
+        if (transactionId != null && idempotencyCheck.shouldCommit()) {
+            idempotencyCheck.aggregateId = aggregateId.toString();
+            idempotencyCheck.transactionId = transactionId.toString();
+            idempotencyCheck.outcome = transactionExists ? "applied" : "notApplied";
+            idempotencyCheck.commit();
+        }
+        return transactionExists;
+    }
+
+    private static void recordLoad(AggregateLoadJfrEvent loadEvent, long cachedVersion, long version, AggregateHistory<?> history) {
+        loadEvent.cachedVersion = cachedVersion;
+        loadEvent.version = version;
+        loadEvent.replayedEvents = history.events().size();
+        loadEvent.fromSnapshot = history.snapshot() != null;
+    }
+
+    // Replays the aggregate as it was at the given version - from the latest snapshot at or before it, followed by
+    // the events in between. Bypasses the cache, which only holds current states
+    void replayAt(A aggregate, UUID aggregateId, long atVersion) {
+        long currentVersion = applySnapshot(aggregate, eventStore.loadSnapshot(aggregateId, atVersion));
+        try (var events = eventStore.getEvents(aggregateId, currentVersion, atVersion)) {
+            var iterator = events.iterator();
+            while (iterator.hasNext()) {
+                var event = iterator.next();
+                aggregate.visit(event.event());
+                currentVersion = event.sequenceNumber();
+            }
+        }
+        if (currentVersion == 0) {
+            throw new AggregateNotFoundException(aggregateId);
+        }
     }
 
     long nextVersion(UUID aggregateId) {
-        return aggregateVersions.compute(aggregateId, (id, version) -> version != null ? version + 1 : 1);
+        long version = aggregateVersions.compute(aggregateId, (id, currentVersion) -> currentVersion != null ? currentVersion + 1 : 1);
+        if (version == 1 && cache.enabled()) {
+            // a new aggregate - no transactions have been applied to it yet
+            transactionFilters.put(aggregateId, TransactionIdFilter.of(List.of()));
+        }
+        return version;
+    }
+
+    // whether the transaction might have been applied to the aggregate as of its last replay or commit
+    boolean mightContainTransaction(UUID aggregateId, UUID transactionId) {
+        var transactions = transactionFilters.get(aggregateId);
+        return transactions == null || transactions.mightContain(transactionId);
+    }
+
+    // null if the transactions of the aggregate are not tracked
+    TransactionIdFilter transactionFilter(UUID aggregateId) {
+        return transactionFilters.get(aggregateId);
     }
 
-    private long applySnapshot(A aggregate, UUID aggregateId) {
-        SequencedEvent<E> snapshot = eventStore.loadSnapshot(aggregateId);
+    long currentVersion(UUID aggregateId) {
+        return aggregateVersions.getOrDefault(aggregateId, 0L);
+    }
+
+    private long applySnapshot(A aggregate, SequencedEvent<E> snapshot) {
         if (snapshot != null) {
             aggregate.visit(snapshot.event());
             return snapshot.sequenceNumber();
@@ -38,10 +192,35 @@ class EventReplayer<A extends EventVisitor<E>, E extends Event> {
         return 0;
     }
 
-    private long replayEvents(A aggregate, long startingVersion, UUID aggregateId) {
+    // transactions of the events after fromVersion, up to and including toVersion
+    private List<UUID> transactionIds(UUID aggregateId, long fromVersion, long toVersion) {
+        try (var events = eventStore.getEvents(aggregateId, fromVersion, toVersion)) {
+            return transactionIds(events.toList());
+        }
+    }
+
+    private static boolean containsTransaction(List<? extends SequencedEvent<?>> events, UUID transactionId) {
+        for (var event : events) {
+            if (transactionId.equals(event.transactionId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<UUID> transactionIds(List<? extends SequencedEvent<?>> events) {
+        var transactionIds = new ArrayList<UUID>(events.size());
+        for (var event : events) {
+            if (event.transactionId() != null) {
+                transactionIds.add(event.transactionId());
+            }
+        }
+        return transactionIds;
+    }
+
+    private long replayEvents(A aggregate, long startingVersion, List<SequencedEvent<E>> events) {
         long currentVersion = startingVersion;
-        for (var iterator = eventStore.getEvents(aggregateId, startingVersion).iterator(); iterator.hasNext(); ) {
-            var event = iterator.next();
+        for (var event : events) {
             aggregate.visit(event.event());
             currentVersion = event.sequenceNumber();
         }
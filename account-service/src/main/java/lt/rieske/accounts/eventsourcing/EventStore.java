@@ -1,6 +1,8 @@
 package lt.rieske.accounts.eventsourcing;
 
+import java.time.Instant;
 import java.util.Collection;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Stream;
 
@@ -11,10 +13,55 @@ public interface EventStore<E extends Event> {
     //   if given sequence number exists for aggregate - we have a concurrent modification - abort.
     //   In such case the client should re-read the current state and retry the operation.
     // - appends must be transactional - either all get written or none
+    // - events carrying their own transaction id are stored with it, the rest with the given transactionId
     void append(Collection<SequencedEvent<E>> uncommittedEvents, Collection<SequencedEvent<E>> uncommittedSnapshots, UUID transactionId);
 
-    Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion);
+    // Appends the same way, also storing the views - the current states of the modified aggregates - within the same
+    // transaction. An older view must never replace a newer one. Stores that do not keep views only append.
+    default void append(
+            Collection<SequencedEvent<E>> uncommittedEvents,
+            Collection<SequencedEvent<E>> uncommittedSnapshots,
+            Collection<SequencedEvent<E>> views,
+            UUID transactionId) {
+        append(uncommittedEvents, uncommittedSnapshots, transactionId);
+    }
+
+    // the latest stored view of the aggregate, null if the store has none
+    default SequencedEvent<E> loadView(UUID aggregateId) {
+        return null;
+    }
+
+    // the stream may be backed by an open store cursor - consume it fully or close it
+    default Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion) {
+        return getEvents(aggregateId, fromVersion, Long.MAX_VALUE);
+    }
+
+    // events after fromVersion, up to and including toVersion
+    Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion, long toVersion);
     SequencedEvent<E> loadSnapshot(UUID aggregateId);
 
+    // the latest snapshot at or before the given version, null if there is none
+    default SequencedEvent<E> loadSnapshot(UUID aggregateId, long atVersion) {
+        var snapshot = loadSnapshot(aggregateId);
+        return snapshot != null && snapshot.sequenceNumber() <= atVersion ? snapshot : null;
+    }
+
+    // whether the store records the times of the appends, telling the versions the aggregates had at a given time
+    default boolean recordsEventTimes() {
+        return false;
+    }
+
+    // the sequence number of the aggregate's last event appended by the given time, 0 if none -
+    // only stores that record the times of the appends can tell, and only for the times they know of the aggregate
+    default long versionAt(UUID aggregateId, Instant time) {
+        throw new UnsupportedOperationException("The event store does not record the times of the events");
+    }
+
     boolean transactionExists(UUID aggregateId, UUID transactionId);
+    Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds);
+
+    // Loads the latest snapshot (only if newer than fromVersion), the events following it (or fromVersion)
+    // and checks for the transaction (if not null) at once -
+    // implementations should serve this from a single consistent read of the store.
+    AggregateHistory<E> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId);
 }
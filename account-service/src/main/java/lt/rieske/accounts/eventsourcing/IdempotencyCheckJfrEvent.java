@@ -0,0 +1,23 @@
+package lt.rieske.accounts.eventsourcing;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.IdempotencyCheck")
+@Label("Idempotency Check")
+@Category({"Event Sourced Account", "Event Sourcing"})
+@Description("A command's transaction looked up in the aggregate's transactions - in the store when the cached ones can not rule it out")
+class IdempotencyCheckJfrEvent extends jdk.jfr.Event {
+
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Transaction Id")
+    String transactionId;
+
+    // applied or notApplied
+    @Label("Outcome")
+    String outcome;
+}
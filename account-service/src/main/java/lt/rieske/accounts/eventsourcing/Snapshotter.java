@@ -1,5 +1,6 @@
 package lt.rieske.accounts.eventsourcing;
 
+import java.util.UUID;
 
 
 public interface Snapshotter<A, E extends Event> {
@@ -14,4 +15,20 @@ public interface Snapshotter<A, E extends Event> {
      * @return the snapshot event created from the aggregate, or null if no snapshot is to be created for this version
      */
     E takeSnapshot(A aggregate, long version);
+
+    /**
+     * Same as {@link #takeSnapshot(Object, long)}, for policies that decide per aggregate.
+     */
+    default E takeSnapshot(UUID aggregateId, A aggregate, long version) {
+        return takeSnapshot(aggregate, version);
+    }
+
+    /**
+     * Called each time an aggregate is loaded, letting the policy observe the cost of the replay.
+     *
+     * @param aggregateId    - id of the loaded aggregate
+     * @param replayedEvents - count of events read from the event store and applied on top of the snapshot or cached state
+     */
+    default void aggregateLoaded(UUID aggregateId, int replayedEvents) {
+    }
 }
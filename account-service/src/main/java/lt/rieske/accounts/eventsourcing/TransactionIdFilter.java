@@ -0,0 +1,83 @@
+package lt.rieske.accounts.eventsourcing;
+
+import java.util.Collection;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Bloom filter of the transaction ids applied to an aggregate.
+ * <p>
+ * A negative answer is definite - the transaction has not been applied up to the version the filter covers.
+ * A positive answer might be false and has to be confirmed by the event store. Ids are only ever added, so a filter
+ * covering some version of an aggregate keeps covering it while newer transactions get added.
+ * <p>
+ * Sized for about 1% false positives up to its capacity. Once saturated, it should be rebuilt with a larger capacity.
+ */
+class TransactionIdFilter {
+
+    private static final int MIN_CAPACITY = 64;
+    private static final int BITS_PER_ID = 10;
+    private static final int HASH_COUNT = 7;
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int capacity;
+    private final AtomicInteger size = new AtomicInteger();
+
+    private TransactionIdFilter(int capacity) {
+        this.capacity = capacity;
+        this.bits = new AtomicLongArray((int) ((long) capacity * BITS_PER_ID / Long.SIZE + 1));
+        this.bitCount = (long) bits.length() * Long.SIZE;
+    }
+
+    // leaves room for the aggregate to take as many transactions again
+    static TransactionIdFilter of(Collection<UUID> transactionIds) {
+        var filter = new TransactionIdFilter(Math.max(MIN_CAPACITY, transactionIds.size() * 2));
+        filter.addAll(transactionIds);
+        return filter;
+    }
+
+    void add(UUID transactionId) {
+        long hash1 = mix(transactionId.getMostSignificantBits() ^ mix(transactionId.getLeastSignificantBits()));
+        long hash2 = mix(hash1 ^ transactionId.getLeastSignificantBits()) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            bits.getAndUpdate(index, word -> word | mask);
+        }
+        size.incrementAndGet();
+    }
+
+    void addAll(Collection<UUID> transactionIds) {
+        transactionIds.forEach(this::add);
+    }
+
+    boolean mightContain(UUID transactionId) {
+        long hash1 = mix(transactionId.getMostSignificantBits() ^ mix(transactionId.getLeastSignificantBits()));
+        long hash2 = mix(hash1 ^ transactionId.getLeastSignificantBits()) | 1;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            long bit = Math.floorMod(hash1 + i * hash2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean saturated() {
+        return size.get() > capacity;
+    }
+
+    // murmur3 finalizer - transaction ids are supplied by clients and need not be random
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -1,10 +1,13 @@
 package lt.rieske.accounts.eventsourcing;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.Function;
 
 
 class TransactionalEventStream<A extends EventVisitor<E>, E extends Event> implements EventStream<A, E> {
@@ -12,22 +15,48 @@ class TransactionalEventStream<A extends EventVisitor<E>, E extends Event> imple
     private final EventStore<E> eventStore;
     private final EventReplayer<A, E> replayer;
     private final Snapshotter<A, E> snapshotter;
+    private final AggregateCache<A, E> cache;
+    private final AsyncSnapshotWriter<E> snapshotWriter;
+    private final Function<A, E> viewCapture;
 
     private final List<SequencedEvent<E>> uncommittedEvents = new ArrayList<>();
     private final Map<UUID, SequencedEvent<E>> uncommittedSnapshots = new HashMap<>();
+    private final Map<UUID, A> modifiedAggregates = new HashMap<>();
+
+    // when set, appended events are tagged with it instead of the commit's transaction id
+    private UUID currentTransactionId;
 
     TransactionalEventStream(EventStore<E> eventStore, Snapshotter<A, E> snapshotter) {
+        this(eventStore, snapshotter, AggregateCache.disabled());
+    }
+
+    TransactionalEventStream(EventStore<E> eventStore, Snapshotter<A, E> snapshotter, AggregateCache<A, E> cache) {
+        this(eventStore, snapshotter, cache, null, null);
+    }
+
+    // with a snapshot writer, due snapshots are handed to it after the commit instead of being stored with the commit.
+    // With a view capture, the views of the modified aggregates are stored with the commit
+    TransactionalEventStream(
+            EventStore<E> eventStore,
+            Snapshotter<A, E> snapshotter,
+            AggregateCache<A, E> cache,
+            AsyncSnapshotWriter<E> snapshotWriter,
+            Function<A, E> viewCapture) {
         this.eventStore = eventStore;
-        this.replayer = new EventReplayer<>(eventStore);
+        this.replayer = new EventReplayer<>(eventStore, cache, snapshotter);
         this.snapshotter = snapshotter;
+        this.cache = cache;
+        this.snapshotWriter = snapshotWriter;
+        this.viewCapture = viewCapture;
     }
 
     @Override
     public void append(E event, A aggregate, UUID aggregateId) {
         aggregate.visit(event);
+        modifiedAggregates.put(aggregateId, aggregate);
         long currentVersion = replayer.nextVersion(aggregateId);
-        uncommittedEvents.add(new SequencedEvent<>(aggregateId, currentVersion, null, event));
-        var snapshotEvent = snapshotter.takeSnapshot(aggregate, currentVersion);
+        uncommittedEvents.add(new SequencedEvent<>(aggregateId, currentVersion, currentTransactionId, event));
+        var snapshotEvent = snapshotter.takeSnapshot(aggregateId, aggregate, currentVersion);
         if (snapshotEvent != null) {
             uncommittedSnapshots.put(aggregateId, new SequencedEvent<>(aggregateId, currentVersion, null, snapshotEvent));
         }
@@ -37,10 +66,87 @@ class TransactionalEventStream<A extends EventVisitor<E>, E extends Event> imple
         replayer.replay(aggregate, aggregateId);
     }
 
+    boolean replay(A aggregate, UUID aggregateId, UUID transactionId) {
+        return replayer.replay(aggregate, aggregateId, transactionId);
+    }
+
+    // false when the transaction has definitely not been applied to the replayed aggregate
+    boolean mightContainTransaction(UUID aggregateId, UUID transactionId) {
+        return replayer.mightContainTransaction(aggregateId, transactionId);
+    }
+
+    void beginTransaction(UUID transactionId) {
+        this.currentTransactionId = transactionId;
+    }
+
+    int uncommittedEventCount() {
+        return uncommittedEvents.size();
+    }
+
     void commit(UUID transactionId) {
-        eventStore.append(uncommittedEvents, uncommittedSnapshots.values(), transactionId);
+        var snapshots = snapshotWriter == null ? uncommittedSnapshots.values() : List.<SequencedEvent<E>>of();
+        try {
+            store(snapshots, transactionId);
+        } catch (ConcurrentModificationException e) {
+            modifiedAggregates.keySet().forEach(cache::evict);
+            throw e;
+        }
+        if (snapshotWriter != null) {
+            uncommittedSnapshots.values().forEach(snapshotWriter::submit);
+        }
+        trackTransactions(transactionId);
+        modifiedAggregates.forEach((aggregateId, aggregate) -> cache.put(
+                aggregateId, replayer.currentVersion(aggregateId), aggregate, replayer.transactionFilter(aggregateId)));
         uncommittedEvents.clear();
         uncommittedSnapshots.clear();
+        modifiedAggregates.clear();
+        currentTransactionId = null;
+    }
+
+    // appends the uncommitted events with the given snapshots - and the views of the modified aggregates, if captured
+    private void store(Collection<SequencedEvent<E>> snapshots, UUID transactionId) {
+        var commitEvent = new AggregateCommitJfrEvent();
+        commitEvent.begin();
+        commitEvent.outcome = "failed";
+        try {
+            if (viewCapture != null) {
+                eventStore.append(uncommittedEvents, snapshots, views(), transactionId);
+            } else {
+                eventStore.append(uncommittedEvents, snapshots, transactionId);
+            }
+            commitEvent.outcome = "committed";
+        } catch (ConcurrentModificationException e) {
+            commitEvent.outcome = "conflict";
+            throw e;
+        } finally {
+            commitEvent.end();
+            if (commitEvent.shouldCommit()) {
+                commitEvent.aggregateId = uncommittedEvents.isEmpty() ? null : uncommittedEvents.getFirst().aggregateId().toString();
+                commitEvent.transactionId = transactionId != null ? transactionId.toString() : null;
+                commitEvent.aggregates = modifiedAggregates.size();
+                commitEvent.events = uncommittedEvents.size();
+                commitEvent.snapshots = snapshots.size();
+                commitEvent.commit();
+            }
+        }
+    }
+
+    // the committed transactions are added to the tracked transactions of their aggregates
+    private void trackTransactions(UUID transactionId) {
+        for (var event : uncommittedEvents) {
+            var transactions = replayer.transactionFilter(event.aggregateId());
+            var eventTransactionId = event.transactionId() != null ? event.transactionId() : transactionId;
+            if (transactions != null && eventTransactionId != null) {
+                transactions.add(eventTransactionId);
+            }
+        }
+    }
+
+    private List<SequencedEvent<E>> views() {
+        var views = new ArrayList<SequencedEvent<E>>(modifiedAggregates.size());
+        modifiedAggregates.forEach((aggregateId, aggregate) -> views.add(
+                new SequencedEvent<>(aggregateId, replayer.currentVersion(aggregateId), null, viewCapture.apply(aggregate))));
+        return views;
     }
 
 }
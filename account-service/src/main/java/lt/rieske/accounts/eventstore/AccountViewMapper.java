@@ -0,0 +1,22 @@
+package lt.rieske.accounts.eventstore;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.SequencedEvent;
+
+// an account's view is its snapshot - the full state of the account
+class AccountViewMapper implements ViewMapper<AccountEvent> {
+
+    @Override
+    public AccountView toView(SequencedEvent<AccountEvent> view) {
+        if (!(view.event() instanceof AccountEvent.AccountSnapshot snapshot)) {
+            throw new IllegalArgumentException("Account view has to be an account snapshot, got: " + view.event());
+        }
+        return new AccountView(snapshot.accountId(), snapshot.ownerId(), snapshot.balance(), snapshot.open(), view.sequenceNumber());
+    }
+
+    @Override
+    public SequencedEvent<AccountEvent> fromView(AccountView view) {
+        return new SequencedEvent<>(view.accountId(), view.version(), null,
+                new AccountEvent.AccountSnapshot(view.accountId(), view.ownerId(), view.balance(), view.open()));
+    }
+}
@@ -4,17 +4,39 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import lt.rieske.accounts.domain.AccountEvent;
 import lt.rieske.accounts.eventsourcing.EventStore;
+import lt.rieske.accounts.metrics.MetricsRegistry;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.time.Duration;
 
 public class Configuration {
 
     public static EventStore<AccountEvent> accountEventStore(BlobEventStore blobEventStore) {
-        return new SerializingEventStore<>(new MessagePackAccountEventSerializer(), blobEventStore);
+        return new SerializingEventStore<>(new MessagePackAccountEventSerializer(), blobEventStore, new AccountViewMapper());
+    }
+
+    // records the time spent in each call to the store
+    public static BlobEventStore timedBlobEventStore(BlobEventStore blobEventStore, MetricsRegistry metrics) {
+        return new TimedBlobEventStore(blobEventStore, metrics);
     }
 
     public static BlobEventStore blobEventStore(String jdbcUrl, String username, String password) {
-        return EventStoreFactory.makeEventStore(jdbcUrl, username, password, Configuration::pooledDataSource);
+        return blobEventStore(jdbcUrl, username, password, 0, false, false);
+    }
+
+    // keeps the given number of latest snapshots of each account for point in time queries. The event log positions
+    // the events of all the accounts in commit order, serializing the appends. Append notifications need the log
+    public static BlobEventStore blobEventStore(
+            String jdbcUrl, String username, String password, int snapshotHistorySize, boolean eventLog, boolean notifyAppends) {
+        return EventStoreFactory.makeEventStore(
+                jdbcUrl, username, password, Configuration::pooledDataSource, snapshotHistorySize, eventLog, notifyAppends);
+    }
+
+    // fsyncPolicy is one of PER_COMMIT, GROUP, INTERVAL; fsyncInterval is an ISO-8601 duration, i.e. PT0.1S
+    public static BlobEventStore segmentedLogEventStore(String directory, String fsyncPolicy, String fsyncInterval) {
+        return EventStoreFactory.makeSegmentedLogEventStore(
+                Path.of(directory), FsyncPolicy.valueOf(fsyncPolicy), Duration.parse(fsyncInterval));
     }
 
     private static DataSource pooledDataSource(DataSource dataSource) {
@@ -0,0 +1,27 @@
+package lt.rieske.accounts.eventstore;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.EventDeserialization")
+@Label("Event Deserialization")
+@Category({"Event Sourced Account", "Event Store"})
+@Description("A fetched snapshot and events deserialized")
+class EventDeserializationJfrEvent extends jdk.jfr.Event {
+
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Events")
+    int events;
+
+    @Label("Snapshot")
+    boolean snapshot;
+
+    @Label("Payload")
+    @DataAmount
+    long payloadBytes;
+}
@@ -0,0 +1,30 @@
+package lt.rieske.accounts.eventstore;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.EventFetch")
+@Label("Event Fetch")
+@Category({"Event Sourced Account", "Event Store"})
+@Description("The latest snapshot and the events after it fetched from the store, serialized")
+class EventFetchJfrEvent extends jdk.jfr.Event {
+
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("From Version")
+    long fromVersion;
+
+    @Label("Snapshot Version")
+    long snapshotVersion;
+
+    @Label("Events")
+    int events;
+
+    @Label("Payload")
+    @DataAmount
+    long payloadBytes;
+}
@@ -0,0 +1,28 @@
+package lt.rieske.accounts.eventstore;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("lt.rieske.accounts.EventSerialization")
+@Label("Event Serialization")
+@Category({"Event Sourced Account", "Event Store"})
+@Description("The events and snapshots of a commit serialized for appending")
+class EventSerializationJfrEvent extends jdk.jfr.Event {
+
+    // the aggregate of the first event
+    @Label("Aggregate Id")
+    String aggregateId;
+
+    @Label("Events")
+    int events;
+
+    @Label("Snapshots")
+    int snapshots;
+
+    @Label("Payload")
+    @DataAmount
+    long payloadBytes;
+}
@@ -1,16 +1,24 @@
 package lt.rieske.accounts.eventstore;
 
 import lt.rieske.accounts.domain.AccountEvent;
-import org.msgpack.core.MessageBufferPacker;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessagePacker;
 import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.core.buffer.MessageBuffer;
+import org.msgpack.core.buffer.MessageBufferOutput;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
+// The packer and unpacker, along with their buffers, are pooled and reset for every event - the only allocations left
+// per serialized event are the payload and, when deserializing, the event itself. Not kept per thread: with a virtual
+// thread per request, a thread serializes an event or a few before it is gone, along with anything it kept.
 class MessagePackAccountEventSerializer implements EventSerializer<AccountEvent> {
 
     private static final int ACCOUNT_SNAPSHOT = 0;
@@ -19,27 +27,80 @@ class MessagePackAccountEventSerializer implements EventSerializer<AccountEvent>
     private static final int MONEY_WITHDRAWN = 3;
     private static final int ACCOUNT_CLOSED = 4;
 
+    private static final CodecPool CODECS = new CodecPool(Runtime.getRuntime().availableProcessors());
+
     @Override
     public byte[] serialize(AccountEvent event) {
-        try (var packer = MessagePack.newDefaultBufferPacker()) {
-            pack(packer, event);
-            return packer.toByteArray();
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+        var codec = CODECS.acquire();
+        try {
+            var output = packed(codec, event);
+            var serializedEvent = new byte[output.size];
+            output.buffer.getBytes(0, serializedEvent, 0, output.size);
+            return serializedEvent;
+        } finally {
+            CODECS.release(codec);
+        }
+    }
+
+    // writes the serialized event at the target's position, advancing it - returns the number of bytes written
+    int serialize(AccountEvent event, ByteBuffer target) {
+        var codec = CODECS.acquire();
+        try {
+            var output = packed(codec, event);
+            if (target.remaining() < output.size) {
+                throw new BufferOverflowException();
+            }
+            output.buffer.getBytes(0, output.size, target);
+            return output.size;
+        } finally {
+            CODECS.release(codec);
         }
     }
 
     @Override
     public AccountEvent deserialize(byte[] serializedEvent) {
-        try (var unpacker = MessagePack.newDefaultUnpacker(serializedEvent)) {
-            int eventType = unpacker.unpackInt();
-            return deserializeEvent(eventType, unpacker);
+        var codec = CODECS.acquire();
+        try {
+            codec.input.reset(serializedEvent);
+            return unpack(codec);
+        } finally {
+            CODECS.release(codec);
+        }
+    }
+
+    // reads the event from the source's position up to its limit, leaving the source untouched
+    AccountEvent deserialize(ByteBuffer serializedEvent) {
+        var codec = CODECS.acquire();
+        try {
+            codec.input.reset(MessageBuffer.wrap(serializedEvent));
+            return unpack(codec);
+        } finally {
+            CODECS.release(codec);
+        }
+    }
+
+    private static ReusableBufferOutput packed(Codec codec, AccountEvent event) {
+        codec.output.clear();
+        try {
+            pack(codec.packer, event);
+            codec.packer.flush();
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        return codec.output;
     }
 
-    private static void pack(MessageBufferPacker packer, AccountEvent event) throws IOException {
+    private static AccountEvent unpack(Codec codec) {
+        try {
+            codec.unpacker.reset(codec.input);
+            int eventType = codec.unpacker.unpackInt();
+            return deserializeEvent(eventType, codec.unpacker);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void pack(MessagePacker packer, AccountEvent event) throws IOException {
         switch (event) {
             case AccountEvent.AccountSnapshot snapshot -> {
                 packer.packInt(ACCOUNT_SNAPSHOT);
@@ -80,4 +141,89 @@ class MessagePackAccountEventSerializer implements EventSerializer<AccountEvent>
     private static UUID unpackUUID(MessageUnpacker unpacker) throws IOException {
         return new UUID(unpacker.unpackLong(), unpacker.unpackLong());
     }
+
+    private static final class Codec {
+        private final ReusableBufferOutput output = new ReusableBufferOutput();
+        private final MessagePacker packer = MessagePack.newDefaultPacker(output);
+        private final ArrayBufferInput input = new ArrayBufferInput(new byte[0]);
+        private final MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(input);
+    }
+
+    // A codec is only held while an event is packed or unpacked, never across a blocking call - there are hardly ever more
+    // of them in use than there are processors. Any extra made on a burst are dropped when returned to a full pool.
+    private static final class CodecPool {
+        private final AtomicReferenceArray<Codec> codecs;
+
+        CodecPool(int size) {
+            this.codecs = new AtomicReferenceArray<>(size);
+        }
+
+        Codec acquire() {
+            for (int i = 0; i < codecs.length(); i++) {
+                var codec = codecs.get(i);
+                if (codec != null && codecs.compareAndSet(i, codec, null)) {
+                    return codec;
+                }
+            }
+            return new Codec();
+        }
+
+        void release(Codec codec) {
+            for (int i = 0; i < codecs.length(); i++) {
+                if (codecs.get(i) == null && codecs.compareAndSet(i, null, codec)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    // Unlike msgpack's ArrayBufferOutput, which slices off a new buffer for every flush, this one hands the same buffer
+    // out from the start after every clear - an event is packed in a single flush, so nothing is allocated per event.
+    private static final class ReusableBufferOutput implements MessageBufferOutput {
+        private MessageBuffer buffer = MessageBuffer.allocate(256);
+        private int size;
+
+        void clear() {
+            size = 0;
+        }
+
+        @Override
+        public MessageBuffer next(int minimumSize) {
+            ensureCapacity(minimumSize);
+            return size == 0 ? buffer : buffer.slice(size, buffer.size() - size);
+        }
+
+        @Override
+        public void writeBuffer(int length) {
+            size += length;
+        }
+
+        @Override
+        public void write(byte[] source, int offset, int length) {
+            ensureCapacity(length);
+            buffer.putBytes(size, source, offset, length);
+            size += length;
+        }
+
+        @Override
+        public void add(byte[] source, int offset, int length) {
+            write(source, offset, length);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private void ensureCapacity(int length) {
+            if (buffer.size() - size < length) {
+                var grown = MessageBuffer.allocate(Math.max(buffer.size() * 2, size + length));
+                grown.putMessageBuffer(0, buffer, 0, size);
+                buffer = grown;
+            }
+        }
+    }
 }
@@ -1,11 +1,14 @@
 package lt.rieske.accounts.eventstore;
 
+import lt.rieske.accounts.eventsourcing.AggregateHistory;
 import lt.rieske.accounts.eventsourcing.Event;
 import lt.rieske.accounts.eventsourcing.EventStore;
 import lt.rieske.accounts.eventsourcing.SequencedEvent;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Stream;
 
@@ -14,10 +17,17 @@ class SerializingEventStore<E extends Event> implements EventStore<E> {
 
     private final EventSerializer<E> serializer;
     private final BlobEventStore blobStore;
+    private final ViewMapper<E> viewMapper;
 
     SerializingEventStore(EventSerializer<E> serializer, BlobEventStore blobStore) {
+        this(serializer, blobStore, null);
+    }
+
+    // without a view mapper, views are not stored
+    SerializingEventStore(EventSerializer<E> serializer, BlobEventStore blobStore, ViewMapper<E> viewMapper) {
         this.serializer = serializer;
         this.blobStore = blobStore;
+        this.viewMapper = viewMapper;
     }
 
     @Override
@@ -25,18 +35,40 @@ class SerializingEventStore<E extends Event> implements EventStore<E> {
             Collection<SequencedEvent<E>> uncommittedEvents,
             Collection<SequencedEvent<E>> uncommittedSnapshots,
             UUID transactionId) {
+        append(uncommittedEvents, uncommittedSnapshots, List.of(), transactionId);
+    }
+
+    // without a view mapper, the views are dropped
+    @Override
+    public void append(
+            Collection<SequencedEvent<E>> uncommittedEvents,
+            Collection<SequencedEvent<E>> uncommittedSnapshots,
+            Collection<SequencedEvent<E>> views,
+            UUID transactionId) {
+        var serializationEvent = new EventSerializationJfrEvent();
+        serializationEvent.begin();
         var serializedEvents = uncommittedEvents.stream()
                 .map(e -> serialize(e, transactionId)).toList();
         var serializedSnapshots = uncommittedSnapshots.stream()
                 .map(s -> serialize(s, null)).toList();
+        recordSerialization(serializationEvent, serializedEvents, serializedSnapshots);
+        var accountViews = viewMapper != null ? views.stream().map(viewMapper::toView).toList() : List.<AccountView>of();
+
+        blobStore.append(serializedEvents, serializedSnapshots, accountViews, transactionId);
+    }
 
-        blobStore.append(serializedEvents, serializedSnapshots, transactionId);
+    @Override
+    public SequencedEvent<E> loadView(UUID aggregateId) {
+        if (viewMapper == null) {
+            return null;
+        }
+        var view = blobStore.loadAccountView(aggregateId);
+        return view != null ? viewMapper.fromView(view) : null;
     }
 
     @Override
-    public Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion) {
-        var serializedEvents = blobStore.getEvents(aggregateId, fromVersion);
-        return deserialize(serializedEvents);
+    public Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+        return blobStore.getEvents(aggregateId, fromVersion, toVersion).map(this::deserialize);
     }
 
     @Override
@@ -48,6 +80,25 @@ class SerializingEventStore<E extends Event> implements EventStore<E> {
         return deserialize(serializedSnapshot);
     }
 
+    @Override
+    public SequencedEvent<E> loadSnapshot(UUID aggregateId, long atVersion) {
+        var serializedSnapshot = blobStore.loadSnapshot(aggregateId, atVersion);
+        if (serializedSnapshot == null) {
+            return null;
+        }
+        return deserialize(serializedSnapshot);
+    }
+
+    @Override
+    public boolean recordsEventTimes() {
+        return blobStore.recordsEventTimes();
+    }
+
+    @Override
+    public long versionAt(UUID aggregateId, Instant time) {
+        return blobStore.versionAt(aggregateId, time);
+    }
+
     private Stream<SequencedEvent<E>> deserialize(List<SerializedEvent> serializedEvents) {
         return serializedEvents.stream()
                 .map(this::deserialize);
@@ -66,11 +117,73 @@ class SerializingEventStore<E extends Event> implements EventStore<E> {
         return blobStore.transactionExists(aggregateId, transactionId);
     }
 
+    @Override
+    public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+        return blobStore.findTransactions(aggregateId, transactionIds);
+    }
+
+    @Override
+    public AggregateHistory<E> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+        var fetchEvent = new EventFetchJfrEvent();
+        fetchEvent.begin();
+        var serializedHistory = blobStore.loadAggregate(aggregateId, fromVersion, transactionId);
+        var snapshot = serializedHistory.snapshot();
+        fetchEvent.end();
+        if (fetchEvent.shouldCommit()) {
+            fetchEvent.aggregateId = aggregateId.toString();
+            fetchEvent.fromVersion = fromVersion;
+            fetchEvent.snapshotVersion = snapshot != null ? snapshot.sequenceNumber() : 0;
+            fetchEvent.events = serializedHistory.events().size();
+            fetchEvent.payloadBytes = payloadBytes(serializedHistory);
+            fetchEvent.commit();
+        }
+
+        var deserializationEvent = new EventDeserializationJfrEvent();
+        deserializationEvent.begin();
+        var history = new AggregateHistory<>(
+                snapshot != null ? deserialize(snapshot) : null,
+                deserialize(serializedHistory.events()).toList(),
+                serializedHistory.transactionExists());
+        deserializationEvent.end();
+        if (deserializationEvent.shouldCommit()) {
+            deserializationEvent.aggregateId = aggregateId.toString();
+            deserializationEvent.events = serializedHistory.events().size();
+            deserializationEvent.snapshot = snapshot != null;
+            deserializationEvent.payloadBytes = payloadBytes(serializedHistory);
+            deserializationEvent.commit();
+        }
+        return history;
+    }
+
+    private static void recordSerialization(
+            EventSerializationJfrEvent serializationEvent, List<SerializedEvent> events, List<SerializedEvent> snapshots) {
+        serializationEvent.end();
+        if (serializationEvent.shouldCommit()) {
+            serializationEvent.aggregateId = events.isEmpty() ? null : events.getFirst().aggregateId().toString();
+            serializationEvent.events = events.size();
+            serializationEvent.snapshots = snapshots.size();
+            serializationEvent.payloadBytes = payloadBytes(events) + payloadBytes(snapshots);
+            serializationEvent.commit();
+        }
+    }
+
+    private static long payloadBytes(SerializedAggregateHistory history) {
+        return (history.snapshot() != null ? history.snapshot().payload().length : 0) + payloadBytes(history.events());
+    }
+
+    private static long payloadBytes(List<SerializedEvent> events) {
+        long bytes = 0;
+        for (var event : events) {
+            bytes += event.payload().length;
+        }
+        return bytes;
+    }
+
     private SerializedEvent serialize(SequencedEvent<E> event, UUID transactionId) {
         return new SerializedEvent(
                 event.aggregateId(),
                 event.sequenceNumber(),
-                transactionId,
+                event.transactionId() != null ? event.transactionId() : transactionId,
                 serializer.serialize(event.event()));
     }
 }
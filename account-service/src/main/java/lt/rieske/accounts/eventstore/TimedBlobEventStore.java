@@ -0,0 +1,185 @@
+package lt.rieske.accounts.eventstore;
+
+import lt.rieske.accounts.metrics.Histogram;
+import lt.rieske.accounts.metrics.MetricsRegistry;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Times the calls to the store. Streams of events are timed until they are returned - reading them is not included.
+// Every method is delegated, the defaults included, so that the store's own implementations stay in use.
+class TimedBlobEventStore implements BlobEventStore {
+
+    private static final String METRIC = "event_store_call_duration_seconds";
+    private static final String HELP = "Time spent in event store calls";
+
+    private final BlobEventStore eventStore;
+    private final Histogram append;
+    private final Histogram loadAccountView;
+    private final Histogram getEvents;
+    private final Histogram loadLatestSnapshot;
+    private final Histogram loadSnapshot;
+    private final Histogram versionAt;
+    private final Histogram getEventsAfter;
+    private final Histogram transactionExists;
+    private final Histogram findTransactions;
+    private final Histogram loadAggregate;
+
+    TimedBlobEventStore(BlobEventStore eventStore, MetricsRegistry metrics) {
+        this.eventStore = eventStore;
+        this.append = metrics.latencyHistogram(METRIC, HELP, "method", "append");
+        this.loadAccountView = metrics.latencyHistogram(METRIC, HELP, "method", "loadAccountView");
+        this.getEvents = metrics.latencyHistogram(METRIC, HELP, "method", "getEvents");
+        this.loadLatestSnapshot = metrics.latencyHistogram(METRIC, HELP, "method", "loadLatestSnapshot");
+        this.loadSnapshot = metrics.latencyHistogram(METRIC, HELP, "method", "loadSnapshot");
+        this.versionAt = metrics.latencyHistogram(METRIC, HELP, "method", "versionAt");
+        this.getEventsAfter = metrics.latencyHistogram(METRIC, HELP, "method", "getEventsAfter");
+        this.transactionExists = metrics.latencyHistogram(METRIC, HELP, "method", "transactionExists");
+        this.findTransactions = metrics.latencyHistogram(METRIC, HELP, "method", "findTransactions");
+        this.loadAggregate = metrics.latencyHistogram(METRIC, HELP, "method", "loadAggregate");
+    }
+
+    @Override
+    public void append(Collection<SerializedEvent> serializedEvents, Collection<SerializedEvent> serializedSnapshots, UUID transactionId) {
+        long start = System.nanoTime();
+        try {
+            eventStore.append(serializedEvents, serializedSnapshots, transactionId);
+        } finally {
+            append.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void append(
+            Collection<SerializedEvent> serializedEvents,
+            Collection<SerializedEvent> serializedSnapshots,
+            Collection<AccountView> accountViews,
+            UUID transactionId) {
+        long start = System.nanoTime();
+        try {
+            eventStore.append(serializedEvents, serializedSnapshots, accountViews, transactionId);
+        } finally {
+            append.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public AccountView loadAccountView(UUID accountId) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.loadAccountView(accountId);
+        } finally {
+            loadAccountView.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.getEvents(aggregateId, fromVersion);
+        } finally {
+            getEvents.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.getEvents(aggregateId, fromVersion, toVersion);
+        } finally {
+            getEvents.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public SerializedEvent loadLatestSnapshot(UUID aggregateId) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.loadLatestSnapshot(aggregateId);
+        } finally {
+            loadLatestSnapshot.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public SerializedEvent loadSnapshot(UUID aggregateId, long atVersion) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.loadSnapshot(aggregateId, atVersion);
+        } finally {
+            loadSnapshot.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public boolean recordsEventTimes() {
+        return eventStore.recordsEventTimes();
+    }
+
+    @Override
+    public long versionAt(UUID aggregateId, Instant time) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.versionAt(aggregateId, time);
+        } finally {
+            versionAt.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<PositionedEvent> getEventsAfter(long position, int maxEvents) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.getEventsAfter(position, maxEvents);
+        } finally {
+            getEventsAfter.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public EventSubscription subscribe(long fromPosition, int batchSize, Consumer<List<PositionedEvent>> consumer) {
+        return eventStore.subscribe(fromPosition, batchSize, consumer);
+    }
+
+    @Override
+    public boolean addAppendListener(Consumer<EventsAppended> listener) {
+        return eventStore.addAppendListener(listener);
+    }
+
+    @Override
+    public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.transactionExists(aggregateId, transactionId);
+        } finally {
+            transactionExists.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.findTransactions(aggregateId, transactionIds);
+        } finally {
+            findTransactions.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public SerializedAggregateHistory loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+        long start = System.nanoTime();
+        try {
+            return eventStore.loadAggregate(aggregateId, fromVersion, transactionId);
+        } finally {
+            loadAggregate.record(System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package lt.rieske.accounts.eventstore;
+
+import lt.rieske.accounts.eventsourcing.Event;
+import lt.rieske.accounts.eventsourcing.SequencedEvent;
+
+interface ViewMapper<E extends Event> {
+    AccountView toView(SequencedEvent<E> view);
+    SequencedEvent<E> fromView(AccountView view);
+}
@@ -0,0 +1,24 @@
+package lt.rieske.accounts.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Counter implements MetricsRegistry.Metric {
+
+    private final LongAdder value = new LongAdder();
+
+    Counter() {
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public long value() {
+        return value.sum();
+    }
+
+    @Override
+    public void write(String name, String labels, StringBuilder out) {
+        out.append(name).append(labels).append(' ').append(value.sum()).append('\n');
+    }
+}
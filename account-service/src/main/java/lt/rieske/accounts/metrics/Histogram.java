@@ -0,0 +1,85 @@
+package lt.rieske.accounts.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of HDR style log-linear buckets - every power of two is split in two halves, giving
+ * bounds of 2^n and 1.5 * 2^n. Bucket counts and the sum are only ever incremented, recording does not allocate.
+ * <p>
+ * Values at most 2^minExponent are counted in the first bucket, values above 2^maxExponent overflow to the last one.
+ */
+public final class Histogram implements MetricsRegistry.Metric {
+
+    private final int minExponent;
+    private final int maxExponent;
+    // recorded units per exported unit, i.e. nanoseconds per second
+    private final double scale;
+    private final AtomicLongArray buckets;
+    private final LongAdder sum = new LongAdder();
+
+    Histogram(int minExponent, int maxExponent, double scale) {
+        if (minExponent < 1 || maxExponent <= minExponent || maxExponent > 62) {
+            throw new IllegalArgumentException(String.format("Invalid histogram exponents: %d-%d", minExponent, maxExponent));
+        }
+        this.minExponent = minExponent;
+        this.maxExponent = maxExponent;
+        this.scale = scale;
+        this.buckets = new AtomicLongArray(2 + (maxExponent - minExponent) * 2);
+    }
+
+    public void record(long value) {
+        buckets.incrementAndGet(bucket(value));
+        sum.add(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    // buckets include their upper bound - the value one less than it falls in the half-open [2^n, 1.5 * 2^n) or
+    // [1.5 * 2^n, 2^(n+1)) range
+    int bucket(long value) {
+        long v = value - 1;
+        if (v < 1L << minExponent) {
+            return 0;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(v);
+        if (exponent >= maxExponent) {
+            return buckets.length() - 1;
+        }
+        int half = (int) (v >>> (exponent - 1)) & 1;
+        return 1 + (exponent - minExponent) * 2 + half;
+    }
+
+    long upperBound(int bucket) {
+        if (bucket == 0) {
+            return 1L << minExponent;
+        }
+        int exponent = minExponent + (bucket - 1) / 2;
+        return (bucket - 1) % 2 == 0 ? 3L << (exponent - 1) : 1L << (exponent + 1);
+    }
+
+    @Override
+    public void write(String name, String labels, StringBuilder out) {
+        var bucketLabels = labels.isEmpty() ? "{le=\"" : labels.substring(0, labels.length() - 1) + ",le=\"";
+        long cumulativeCount = 0;
+        for (int i = 0; i < buckets.length() - 1; i++) {
+            cumulativeCount += buckets.get(i);
+            out.append(name).append("_bucket").append(bucketLabels).append(upperBound(i) / scale).append("\"} ")
+                    .append(cumulativeCount).append('\n');
+        }
+        cumulativeCount += buckets.get(buckets.length() - 1);
+        out.append(name).append("_bucket").append(bucketLabels).append("+Inf\"} ").append(cumulativeCount).append('\n');
+        out.append(name).append("_sum").append(labels).append(' ').append(sum.sum() / scale).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(cumulativeCount).append('\n');
+    }
+}
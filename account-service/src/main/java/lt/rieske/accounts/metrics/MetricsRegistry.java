@@ -0,0 +1,107 @@
+package lt.rieske.accounts.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In-process metrics, exposed in the Prometheus text format.
+ * <p>
+ * Metrics are registered up front and handed to the code that records them - recording is lock-free and does not
+ * allocate. Only registration and scraping synchronize on the registry. Metrics of the same name are exported as
+ * one family, told apart by their labels - given as name, value pairs. Registering a counter or a histogram again
+ * returns the registered one.
+ */
+public final class MetricsRegistry {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    // latencies in nanoseconds, exported in seconds - from about a microsecond up to about 17 seconds
+    private static final int LATENCY_MIN_EXPONENT = 10;
+    private static final int LATENCY_MAX_EXPONENT = 34;
+    private static final double NANOSECONDS_PER_SECOND = 1e9;
+
+    // counts of things from 2 up to about a million
+    private static final int COUNT_MIN_EXPONENT = 1;
+    private static final int COUNT_MAX_EXPONENT = 20;
+
+    interface Metric {
+        void write(String name, String labels, StringBuilder out);
+    }
+
+    private record Family(String type, String help, Map<String, Metric> metrics) {
+    }
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) register(name, help, "counter", labels, Counter::new);
+    }
+
+    // a counter maintained elsewhere - read when scraped
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "counter", labels, () -> (n, l, out) -> out.append(n).append(l).append(' ').append(value.getAsLong()).append('\n'));
+    }
+
+    public void gauge(String name, String help, LongSupplier value, String... labels) {
+        register(name, help, "gauge", labels, () -> (n, l, out) -> out.append(n).append(l).append(' ').append(value.getAsLong()).append('\n'));
+    }
+
+    // records nanoseconds
+    public Histogram latencyHistogram(String name, String help, String... labels) {
+        return (Histogram) register(name, help, "histogram", labels,
+                () -> new Histogram(LATENCY_MIN_EXPONENT, LATENCY_MAX_EXPONENT, NANOSECONDS_PER_SECOND));
+    }
+
+    public Histogram countHistogram(String name, String help, String... labels) {
+        return (Histogram) register(name, help, "histogram", labels,
+                () -> new Histogram(COUNT_MIN_EXPONENT, COUNT_MAX_EXPONENT, 1));
+    }
+
+    public synchronized String scrape() {
+        var out = new StringBuilder(16 * 1024);
+        families.forEach((name, family) -> {
+            out.append("# HELP ").append(name).append(' ').append(family.help()).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type()).append('\n');
+            family.metrics().forEach((labels, metric) -> metric.write(name, labels, out));
+        });
+        return out.toString();
+    }
+
+    private synchronized Metric register(String name, String help, String type, String[] labels, Supplier<Metric> metric) {
+        var family = families.computeIfAbsent(name, n -> new Family(type, help, new LinkedHashMap<>()));
+        if (!family.type().equals(type)) {
+            throw new IllegalArgumentException(String.format("Metric %s is a %s, not a %s", name, family.type(), type));
+        }
+        var formattedLabels = formatLabels(labels);
+        var registered = family.metrics().get(formattedLabels);
+        if (registered == null) {
+            registered = metric.get();
+            family.metrics().put(formattedLabels, registered);
+        } else if (!(registered instanceof Counter) && !(registered instanceof Histogram)) {
+            throw new IllegalArgumentException(String.format("Metric %s%s is already registered", name, formattedLabels));
+        }
+        return registered;
+    }
+
+    private static String formatLabels(String[] labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name, value pairs");
+        }
+        if (labels.length == 0) {
+            return "";
+        }
+        List<String> pairs = new ArrayList<>(labels.length / 2);
+        for (int i = 0; i < labels.length; i += 2) {
+            pairs.add(labels[i] + "=\"" + escape(labels[i + 1]) + "\"");
+        }
+        return "{" + String.join(",", pairs) + "}";
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -8,6 +8,7 @@ import com.tngtech.archunit.lang.ArchRule;
 import com.tngtech.archunit.library.Architectures;
 import lt.rieske.accounts.api.ApiConfiguration;
 import lt.rieske.accounts.api.Server;
+import lt.rieske.accounts.api.ServiceSettings;
 import lt.rieske.accounts.eventstore.BlobEventStore;
 import lt.rieske.accounts.eventstore.Configuration;
 
@@ -24,11 +25,12 @@ class ArchitectureTest {
             .domainModels("lt.rieske.accounts.domain", "lt.rieske.accounts.eventsourcing")
             .adapter("eventstore", "lt.rieske.accounts.eventstore")
             .adapter("api", "lt.rieske.accounts.api")
-            .applicationServices("lt.rieske.accounts", "lt.rieske.accounts.infrastructure")
+            .applicationServices("lt.rieske.accounts", "lt.rieske.accounts.infrastructure", "lt.rieske.accounts.metrics")
             .ignoreDependency(App.class, Configuration.class)
             .ignoreDependency(App.class, BlobEventStore.class)
             .ignoreDependency(App.class, ApiConfiguration.class)
             .ignoreDependency(App.class, Server.class)
+            .ignoreDependency(App.class, ServiceSettings.class)
             .ignoreDependency(ApiConfiguration.class, Configuration.class)
             .ignoreDependency(ApiConfiguration.class, BlobEventStore.class)
             .withOptionalLayers(true);
@@ -0,0 +1,109 @@
+package lt.rieske.accounts.api;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AccessLogTest {
+
+    private final List<String> written = new CopyOnWriteArrayList<>();
+
+    @Test
+    void shouldWriteRecordedEntriesInOrder() {
+        try (var accessLog = new AccessLog(16, 1, this::write)) {
+            accessLog.record("GET /a", 200, 1000);
+            accessLog.record("PUT /b", 204, 2000);
+            accessLog.record("POST /c", 409, 3000);
+        }
+
+        assertThat(written).containsExactly("GET /a 200 1000", "PUT /b 204 2000", "POST /c 409 3000");
+    }
+
+    @Test
+    void shouldWriteEntriesWhileRecording() throws InterruptedException {
+        var entryWritten = new CountDownLatch(1);
+        try (var accessLog = new AccessLog(16, 1, (route, status, durationNanos) -> entryWritten.countDown())) {
+            accessLog.record("GET /a", 200, 1000);
+
+            assertThat(entryWritten.await(5, TimeUnit.SECONDS)).isTrue();
+        }
+    }
+
+    @Test
+    void shouldWrapAroundTheBuffer() {
+        try (var accessLog = new AccessLog(4, 1, this::write)) {
+            for (int i = 0; i < 99; i += 3) {
+                accessLog.record("GET /" + i, 200, i);
+                accessLog.record("GET /" + (i + 1), 200, i + 1);
+                accessLog.record("GET /" + (i + 2), 200, i + 2);
+                while (written.size() < i + 3) {
+                    Thread.onSpinWait();
+                }
+            }
+            assertThat(accessLog.droppedEntries()).isZero();
+        }
+
+        assertThat(written).hasSize(99).startsWith("GET /0 200 0").endsWith("GET /98 200 98");
+    }
+
+    @Test
+    void shouldSampleRequestsButAlwaysRecordServerErrors() {
+        try (var accessLog = new AccessLog(1024, Integer.MAX_VALUE, this::write)) {
+            for (int i = 0; i < 100; i++) {
+                accessLog.record("GET /a", 200, 1000);
+            }
+            accessLog.record("GET /b", 500, 1000);
+        }
+
+        assertThat(written).containsExactly("GET /b 500 1000");
+    }
+
+    @Test
+    void shouldNotRecordWhenDisabled() {
+        try (var accessLog = new AccessLog(16, 0, this::write)) {
+            accessLog.record("GET /a", 500, 1000);
+        }
+
+        assertThat(written).isEmpty();
+    }
+
+    @Test
+    void shouldDropEntriesThatDoNotFitTheBufferInsteadOfBlocking() throws InterruptedException {
+        var writing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        try (var accessLog = new AccessLog(4, 1, (route, status, durationNanos) -> {
+            writing.countDown();
+            awaitUninterruptibly(release);
+            write(route, status, durationNanos);
+        })) {
+            accessLog.record("GET /0", 200, 0);
+            assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+
+            // the entry being written still holds its slot
+            for (int i = 1; i < 10; i++) {
+                accessLog.record("GET /" + i, 200, i);
+            }
+            assertThat(accessLog.droppedEntries()).isEqualTo(6);
+            release.countDown();
+        }
+
+        assertThat(written).containsExactly("GET /0 200 0", "GET /1 200 1", "GET /2 200 2", "GET /3 200 3");
+    }
+
+    private void write(String route, int status, long durationNanos) {
+        written.add(route + " " + status + " " + durationNanos);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
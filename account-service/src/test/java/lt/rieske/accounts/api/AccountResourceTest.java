@@ -1,18 +1,30 @@
 package lt.rieske.accounts.api;
 
 import io.restassured.path.json.JsonPath;
+import lt.rieske.accounts.eventstore.Configuration;
 import lt.rieske.accounts.eventstore.H2EventStoreExtension;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
-
+import org.junit.jupiter.api.io.TempDir;
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
 import java.util.UUID;
 
 import static io.restassured.RestAssured.given;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
 
 class AccountResourceTest {
 
@@ -113,6 +125,115 @@ class AccountResourceTest {
                 .body("open", equalTo(true));
     }
 
+    @Test
+    void shouldQueryAnAccountAtLeastAtGivenVersion() {
+
+        var accountId = UUID.randomUUID();
+        var ownerId = UUID.randomUUID();
+        var accountResource = createAccount(accountId, ownerId);
+        deposit(accountId, 42);
+
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?minVersion=2")
+                .then()
+                .statusCode(200)
+                .body("balance", equalTo(42));
+    }
+
+    @Test
+    void shouldNotAcceptNonNumericMinVersion() {
+
+        var accountId = UUID.randomUUID();
+        var accountResource = createAccount(accountId, UUID.randomUUID());
+
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?minVersion=banana")
+                .then()
+                .statusCode(400)
+                .body("message", equalTo("For input string: 'banana'"));
+    }
+
+    @Test
+    void shouldQueryAnAccountAtGivenVersion() {
+
+        var accountId = UUID.randomUUID();
+        var accountResource = createAccount(accountId, UUID.randomUUID());
+        deposit(accountId, 42);
+        deposit(accountId, 8);
+
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?atVersion=2")
+                .then()
+                .statusCode(200)
+                .body("accountId", equalTo(accountId.toString()))
+                .body("balance", equalTo(42));
+    }
+
+    @Test
+    void shouldQueryAnAccountAtGivenTime() {
+
+        var accountId = UUID.randomUUID();
+        var accountResource = createAccount(accountId, UUID.randomUUID());
+        deposit(accountId, 42);
+
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?atTime=" + Instant.now().plus(1, ChronoUnit.HOURS))
+                .then()
+                .statusCode(200)
+                .body("balance", equalTo(42));
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?atTime=2000-01-01T00:00:00Z")
+                .then()
+                .statusCode(404);
+    }
+
+    @Test
+    void shouldRespondNotImplementedToQueryAtTimeWhenEventStoreDoesNotRecordEventTimes(@TempDir Path directory) {
+        var server = ApiConfiguration.server(
+                () -> Configuration.segmentedLogEventStore(directory.toString(), "PER_COMMIT", "PT0.1S"));
+        int port = server.start(0);
+        try {
+            var accountId = UUID.randomUUID();
+            given().baseUri(String.format("http://localhost:%d/api", port))
+                    .when().post("/account/" + accountId + "?owner=" + UUID.randomUUID())
+                    .then()
+                    .statusCode(201);
+
+            given().baseUri(String.format("http://localhost:%d/api", port))
+                    .when().get("/account/" + accountId + "?atTime=2000-01-01T00:00:00Z")
+                    .then()
+                    .statusCode(501)
+                    .body("message", equalTo("Account state at a given time is not supported by the event store"));
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    void shouldNotAcceptBothVersionAndTimeToQueryAnAccountAt() {
+
+        var accountId = UUID.randomUUID();
+        var accountResource = createAccount(accountId, UUID.randomUUID());
+
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?atVersion=1&atTime=2000-01-01T00:00:00Z")
+                .then()
+                .statusCode(400)
+                .body("message", equalTo("Only one of 'atVersion' and 'atTime' can be given"));
+    }
+
+    @Test
+    void shouldNotAcceptInvalidTimeToQueryAnAccountAt() {
+
+        var accountId = UUID.randomUUID();
+        var accountResource = createAccount(accountId, UUID.randomUUID());
+
+        given().baseUri(baseUri())
+                .when().get(accountResource + "?atTime=yesterday")
+                .then()
+                .statusCode(400);
+    }
+
     @Test
     void should404WhenQueryingNonExistentAccount() {
 
@@ -484,6 +605,370 @@ class AccountResourceTest {
                 .body(equalTo("[]"));
     }
 
+    @Test
+    void shouldQueryPageOfAccountEvents() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+        deposit(accountId, 5);
+        deposit(accountId, 12);
+        deposit(accountId, 1);
+
+        given().baseUri(baseUri())
+                .when().get("/account/" + accountId + "/events?limit=2")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", equalTo("application/json"))
+                .header("Link", equalTo("</account/" + accountId + "/events?fromSequence=3&limit=2>; rel=\"next\""))
+                .body("size()", equalTo(2))
+                .body("[0].sequenceNumber", equalTo(1))
+                .body("[1].sequenceNumber", equalTo(2));
+
+        given().baseUri(baseUri())
+                .when().get("/account/" + accountId + "/events?fromSequence=3&limit=3")
+                .then()
+                .statusCode(200)
+                .header("Link", nullValue())
+                .body("size()", equalTo(2))
+                .body("[0].sequenceNumber", equalTo(3))
+                .body("[0].amountDeposited", equalTo(12))
+                .body("[1].sequenceNumber", equalTo(4))
+                .body("[1].balance", equalTo(18));
+    }
+
+    @Test
+    void shouldQueryAccountEventsSpanningSeveralPagesOfEventStore() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+        var deposits = new Object[1500][];
+        Arrays.setAll(deposits, i -> new Object[]{"deposit", accountId, 1, UUID.randomUUID()});
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePackBatch(deposits))
+                .when().post("/batch")
+                .then()
+                .statusCode(200);
+
+        given().baseUri(baseUri())
+                .when().get("/account/" + accountId + "/events?fromSequence=2")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(1500))
+                .body("[0].sequenceNumber", equalTo(2))
+                .body("[999].sequenceNumber", equalTo(1001))
+                .body("[1000].sequenceNumber", equalTo(1002))
+                .body("[1499].balance", equalTo(1500));
+    }
+
+    @Test
+    void shouldQueryPageOfAccountEventsFromLastPossibleSequence() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+
+        given().baseUri(baseUri())
+                .when().get("/account/" + accountId + "/events?fromSequence=" + Long.MAX_VALUE + "&limit=10")
+                .then()
+                .statusCode(200)
+                .header("Link", nullValue())
+                .body(equalTo("[]"));
+    }
+
+    @Test
+    void shouldQueryAccountEventsFromGivenSequence() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+        deposit(accountId, 5);
+        deposit(accountId, 12);
+
+        given().baseUri(baseUri())
+                .when().get("/account/" + accountId + "/events?fromSequence=2")
+                .then()
+                .statusCode(200)
+                .body("size()", equalTo(2))
+                .body("[0].sequenceNumber", equalTo(2))
+                .body("[1].sequenceNumber", equalTo(3));
+    }
+
+    @Test
+    void shouldExposeMetrics() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+        deposit(accountId, 1);
+
+        given().baseUri(String.format("http://localhost:%d", serverPort))
+                .when().get("/metrics")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", equalTo("text/plain; version=0.0.4; charset=utf-8"))
+                .body(containsString("http_server_request_duration_seconds_count{route=\"PUT /api/account/{accountId}/deposit\"}"))
+                .body(containsString("event_store_call_duration_seconds_count{method=\"loadAggregate\"}"))
+                .body(containsString("event_store_call_duration_seconds_count{method=\"append\"}"))
+                .body(containsString("aggregate_replayed_events_count"))
+                .body(containsString("account_command_conflicts_total"));
+    }
+
+    @Test
+    void shouldStreamLongEventHistoryInChunks() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+        for (int i = 0; i < 200; i++) {
+            deposit(accountId, 1);
+        }
+
+        given().baseUri(baseUri())
+                .when().get("/account/" + accountId + "/events")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", equalTo("application/json"))
+                .header("Transfer-Encoding", equalTo("chunked"))
+                .body("size()", equalTo(201))
+                .body("[200].sequenceNumber", equalTo(201))
+                .body("[200].balance", equalTo(200));
+    }
+
+    @Test
+    void shouldRespondWithBadRequestOnInvalidEventPageSize() {
+        given().baseUri(baseUri())
+                .when().get("/account/" + UUID.randomUUID() + "/events?limit=0")
+                .then()
+                .statusCode(400)
+                .body("message", equalTo("'limit' must be between 1 and 1000"));
+    }
+
+    @Test
+    void shouldRespondWithBadRequestOnInvalidFromSequence() {
+        given().baseUri(baseUri())
+                .when().get("/account/" + UUID.randomUUID() + "/events?fromSequence=0")
+                .then()
+                .statusCode(400)
+                .body("message", equalTo("'fromSequence' must be positive"));
+    }
+
+    @Test
+    void shouldOperateAccountWithMessagePackBodies() throws IOException {
+        var accountId = UUID.randomUUID();
+        var ownerId = UUID.randomUUID();
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePack(ownerId.getMostSignificantBits(), ownerId.getLeastSignificantBits()))
+                .when().post("/account/" + accountId)
+                .then()
+                .statusCode(201)
+                .header("Location", equalTo("/account/" + accountId));
+
+        var depositTransactionId = UUID.randomUUID();
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePack(10, depositTransactionId.getMostSignificantBits(), depositTransactionId.getLeastSignificantBits()))
+                .when().put("/account/" + accountId + "/deposit")
+                .then()
+                .statusCode(204);
+        var withdrawalTransactionId = UUID.randomUUID();
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePack(3, withdrawalTransactionId.getMostSignificantBits(), withdrawalTransactionId.getLeastSignificantBits()))
+                .when().put("/account/" + accountId + "/withdraw")
+                .then()
+                .statusCode(204);
+
+        var body = given().baseUri(baseUri())
+                .accept(MessagePackCodec.APPLICATION_MSGPACK)
+                .when().get("/account/" + accountId)
+                .then()
+                .statusCode(200)
+                .header("Content-Type", equalTo(MessagePackCodec.APPLICATION_MSGPACK))
+                .extract().asByteArray();
+
+        try (var unpacker = MessagePack.newDefaultUnpacker(body)) {
+            assertThat(unpacker.unpackArrayHeader()).isEqualTo(6);
+            assertThat(new UUID(unpacker.unpackLong(), unpacker.unpackLong())).isEqualTo(accountId);
+            assertThat(new UUID(unpacker.unpackLong(), unpacker.unpackLong())).isEqualTo(ownerId);
+            assertThat(unpacker.unpackLong()).isEqualTo(7);
+            assertThat(unpacker.unpackBoolean()).isTrue();
+        }
+    }
+
+    @Test
+    void shouldTransferMoneyWithMessagePackBody() {
+        var ownerId = UUID.randomUUID();
+        var sourceAccountId = UUID.randomUUID();
+        createAccount(sourceAccountId, ownerId);
+        deposit(sourceAccountId, 6);
+        var targetAccountId = UUID.randomUUID();
+        createAccount(targetAccountId, ownerId);
+
+        var transactionId = UUID.randomUUID();
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePack(targetAccountId.getMostSignificantBits(), targetAccountId.getLeastSignificantBits(), 2,
+                        transactionId.getMostSignificantBits(), transactionId.getLeastSignificantBits()))
+                .when().put("/account/" + sourceAccountId + "/transfer")
+                .then()
+                .statusCode(204);
+
+        assertThat(queryAccount(sourceAccountId).getInt("balance")).isEqualTo(4);
+        assertThat(queryAccount(targetAccountId).getInt("balance")).isEqualTo(2);
+    }
+
+    @Test
+    void shouldQueryAccountEventsAsMessagePack() throws IOException {
+        var accountId = UUID.randomUUID();
+        var ownerId = UUID.randomUUID();
+        createAccount(accountId, ownerId);
+        deposit(accountId, 5);
+
+        for (var query : new String[]{"/events", "/events?limit=10"}) {
+            var body = given().baseUri(baseUri())
+                    .accept(MessagePackCodec.APPLICATION_MSGPACK)
+                    .when().get("/account/" + accountId + query)
+                    .then()
+                    .statusCode(200)
+                    .header("Content-Type", equalTo(MessagePackCodec.APPLICATION_MSGPACK))
+                    .extract().asByteArray();
+
+            try (var unpacker = MessagePack.newDefaultUnpacker(body)) {
+                assertThat(unpacker.unpackArrayHeader()).isEqualTo(6);
+                assertThat(unpacker.unpackLong()).isEqualTo(1);
+                unpacker.unpackLong();
+                unpacker.unpackLong();
+                assertThat(unpacker.unpackInt()).isEqualTo(1);
+                assertThat(new UUID(unpacker.unpackLong(), unpacker.unpackLong())).isEqualTo(ownerId);
+
+                assertThat(unpacker.unpackArrayHeader()).isEqualTo(6);
+                assertThat(unpacker.unpackLong()).isEqualTo(2);
+                unpacker.unpackLong();
+                unpacker.unpackLong();
+                assertThat(unpacker.unpackInt()).isEqualTo(2);
+                assertThat(unpacker.unpackLong()).isEqualTo(5);
+                assertThat(unpacker.unpackLong()).isEqualTo(5);
+                assertThat(unpacker.hasNext()).isFalse();
+            }
+        }
+    }
+
+    @Test
+    void shouldRespondWithBadRequestOnMalformedMessagePackBody() throws IOException {
+        var body = given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .accept(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePack(10))
+                .when().put("/account/" + UUID.randomUUID() + "/deposit")
+                .then()
+                .statusCode(400)
+                .extract().asByteArray();
+
+        try (var unpacker = MessagePack.newDefaultUnpacker(body)) {
+            assertThat(unpacker.unpackArrayHeader()).isEqualTo(1);
+            assertThat(unpacker.unpackString()).isEqualTo("Body must be an array of 3 elements, got 1");
+        }
+    }
+
+    @Test
+    void shouldExecuteBatchOfCommandsWithResultPerCommand() {
+        var ownerId = UUID.randomUUID();
+        var accountId1 = UUID.randomUUID();
+        createAccount(accountId1, ownerId);
+        var accountId2 = UUID.randomUUID();
+        createAccount(accountId2, ownerId);
+        var nonExistentAccountId = UUID.randomUUID();
+
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePackBatch(
+                        new Object[]{"deposit", accountId1, 10, UUID.randomUUID()},
+                        new Object[]{"deposit", accountId2, 5, UUID.randomUUID()},
+                        new Object[]{"withdraw", accountId1, 3, UUID.randomUUID()},
+                        new Object[]{"withdraw", accountId2, 6, UUID.randomUUID()},
+                        new Object[]{"transfer", accountId1, accountId2, 4, UUID.randomUUID()},
+                        new Object[]{"withdraw", accountId1, 3, UUID.randomUUID()},
+                        new Object[]{"deposit", nonExistentAccountId, 1, UUID.randomUUID()}))
+                .when().post("/batch")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", equalTo("application/json"))
+                .body("status", contains(204, 204, 204, 400, 204, 204, 404))
+                .body("[3].message", equalTo("Insufficient balance"))
+                .body("[6].message", equalTo("Aggregate not found, aggregateId: " + nonExistentAccountId));
+
+        assertThat(queryAccount(accountId1).getInt("balance")).isEqualTo(0);
+        assertThat(queryAccount(accountId2).getInt("balance")).isEqualTo(9);
+    }
+
+    @Test
+    void shouldNotRepeatBatchedCommandsOnRetry() {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+        var body = messagePackBatch(
+                new Object[]{"deposit", accountId, 10, UUID.randomUUID()},
+                new Object[]{"deposit", accountId, 20, UUID.randomUUID()});
+
+        for (int i = 0; i < 2; i++) {
+            given().baseUri(baseUri())
+                    .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                    .body(body)
+                    .when().post("/batch")
+                    .then()
+                    .statusCode(200)
+                    .body("status", contains(204, 204));
+        }
+
+        assertThat(queryAccount(accountId).getInt("balance")).isEqualTo(30);
+    }
+
+    @Test
+    void shouldRespondWithBatchResultsAsMessagePack() throws IOException {
+        var accountId = UUID.randomUUID();
+        createAccount(accountId, UUID.randomUUID());
+
+        var body = given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .accept(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePackBatch(
+                        new Object[]{"deposit", accountId, 10, UUID.randomUUID()},
+                        new Object[]{"withdraw", accountId, 11, UUID.randomUUID()}))
+                .when().post("/batch")
+                .then()
+                .statusCode(200)
+                .header("Content-Type", equalTo(MessagePackCodec.APPLICATION_MSGPACK))
+                .extract().asByteArray();
+
+        try (var unpacker = MessagePack.newDefaultUnpacker(body)) {
+            assertThat(unpacker.unpackArrayHeader()).isEqualTo(2);
+            assertThat(unpacker.unpackArrayHeader()).isEqualTo(1);
+            assertThat(unpacker.unpackInt()).isEqualTo(204);
+            assertThat(unpacker.unpackArrayHeader()).isEqualTo(2);
+            assertThat(unpacker.unpackInt()).isEqualTo(400);
+            assertThat(unpacker.unpackString()).isEqualTo("Insufficient balance");
+        }
+    }
+
+    @Test
+    void shouldRejectMalformedBatch() {
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePackBatch(new Object[]{"close", UUID.randomUUID(), 1, UUID.randomUUID()}))
+                .when().post("/batch")
+                .then()
+                .statusCode(400)
+                .body("message", equalTo("Unknown command type: close"));
+        given().baseUri(baseUri())
+                .contentType(MessagePackCodec.APPLICATION_MSGPACK)
+                .body(messagePackBatch())
+                .when().post("/batch")
+                .then()
+                .statusCode(400)
+                .body("message", equalTo("Batch must have between 1 and 10000 commands"));
+    }
+
+    @Test
+    void shouldRequireMessagePackBatch() {
+        given().baseUri(baseUri())
+                .contentType("application/json")
+                .body("[]")
+                .when().post("/batch")
+                .then()
+                .statusCode(415);
+    }
+
     private void deposit(UUID accountId, int amount) {
         given().baseUri(baseUri())
                 .when().put("/account/" + accountId + "/deposit?amount=" + amount + "&transactionId=" + UUID.randomUUID())
@@ -497,6 +982,39 @@ class AccountResourceTest {
                 .getBody().jsonPath();
     }
 
+    private static byte[] messagePack(long... fields) {
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(fields.length);
+            for (long field : fields) {
+                packer.packLong(field);
+            }
+            return packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // command fields are packed as strings, UUIDs as two longs and numbers as longs
+    private static byte[] messagePackBatch(Object[]... commands) {
+        try (var packer = MessagePack.newDefaultBufferPacker()) {
+            packer.packArrayHeader(commands.length);
+            for (var command : commands) {
+                packer.packArrayHeader(Arrays.stream(command).mapToInt(field -> field instanceof UUID ? 2 : 1).sum());
+                for (var field : command) {
+                    switch (field) {
+                        case String s -> packer.packString(s);
+                        case UUID uuid -> packer.packLong(uuid.getMostSignificantBits()).packLong(uuid.getLeastSignificantBits());
+                        case Number n -> packer.packLong(n.longValue());
+                        default -> throw new IllegalArgumentException("Unexpected field: " + field);
+                    }
+                }
+            }
+            return packer.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private String createAccount(UUID accountId, UUID ownerId) {
         return given().baseUri(baseUri())
                 .when().post("/account/" + accountId + "?owner=" + ownerId)
@@ -0,0 +1,222 @@
+package lt.rieske.accounts.api;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CommandLanesTest {
+
+    private final CommandLanes commandLanes = new CommandLanes(4);
+
+    @AfterEach
+    void closeLanes() {
+        commandLanes.close();
+    }
+
+    @Test
+    void shouldReturnCommandResult() {
+        assertThat(commandLanes.execute(UUID.randomUUID(), () -> 42)).isEqualTo(42);
+    }
+
+    @Test
+    void shouldPropagateCommandFailureToCaller() {
+        var failure = new ConcurrentModificationException("conflict");
+
+        assertThatThrownBy(() -> commandLanes.execute(UUID.randomUUID(), () -> {
+            throw failure;
+        })).isSameAs(failure);
+    }
+
+    @Test
+    void shouldExecuteCommandsOnCallingThreadWhenThereAreNoLanes() {
+        var callingThread = Thread.currentThread();
+        try (var directLanes = new CommandLanes(0)) {
+            assertThat(directLanes.execute(UUID.randomUUID(), Thread::currentThread)).isSameAs(callingThread);
+        }
+    }
+
+    @Test
+    void shouldNotExecuteCommandsForTheSameAggregateConcurrently() throws Exception {
+        var aggregateId = UUID.randomUUID();
+        var executing = new AtomicInteger();
+        var maxConcurrency = new AtomicInteger();
+        var counter = new int[1];
+
+        var futures = new ArrayList<Future<?>>();
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(() -> commandLanes.execute(aggregateId, () -> {
+                    maxConcurrency.accumulateAndGet(executing.incrementAndGet(), Math::max);
+                    counter[0]++;
+                    Thread.yield();
+                    executing.decrementAndGet();
+                })));
+            }
+            for (var future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        assertThat(maxConcurrency).hasValue(1);
+        assertThat(counter[0]).isEqualTo(200);
+    }
+
+    @Test
+    void shouldExecuteCommandsForDifferentLanesConcurrently() throws Exception {
+        var blockedLaneId = UUID.randomUUID();
+        var otherLaneId = aggregateIdInAnotherLane(blockedLaneId);
+        var release = new CountDownLatch(1);
+
+        try (var executor = Executors.newSingleThreadExecutor()) {
+            var blocked = executor.submit(() -> commandLanes.execute(blockedLaneId, () -> {
+                await(release);
+            }));
+
+            assertThat(commandLanes.execute(otherLaneId, () -> "done")).isEqualTo("done");
+
+            release.countDown();
+            blocked.get(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    void shouldBatchCommandsQueuedForTheSameAggregate() throws Exception {
+        try (var batchingLanes = new CommandLanes(1, 10, Duration.ZERO);
+             var executor = Executors.newFixedThreadPool(4)) {
+            var aggregateId = UUID.randomUUID();
+            var started = new CountDownLatch(1);
+            var release = new CountDownLatch(1);
+            var blocked = executor.submit(() -> batchingLanes.execute(aggregateId, () -> {
+                started.countDown();
+                await(release);
+            }));
+            started.await();
+
+            var batches = new CopyOnWriteArrayList<List<String>>();
+            CommandLanes.BatchExecutor<String> batchExecutor = (id, commands) -> {
+                batches.add(commands);
+                return commands.stream().<RuntimeException>map(c -> c.startsWith("fail") ? new IllegalArgumentException(c) : null).toList();
+            };
+            var futures = new ArrayList<Future<?>>();
+            for (var command : List.of("first", "fail", "third")) {
+                futures.add(executor.submit(() -> batchingLanes.executeBatched(aggregateId, command, batchExecutor)));
+                awaitQueued(batchingLanes, futures.size());
+            }
+            release.countDown();
+            blocked.get(10, TimeUnit.SECONDS);
+
+            futures.get(0).get(10, TimeUnit.SECONDS);
+            assertThatThrownBy(() -> futures.get(1).get(10, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(IllegalArgumentException.class)
+                    .hasRootCauseMessage("fail");
+            futures.get(2).get(10, TimeUnit.SECONDS);
+            assertThat(batches).containsExactly(List.of("first", "fail", "third"));
+        }
+    }
+
+    @Test
+    void shouldFailAllCommandsOfBatchWhenBatchExecutionFails() {
+        try (var batchingLanes = new CommandLanes(1, 10, Duration.ofMillis(1))) {
+            var failure = new ConcurrentModificationException("conflict");
+
+            assertThatThrownBy(() -> batchingLanes.executeBatched(UUID.randomUUID(), "command", (id, commands) -> {
+                throw failure;
+            })).isSameAs(failure);
+        }
+    }
+
+    @Test
+    void shouldExecuteBatchedCommandOnCallingThreadWhenThereAreNoLanes() {
+        var callingThread = Thread.currentThread();
+        try (var directLanes = new CommandLanes(0)) {
+            var executingThreads = new ArrayList<Thread>();
+            directLanes.executeBatched(UUID.randomUUID(), "command", (id, commands) -> {
+                executingThreads.add(Thread.currentThread());
+                return Collections.singletonList(null);
+            });
+
+            assertThat(executingThreads).containsExactly(callingThread);
+            assertThatThrownBy(() -> directLanes.executeBatched(UUID.randomUUID(), "command",
+                    (id, commands) -> List.of(new IllegalArgumentException("invalid"))))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("invalid");
+        }
+    }
+
+    @Test
+    void shouldRejectCommandsOnceClosed() {
+        commandLanes.close();
+
+        assertThatThrownBy(() -> commandLanes.execute(UUID.randomUUID(), () -> 42))
+                .isInstanceOf(RejectedExecutionException.class);
+    }
+
+    @Test
+    void shouldFinishQueuedCommandsWithoutInterruptingLanesWhenClosed() throws Exception {
+        var lanes = new CommandLanes(1);
+        try (var executor = Executors.newFixedThreadPool(3)) {
+            var aggregateId = UUID.randomUUID();
+            var started = new CountDownLatch(1);
+            var release = new CountDownLatch(1);
+            var executing = executor.submit(() -> lanes.execute(aggregateId, () -> {
+                started.countDown();
+                await(release);
+                return Thread.currentThread().isInterrupted();
+            }));
+            started.await();
+            var queued = executor.submit(() -> lanes.execute(aggregateId, () -> "queued"));
+            awaitQueued(lanes, 1);
+
+            var closing = executor.submit(lanes::close);
+            release.countDown();
+            closing.get(10, TimeUnit.SECONDS);
+
+            assertThat(executing.get(10, TimeUnit.SECONDS)).isFalse();
+            assertThat(queued.get(10, TimeUnit.SECONDS)).isEqualTo("queued");
+            assertThatThrownBy(() -> lanes.execute(aggregateId, () -> 42))
+                    .isInstanceOf(RejectedExecutionException.class);
+        }
+    }
+
+    private static UUID aggregateIdInAnotherLane(UUID aggregateId) {
+        while (true) {
+            var candidate = UUID.randomUUID();
+            if (Math.floorMod(candidate.hashCode(), 4) != Math.floorMod(aggregateId.hashCode(), 4)) {
+                return candidate;
+            }
+        }
+    }
+
+    // the commands are submitted on other threads - waiting for the lane to have them queued, for a bounded time
+    private static void awaitQueued(CommandLanes lanes, int commands) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (lanes.queuedCommands() < commands) {
+            assertThat(System.nanoTime() - deadline).as("nanos left until %d commands are queued", commands).isNegative();
+            Thread.yield();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package lt.rieske.accounts.api;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lt.rieske.accounts.eventstore.H2EventStoreExtension;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import static io.restassured.RestAssured.given;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FlightRecorderEventsTest {
+
+    @RegisterExtension
+    public static final H2EventStoreExtension EVENT_STORE = new H2EventStoreExtension();
+
+    private static final Server SERVER = ApiConfiguration.server(
+            () -> EVENT_STORE.getEventStore());
+    private static int serverPort;
+
+    @TempDir
+    Path recordingDirectory;
+
+    @BeforeAll
+    static void startServer() {
+        serverPort = SERVER.start(0);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        SERVER.stop();
+    }
+
+    @Test
+    void shouldRecordTheStagesOfACommand() throws IOException {
+        var accountId = UUID.randomUUID();
+        var transactionId = UUID.randomUUID();
+
+        var events = record(() -> {
+            post("/account/" + accountId + "?owner=" + UUID.randomUUID(), 201);
+            put("/account/" + accountId + "/deposit?amount=42&transactionId=" + transactionId, 204);
+            put("/account/" + accountId + "/deposit?amount=42&transactionId=" + transactionId, 204);
+        });
+
+        var deposits = events.stream()
+                .filter(e -> e.getEventType().getName().equals("lt.rieske.accounts.CommandAttempt"))
+                .filter(e -> e.getString("aggregateId").equals(accountId.toString()))
+                .toList();
+        assertThat(deposits).hasSize(2).allSatisfy(e -> {
+            assertThat(e.getInt("attempt")).isEqualTo(1);
+            assertThat(e.getString("outcome")).isEqualTo("applied");
+        });
+
+        assertThat(events(events, "lt.rieske.accounts.AggregateLoad", accountId))
+                .extracting(e -> e.getString("outcome"))
+                .containsExactly("loaded", "transactionApplied");
+        assertThat(events(events, "lt.rieske.accounts.IdempotencyCheck", accountId))
+                .extracting(e -> e.getString("outcome"))
+                .containsExactly("notApplied", "applied");
+        assertThat(events(events, "lt.rieske.accounts.AggregateReplay", accountId)).isNotEmpty();
+        assertThat(events(events, "lt.rieske.accounts.EventFetch", accountId)).isNotEmpty();
+        assertThat(events(events, "lt.rieske.accounts.EventDeserialization", accountId)).isNotEmpty();
+
+        var commits = events(events, "lt.rieske.accounts.AggregateCommit", accountId);
+        assertThat(commits).hasSize(2).allSatisfy(e -> {
+            assertThat(e.getString("outcome")).isEqualTo("committed");
+            assertThat(e.getInt("events")).isEqualTo(1);
+        });
+        assertThat(events(events, "lt.rieske.accounts.EventSerialization", accountId))
+                .hasSize(2)
+                .allSatisfy(e -> assertThat(e.getLong("payloadBytes")).isPositive());
+    }
+
+    @Test
+    void shouldRecordTheLoadOfAMissingAggregate() throws IOException {
+        var accountId = UUID.randomUUID();
+
+        var events = record(() -> get("/account/" + accountId, 404));
+
+        assertThat(events(events, "lt.rieske.accounts.AggregateLoad", accountId))
+                .extracting(e -> e.getString("outcome"))
+                .containsExactly("notFound");
+    }
+
+    private List<RecordedEvent> record(Runnable requests) throws IOException {
+        var recordingFile = recordingDirectory.resolve("recording.jfr");
+        try (var recording = new Recording()) {
+            for (var name : List.of("AggregateLoad", "AggregateReplay", "IdempotencyCheck", "AggregateCommit",
+                    "EventFetch", "EventDeserialization", "EventSerialization", "CommandAttempt")) {
+                recording.enable("lt.rieske.accounts." + name);
+            }
+            recording.start();
+            requests.run();
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+        return RecordingFile.readAllEvents(recordingFile);
+    }
+
+    private static List<RecordedEvent> events(List<RecordedEvent> events, String name, UUID aggregateId) {
+        return events.stream()
+                .filter(e -> e.getEventType().getName().equals(name))
+                .filter(e -> aggregateId.toString().equals(e.getString("aggregateId")))
+                .toList();
+    }
+
+    private static void post(String path, int expectedStatus) {
+        given().baseUri(baseUri()).when().post(path).then().statusCode(expectedStatus);
+    }
+
+    private static void put(String path, int expectedStatus) {
+        given().baseUri(baseUri()).when().put(path).then().statusCode(expectedStatus);
+    }
+
+    private static void get(String path, int expectedStatus) {
+        given().baseUri(baseUri()).when().get(path).then().statusCode(expectedStatus);
+    }
+
+    private static String baseUri() {
+        return String.format("http://localhost:%d/api", serverPort);
+    }
+}
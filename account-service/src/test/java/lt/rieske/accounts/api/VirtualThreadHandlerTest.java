@@ -0,0 +1,107 @@
+package lt.rieske.accounts.api;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import lt.rieske.accounts.metrics.Counter;
+import lt.rieske.accounts.metrics.MetricsRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VirtualThreadHandlerTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final Counter rejectedRequests = new MetricsRegistry().counter("rejected_requests_total", "Rejected requests");
+    private Undertow undertow;
+    private VirtualThreadHandler handler;
+
+    @AfterEach
+    void stopServer() {
+        if (undertow != null) {
+            undertow.stop();
+            handler.close();
+        }
+        client.close();
+    }
+
+    @Test
+    void shouldExecuteRequestsOnVirtualThreads() throws Exception {
+        var port = startServer(exchange -> exchange.getResponseSender().send(
+                Thread.currentThread().isVirtual() + " " + exchange.isBlocking()), 4);
+
+        var response = client.send(request(port), HttpResponse.BodyHandlers.ofString());
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).isEqualTo("true true");
+    }
+
+    @Test
+    void shouldRejectRequestsOverConcurrencyLimit() throws Exception {
+        var started = new CountDownLatch(2);
+        var release = new CountDownLatch(1);
+        var port = startServer(exchange -> {
+            started.countDown();
+            release.await();
+        }, 2);
+
+        var responses = new ArrayList<CompletableFuture<HttpResponse<Void>>>();
+        for (int i = 0; i < 2; i++) {
+            responses.add(client.sendAsync(request(port), HttpResponse.BodyHandlers.discarding()));
+        }
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(client.send(request(port), HttpResponse.BodyHandlers.discarding()).statusCode()).isEqualTo(503);
+        assertThat(rejectedRequests.value()).isEqualTo(1);
+
+        release.countDown();
+        for (var response : responses) {
+            assertThat(response.get(10, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+        }
+        assertThat(client.send(request(port), HttpResponse.BodyHandlers.discarding()).statusCode()).isEqualTo(200);
+        assertThat(rejectedRequests.value()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectRequestsOnceClosed() throws Exception {
+        var port = startServer(exchange -> {
+        }, 1);
+        handler.close();
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(client.send(request(port), HttpResponse.BodyHandlers.discarding()).statusCode()).isEqualTo(503);
+        }
+        assertThat(rejectedRequests.value()).isZero();
+    }
+
+    @Test
+    void shouldRequirePositiveConcurrencyLimit() {
+        assertThatThrownBy(() -> new VirtualThreadHandler(exchange -> {
+        }, 0, rejectedRequests)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private int startServer(HttpHandler next, int maxConcurrentRequests) {
+        handler = new VirtualThreadHandler(next, maxConcurrentRequests, rejectedRequests);
+        undertow = Undertow.builder()
+                .addHttpListener(0, "localhost")
+                .setHandler(handler)
+                .build();
+        undertow.start();
+        return ((InetSocketAddress) undertow.getListenerInfo().getFirst().getAddress()).getPort();
+    }
+
+    private static HttpRequest request(int port) {
+        return HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/")).build();
+    }
+}
@@ -3,8 +3,14 @@ package lt.rieske.accounts.eventstore;
 import lt.rieske.accounts.domain.AccountEvent;
 import lt.rieske.accounts.eventsourcing.AccountConsistencyTest;
 import lt.rieske.accounts.eventsourcing.AccountEventSourcingTest;
+import lt.rieske.accounts.eventsourcing.AccountViewTest;
+import lt.rieske.accounts.eventsourcing.AdaptiveSnapshotTest;
+import lt.rieske.accounts.eventsourcing.AggregateCacheTest;
+import lt.rieske.accounts.eventsourcing.AsyncSnapshotTest;
+import lt.rieske.accounts.eventsourcing.AggregateHistory;
 import lt.rieske.accounts.eventsourcing.Event;
 import lt.rieske.accounts.eventsourcing.EventStore;
+import lt.rieske.accounts.eventsourcing.GroupCommitTest;
 import lt.rieske.accounts.eventsourcing.IdempotencyTest;
 import lt.rieske.accounts.eventsourcing.MoneyTransferTest;
 import lt.rieske.accounts.eventsourcing.SequencedEvent;
@@ -20,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -74,11 +81,57 @@ class InMemoryEventStoreTests {
         }
     }
 
+    @Nested
+    class InMemoryAggregateCacheTest extends AggregateCacheTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class InMemoryGroupCommitTest extends GroupCommitTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class InMemoryAsyncSnapshotTest extends AsyncSnapshotTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class InMemoryAdaptiveSnapshotTest extends AdaptiveSnapshotTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class InMemoryAccountViewTest extends AccountViewTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
 }
 
 class InMemoryEventStore<E extends Event> implements EventStore<E> {
     private final List<SequencedEvent<E>> events = new ArrayList<>();
     private final Map<UUID, SequencedEvent<E>> snapshots = new HashMap<>();
+    private final Map<UUID, SequencedEvent<E>> views = new HashMap<>();
 
     // All (aggregateId, transactionId) pairs - mirrors the DB index, not just the latest tx per aggregate.
     private final Set<TxKey> transactions = new HashSet<>();
@@ -92,22 +145,37 @@ class InMemoryEventStore<E extends Event> implements EventStore<E> {
                                     UUID transactionId) {
         validateConsistency(uncommittedEvents, transactionId);
 
-        uncommittedEvents.forEach(e -> append(e, transactionId));
-        uncommittedSnapshots.forEach(s -> snapshots.put(s.aggregateId(), s));
+        uncommittedEvents.forEach(e -> append(e, e.transactionId() != null ? e.transactionId() : transactionId));
+        // snapshots can be stored out of order - keep the newest one
+        uncommittedSnapshots.forEach(s -> snapshots.merge(s.aggregateId(), s,
+                (current, candidate) -> candidate.sequenceNumber() > current.sequenceNumber() ? candidate : current));
     }
 
     @Override
-    public synchronized Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion) {
+    public synchronized Stream<SequencedEvent<E>> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
         // Stream is lazy: filter/iteration runs after this method returns and releases the lock.
         // Materialize with toList() first so we copy under the lock; then stream the snapshot.
         // Do not "fix" to return events.stream().filter(...) - concurrent append mutates the
         // live ArrayList and readers can see null elements (NPE) or miss events (stale balance).
         return events.stream()
-                .filter(e -> e.aggregateId().equals(aggregateId) && e.sequenceNumber() > fromVersion)
+                .filter(e -> e.aggregateId().equals(aggregateId) && e.sequenceNumber() > fromVersion && e.sequenceNumber() <= toVersion)
                 .toList()
                 .stream();
     }
 
+    @Override
+    public synchronized void append(Collection<SequencedEvent<E>> uncommittedEvents, Collection<SequencedEvent<E>> uncommittedSnapshots,
+                                    Collection<SequencedEvent<E>> uncommittedViews, UUID transactionId) {
+        append(uncommittedEvents, uncommittedSnapshots, transactionId);
+        uncommittedViews.forEach(v -> views.merge(v.aggregateId(), v,
+                (current, candidate) -> candidate.sequenceNumber() > current.sequenceNumber() ? candidate : current));
+    }
+
+    @Override
+    public synchronized SequencedEvent<E> loadView(UUID aggregateId) {
+        return views.get(aggregateId);
+    }
+
     @Override
     public synchronized SequencedEvent<E> loadSnapshot(UUID aggregateId) {
         return snapshots.get(aggregateId);
@@ -118,6 +186,21 @@ class InMemoryEventStore<E extends Event> implements EventStore<E> {
         return transactions.contains(new TxKey(aggregateId, transactionId));
     }
 
+    @Override
+    public synchronized Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+        return transactionIds.stream()
+                .filter(transactionId -> transactionExists(aggregateId, transactionId))
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public synchronized AggregateHistory<E> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+        var latestSnapshot = loadSnapshot(aggregateId);
+        var snapshot = latestSnapshot != null && latestSnapshot.sequenceNumber() > fromVersion ? latestSnapshot : null;
+        var events = getEvents(aggregateId, snapshot != null ? snapshot.sequenceNumber() : fromVersion).toList();
+        return new AggregateHistory<>(snapshot, events, transactionId != null && transactionExists(aggregateId, transactionId));
+    }
+
     synchronized List<SequencedEvent<E>> getSequencedEvents(UUID aggregateId) {
         return events.stream()
                 .filter(e -> e.aggregateId().equals(aggregateId))
@@ -135,7 +218,7 @@ class InMemoryEventStore<E extends Event> implements EventStore<E> {
         uncommittedEvents.forEach(event -> {
             long currentVersion = aggregateVersions.getOrDefault(event.aggregateId(),
                     getLatestAggregateVersion(event.aggregateId()));
-            if (transactionExists(event.aggregateId(), transactionId)) {
+            if (transactionExists(event.aggregateId(), event.transactionId() != null ? event.transactionId() : transactionId)) {
                 throw new ConcurrentModificationException("Duplicate transaction");
             }
             if (event.sequenceNumber() <= currentVersion) {
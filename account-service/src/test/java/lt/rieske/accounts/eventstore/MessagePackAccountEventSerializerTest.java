@@ -2,15 +2,34 @@ package lt.rieske.accounts.eventstore;
 
 import lt.rieske.accounts.domain.AccountEvent;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class MessagePackAccountEventSerializerTest {
 
     private final MessagePackAccountEventSerializer serializer = new MessagePackAccountEventSerializer();
 
+    static List<AccountEvent> events() {
+        return List.of(
+                new AccountEvent.AccountSnapshot(UUID.randomUUID(), UUID.randomUUID(), 42, true),
+                new AccountEvent.AccountOpenedEvent(UUID.randomUUID()),
+                new AccountEvent.MoneyDepositedEvent(10, 52),
+                new AccountEvent.MoneyWithdrawnEvent(5, 47),
+                new AccountEvent.AccountClosedEvent());
+    }
+
     @Test
     void serializesAndDeserializesAnEvent() {
         var event = new AccountEvent.AccountOpenedEvent(UUID.randomUUID());
@@ -21,4 +40,56 @@ class MessagePackAccountEventSerializerTest {
         assertThat(deserializedEvent).isEqualTo(event);
     }
 
+    @ParameterizedTest
+    @MethodSource("events")
+    void serializesAndDeserializesAllEventTypes(AccountEvent event) {
+        assertThat(serializer.deserialize(serializer.serialize(event))).isEqualTo(event);
+    }
+
+    @Test
+    void reusesBuffersBetweenEventsWithoutLeakingState() {
+        var events = events();
+        var serializedEvents = events.stream().map(serializer::serialize).toList();
+
+        assertThat(serializedEvents.stream().map(serializer::deserialize)).containsExactlyElementsOf(events);
+        assertThat(serializer.serialize(events.getFirst())).isEqualTo(serializedEvents.getFirst());
+    }
+
+    @ParameterizedTest
+    @MethodSource("events")
+    void serializesIntoByteBuffer(AccountEvent event) {
+        var buffer = ByteBuffer.allocate(64);
+        buffer.position(3);
+
+        int size = serializer.serialize(event, buffer);
+
+        assertThat(buffer.position()).isEqualTo(3 + size);
+        assertThat(size).isEqualTo(serializer.serialize(event).length);
+        buffer.flip().position(3);
+        assertThat(serializer.deserialize(buffer)).isEqualTo(event);
+        assertThat(buffer.position()).isEqualTo(3);
+    }
+
+    @Test
+    void failsToSerializeIntoTooSmallByteBuffer() {
+        var buffer = ByteBuffer.allocate(4);
+
+        assertThatThrownBy(() -> serializer.serialize(new AccountEvent.AccountOpenedEvent(UUID.randomUUID()), buffer))
+                .isInstanceOf(BufferOverflowException.class);
+        assertThat(buffer.position()).isZero();
+    }
+
+    @Test
+    void sharesPooledBuffersBetweenConcurrentThreads() throws Exception {
+        var events = events();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var results = new ArrayList<Future<List<AccountEvent>>>();
+            for (int i = 0; i < 100; i++) {
+                results.add(executor.submit(() -> events.stream().map(serializer::serialize).map(serializer::deserialize).toList()));
+            }
+            for (var result : results) {
+                assertThat(result.get(10, TimeUnit.SECONDS)).containsExactlyElementsOf(events);
+            }
+        }
+    }
 }
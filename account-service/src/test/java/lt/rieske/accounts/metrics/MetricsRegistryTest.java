@@ -0,0 +1,124 @@
+package lt.rieske.accounts.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MetricsRegistryTest {
+
+    private final MetricsRegistry metrics = new MetricsRegistry();
+
+    @Test
+    void shouldExposeCountersAndGauges() {
+        var counter = metrics.counter("requests_total", "Requests", "route", "GET /a");
+        counter.increment();
+        counter.increment();
+        var value = new AtomicLong(5);
+        metrics.gauge("queued", "Queued things", value::get);
+        value.set(7);
+
+        assertThat(metrics.scrape()).isEqualTo("""
+                # HELP requests_total Requests
+                # TYPE requests_total counter
+                requests_total{route="GET /a"} 2
+                # HELP queued Queued things
+                # TYPE queued gauge
+                queued 7
+                """);
+    }
+
+    @Test
+    void shouldExposeMetricsOfTheSameNameAsOneFamily() {
+        metrics.counter("calls_total", "Calls", "method", "a").increment();
+        metrics.counter("calls_total", "Calls", "method", "b");
+
+        assertThat(metrics.scrape()).isEqualTo("""
+                # HELP calls_total Calls
+                # TYPE calls_total counter
+                calls_total{method="a"} 1
+                calls_total{method="b"} 0
+                """);
+    }
+
+    @Test
+    void shouldReturnRegisteredCounter() {
+        var counter = metrics.counter("calls_total", "Calls");
+
+        assertThat(metrics.counter("calls_total", "Calls")).isSameAs(counter);
+    }
+
+    @Test
+    void shouldNotRegisterMetricOfDifferentTypeUnderTheSameName() {
+        metrics.counter("calls_total", "Calls");
+
+        assertThatThrownBy(() -> metrics.gauge("calls_total", "Calls", () -> 1))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Metric calls_total is a counter, not a gauge");
+    }
+
+    @Test
+    void shouldEscapeLabelValues() {
+        metrics.counter("calls_total", "Calls", "path", "a\"b\\c");
+
+        assertThat(metrics.scrape()).contains("calls_total{path=\"a\\\"b\\\\c\"} 0");
+    }
+
+    @Test
+    void shouldExposeHistogramWithCumulativeBuckets() {
+        var histogram = new Histogram(1, 4, 1);
+        for (long value : new long[]{0, 2, 3, 4, 5, 6, 7, 12, 13, 16, 17, 1000}) {
+            histogram.record(value);
+        }
+        var out = new StringBuilder();
+
+        histogram.write("replayed", "{aggregate=\"account\"}", out);
+
+        assertThat(out.toString()).isEqualTo("""
+                replayed_bucket{aggregate="account",le="2.0"} 2
+                replayed_bucket{aggregate="account",le="3.0"} 3
+                replayed_bucket{aggregate="account",le="4.0"} 4
+                replayed_bucket{aggregate="account",le="6.0"} 6
+                replayed_bucket{aggregate="account",le="8.0"} 7
+                replayed_bucket{aggregate="account",le="12.0"} 8
+                replayed_bucket{aggregate="account",le="16.0"} 10
+                replayed_bucket{aggregate="account",le="+Inf"} 12
+                replayed_sum{aggregate="account"} 1085.0
+                replayed_count{aggregate="account"} 12
+                """);
+    }
+
+    @Test
+    void shouldExposeLatenciesInSeconds() {
+        var histogram = metrics.latencyHistogram("latency_seconds", "Latency");
+        histogram.record(1_500_000);
+
+        assertThat(metrics.scrape())
+                .contains("latency_seconds_bucket{le=\"0.001572864\"} 1")
+                .contains("latency_seconds_bucket{le=\"0.001048576\"} 0")
+                .contains("latency_seconds_sum 0.0015")
+                .contains("latency_seconds_count 1");
+    }
+
+    @Test
+    void shouldNotLoseConcurrentRecordings() throws Exception {
+        var histogram = metrics.latencyHistogram("latency_seconds", "Latency");
+        var counter = metrics.counter("calls_total", "Calls");
+
+        try (var executor = Executors.newFixedThreadPool(8)) {
+            IntStream.range(0, 8).forEach(thread -> executor.submit(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.record(i * 1000L);
+                    counter.increment();
+                }
+            }));
+        }
+
+        assertThat(histogram.count()).isEqualTo(80_000);
+        assertThat(counter.value()).isEqualTo(80_000);
+    }
+}
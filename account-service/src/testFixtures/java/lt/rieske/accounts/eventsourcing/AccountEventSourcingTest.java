@@ -287,6 +287,48 @@ public abstract class AccountEventSourcingTest {
         assertThat(snapshotEvent.open()).isTrue();
     }
 
+    @Test
+    void shouldQueryAccountAtGivenVersion() {
+        var accountId = UUID.randomUUID();
+        givenEvents(accountId, UUID.randomUUID(),
+                new AccountEvent.AccountOpenedEvent(UUID.randomUUID()),
+                new AccountEvent.MoneyDepositedEvent(10, 10),
+                new AccountEvent.MoneyDepositedEvent(5, 15)
+        );
+
+        assertThat(accountRepository.queryAt(accountId, 1).balance()).isZero();
+        assertThat(accountRepository.queryAt(accountId, 2).balance()).isEqualTo(10);
+        assertThat(accountRepository.queryAt(accountId, 3).balance()).isEqualTo(15);
+        assertThat(accountRepository.queryAt(accountId, 4).balance()).isEqualTo(15);
+    }
+
+    @Test
+    void shouldQueryAccountAtGivenVersionFromSnapshotBeforeIt() {
+        var accountId = UUID.randomUUID();
+        var ownerId = UUID.randomUUID();
+        eventStore.append(
+                List.of(new SequencedEvent<>(accountId, 11, null, new AccountEvent.MoneyDepositedEvent(1, 43)),
+                        new SequencedEvent<>(accountId, 12, null, new AccountEvent.MoneyDepositedEvent(2, 45))),
+                List.of(new SequencedEvent<>(accountId, 10, null, new AccountEvent.AccountSnapshot(accountId, ownerId, 42, true))),
+                UUID.randomUUID());
+
+        assertThat(accountRepository.queryAt(accountId, 10).balance()).isEqualTo(42);
+        assertThat(accountRepository.queryAt(accountId, 11).balance()).isEqualTo(43);
+        assertThat(accountRepository.queryAt(accountId, 12).ownerId()).isEqualTo(ownerId);
+    }
+
+    @Test
+    void shouldNotFindAccountAtGivenVersionIfItDoesNotExist() {
+        assertThatThrownBy(() -> accountRepository.queryAt(UUID.randomUUID(), 1))
+                .isInstanceOf(AggregateNotFoundException.class);
+    }
+
+    @Test
+    void shouldRequirePositiveVersionToQueryAccountAt() {
+        assertThatThrownBy(() -> accountRepository.queryAt(UUID.randomUUID(), 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     void shouldInstantiateAccountFromSnapshot() {
         var accountId = UUID.randomUUID();
@@ -0,0 +1,116 @@
+package lt.rieske.accounts.eventsourcing;
+
+import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.domain.Account;
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.domain.AtomicOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public abstract class AccountViewTest {
+
+    private EventStore<AccountEvent> eventStore;
+    private AggregateRepository<Account, AccountEvent> accountRepository;
+
+    private final UUID ownerId = UUID.randomUUID();
+
+    protected abstract EventStore<AccountEvent> getEventStore();
+
+    @BeforeEach
+    void init() {
+        eventStore = getEventStore();
+        accountRepository = ApiConfiguration.viewingAccountRepository(
+                eventStore, (account, version) -> null, ApiConfiguration.accountCache(100, Duration.ofMinutes(1)), null);
+    }
+
+    @Test
+    void shouldStoreViewOfOpenedAccount() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        assertThat(accountRepository.queryView(accountId, 1))
+                .isEqualTo(new AccountEvent.AccountSnapshot(accountId, ownerId, 0, true));
+    }
+
+    @Test
+    void shouldUpdateViewWithEachTransaction() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(10));
+        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.withdraw(3));
+
+        assertThat(accountRepository.queryView(accountId, 3))
+                .isEqualTo(new AccountEvent.AccountSnapshot(accountId, ownerId, 7, true));
+    }
+
+    @Test
+    void shouldUpdateViewOfClosedAccount() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.close());
+
+        assertThat(accountRepository.queryView(accountId, 2))
+                .isEqualTo(new AccountEvent.AccountSnapshot(accountId, ownerId, 0, false));
+    }
+
+    @Test
+    void shouldUpdateViewsOfBothAccountsOnTransfer() {
+        var sourceAccountId = UUID.randomUUID();
+        accountRepository.create(sourceAccountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        accountRepository.transact(sourceAccountId, UUID.randomUUID(), AtomicOperation.deposit(100));
+        var targetAccountId = UUID.randomUUID();
+        accountRepository.create(targetAccountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        accountRepository.transact(sourceAccountId, targetAccountId, UUID.randomUUID(), AtomicOperation.transfer(60));
+
+        assertThat(accountRepository.queryView(sourceAccountId, 3))
+                .isEqualTo(new AccountEvent.AccountSnapshot(sourceAccountId, ownerId, 40, true));
+        assertThat(accountRepository.queryView(targetAccountId, 2))
+                .isEqualTo(new AccountEvent.AccountSnapshot(targetAccountId, ownerId, 60, true));
+    }
+
+    @Test
+    void shouldStoreViewOfLatestVersionOnBatchedTransactions() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        accountRepository.transact(accountId, List.of(
+                new AggregateTransaction<>(UUID.randomUUID(), AtomicOperation.deposit(1)),
+                new AggregateTransaction<>(UUID.randomUUID(), AtomicOperation.deposit(2)),
+                new AggregateTransaction<>(UUID.randomUUID(), AtomicOperation.deposit(3))));
+
+        assertThat(accountRepository.queryView(accountId, 4))
+                .isEqualTo(new AccountEvent.AccountSnapshot(accountId, ownerId, 6, true));
+    }
+
+    @Test
+    void shouldNotServeViewOlderThanRequestedVersion() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        // written past the view
+        ApiConfiguration.accountRepository(eventStore).transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(10));
+
+        assertThat(accountRepository.queryView(accountId, 1)).isNotNull();
+        assertThat(accountRepository.queryView(accountId, 2)).isNull();
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldNotServeViewsWhenViewsAreNotCaptured() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        assertThat(ApiConfiguration.accountRepository(eventStore).queryView(accountId, 0)).isNull();
+    }
+
+    @Test
+    void shouldNotServeViewOfNonExistentAccount() {
+        assertThat(accountRepository.queryView(UUID.randomUUID(), 0)).isNull();
+    }
+}
@@ -0,0 +1,102 @@
+package lt.rieske.accounts.eventsourcing;
+
+import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.domain.Account;
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.domain.AtomicOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public abstract class AdaptiveSnapshotTest {
+
+    private static final int REPLAY_BUDGET = 20;
+
+    private EventStore<AccountEvent> eventStore;
+    private AdaptiveSnapshotter<Account, AccountEvent> snapshotter;
+
+    private final UUID accountId = UUID.randomUUID();
+
+    protected abstract EventStore<AccountEvent> getEventStore();
+
+    @BeforeEach
+    void init() {
+        eventStore = getEventStore();
+        snapshotter = ApiConfiguration.adaptiveSnapshotter(REPLAY_BUDGET, 10);
+        ApiConfiguration.accountRepository(eventStore).create(accountId, UUID.randomUUID(), AtomicOperation.open(UUID.randomUUID()));
+    }
+
+    @Test
+    void shouldSnapshotOnceEventsReplayedByLoadsReachTheBudget() {
+        var accountRepository = repository(AggregateCache.disabled());
+
+        // loads replay 1, 2, 3, 4 and 5 events - 15 in total
+        deposit(accountRepository, 5);
+        assertThat(eventStore.loadSnapshot(accountId)).isNull();
+
+        // the sixth load brings the total to 21
+        deposit(accountRepository, 1);
+        assertThat(eventStore.loadSnapshot(accountId).sequenceNumber()).isEqualTo(7);
+    }
+
+    @Test
+    void shouldStartCountingReplayCostOverAfterSnapshot() {
+        var accountRepository = repository(AggregateCache.disabled());
+        deposit(accountRepository, 6);
+
+        // loads after the snapshot replay 0 and 1 events
+        deposit(accountRepository, 2);
+
+        assertThat(eventStore.loadSnapshot(accountId).sequenceNumber()).isEqualTo(7);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldNotSnapshotAggregateServedFromCache() {
+        var accountRepository = repository(ApiConfiguration.accountCache(100, Duration.ofMinutes(1)));
+
+        deposit(accountRepository, 8);
+
+        assertThat(eventStore.loadSnapshot(accountId)).isNull();
+        // only the first load misses the cache
+        assertThat(snapshotter.replayedEvents()).isEqualTo(1);
+        assertThat(snapshotter.snapshots()).isZero();
+    }
+
+    @Test
+    void shouldSnapshotEveryMaxEventsRegardlessOfReplayCost() {
+        var accountRepository = repository(ApiConfiguration.accountCache(100, Duration.ofMinutes(1)));
+
+        deposit(accountRepository, 19);
+
+        assertThat(eventStore.loadSnapshot(accountId).sequenceNumber()).isEqualTo(20);
+        assertThat(snapshotter.snapshots()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldReportReplayLengthsAndSnapshots() {
+        var accountRepository = repository(AggregateCache.disabled());
+        deposit(accountRepository, 6);
+
+        accountRepository.query(accountId);
+
+        assertThat(snapshotter.loads()).isEqualTo(7);
+        assertThat(snapshotter.replayedEvents()).isEqualTo(21);
+        assertThat(snapshotter.longestReplay()).isEqualTo(6);
+        assertThat(snapshotter.snapshots()).isEqualTo(1);
+    }
+
+    private AggregateRepository<Account, AccountEvent> repository(AggregateCache<Account, AccountEvent> cache) {
+        return ApiConfiguration.accountRepository(eventStore, snapshotter, cache, null);
+    }
+
+    private void deposit(AggregateRepository<Account, AccountEvent> accountRepository, int times) {
+        for (int i = 0; i < times; i++) {
+            accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package lt.rieske.accounts.eventsourcing;
+
+import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.domain.Account;
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.domain.AtomicOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public abstract class AggregateCacheTest {
+
+    private EventStore<AccountEvent> eventStore;
+    private AggregateCache<Account, AccountEvent> cache;
+    private AggregateRepository<Account, AccountEvent> cachingAccountRepository;
+    private AggregateRepository<Account, AccountEvent> accountRepository;
+
+    private final UUID ownerId = UUID.randomUUID();
+
+    protected abstract EventStore<AccountEvent> getEventStore();
+
+    @BeforeEach
+    void init() {
+        eventStore = getEventStore();
+        cache = ApiConfiguration.accountCache(100, Duration.ofMinutes(1));
+        cachingAccountRepository = ApiConfiguration.cachingAccountRepository(eventStore, 5, cache);
+        accountRepository = ApiConfiguration.accountRepository(eventStore);
+    }
+
+    @Test
+    void shouldCacheCommittedAggregateState() {
+        var accountId = openNewAccount();
+        cachingAccountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(42));
+
+        var account = cachingAccountRepository.query(accountId);
+
+        assertThat(account.balance()).isEqualTo(42);
+        assertThat(account.ownerId()).isEqualTo(ownerId);
+        assertThat(cache.hits()).isEqualTo(2);
+        assertThat(cache.misses()).isZero();
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCacheLoadedAggregateState() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        cachingAccountRepository.query(accountId);
+        var account = cachingAccountRepository.query(accountId);
+
+        assertThat(account.ownerId()).isEqualTo(ownerId);
+        assertThat(cache.misses()).isEqualTo(1);
+        assertThat(cache.hits()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldApplyEventsCommittedPastTheCache() {
+        var accountId = openNewAccount();
+        cachingAccountRepository.query(accountId);
+
+        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(10));
+        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(5));
+
+        assertThat(cachingAccountRepository.query(accountId).balance()).isEqualTo(15);
+        cachingAccountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.withdraw(15));
+        assertThat(accountRepository.query(accountId).balance()).isZero();
+        assertThat(cachingAccountRepository.query(accountId).balance()).isZero();
+    }
+
+    @Test
+    void shouldRemainIdempotentWithCachedState() {
+        var accountId = openNewAccount();
+
+        var transactionId = UUID.randomUUID();
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+
+        assertThat(cachingAccountRepository.query(accountId).balance()).isEqualTo(10);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldEvictAggregateOnConcurrentModification() {
+        var accountId = openNewAccount();
+
+        var eventStream1 = new TransactionalEventStream<Account, AccountEvent>(eventStore, (aggregate, version) -> null, cache);
+        var account1 = new Account(eventStream1, accountId);
+        eventStream1.replay(account1, accountId);
+        account1.deposit(42);
+
+        accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+
+        assertThatThrownBy(() -> eventStream1.commit(UUID.randomUUID())).isInstanceOf(ConcurrentModificationException.class);
+        assertThat(cache.size()).isZero();
+        assertThat(cache.evictions()).isEqualTo(1);
+        assertThat(cachingAccountRepository.query(accountId).balance()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedAggregatesWhenFull() {
+        var boundedCache = ApiConfiguration.accountCache(1, Duration.ofMinutes(1));
+        var repository = ApiConfiguration.cachingAccountRepository(eventStore, 5, boundedCache);
+
+        var accountId1 = UUID.randomUUID();
+        repository.create(accountId1, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        var accountId2 = UUID.randomUUID();
+        repository.create(accountId2, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        assertThat(boundedCache.size()).isEqualTo(1);
+        assertThat(boundedCache.evictions()).isEqualTo(1);
+
+        assertThat(repository.query(accountId2).ownerId()).isEqualTo(ownerId);
+        assertThat(repository.query(accountId1).ownerId()).isEqualTo(ownerId);
+        assertThat(boundedCache.hits()).isEqualTo(1);
+        assertThat(boundedCache.misses()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldExpireAggregatesNotAccessedRecently() {
+        var nanoTime = new AtomicLong();
+        var expiringCache = new AggregateCache<Account, AccountEvent>(Account::snapshot, 10, Duration.ofMillis(1), nanoTime::get);
+        var repository = ApiConfiguration.cachingAccountRepository(eventStore, 5, expiringCache);
+        var accountId = UUID.randomUUID();
+        repository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        nanoTime.addAndGet(Duration.ofMillis(1).toNanos());
+        assertThat(repository.query(accountId).ownerId()).isEqualTo(ownerId);
+        assertThat(expiringCache.hits()).isEqualTo(1);
+
+        nanoTime.addAndGet(Duration.ofMillis(1).toNanos() + 1);
+        assertThat(repository.query(accountId).ownerId()).isEqualTo(ownerId);
+        assertThat(expiringCache.misses()).isEqualTo(1);
+        assertThat(expiringCache.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void disabledCacheShouldNotRetainAnything() {
+        var disabledCache = ApiConfiguration.accountCache(0, Duration.ofMinutes(1));
+        var repository = ApiConfiguration.cachingAccountRepository(eventStore, 5, disabledCache);
+        var accountId = UUID.randomUUID();
+        repository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        repository.query(accountId);
+
+        assertThat(disabledCache.size()).isZero();
+        assertThat(disabledCache.hits()).isZero();
+        assertThat(disabledCache.misses()).isZero();
+    }
+
+    @Test
+    void accountRemainsConsistentWithConcurrentDepositsThroughCache() throws InterruptedException {
+        var accountId = openNewAccount();
+        int threadCount = 8;
+        int depositsPerThread = 10;
+
+        try (var executor = Executors.newFixedThreadPool(threadCount)) {
+            for (int i = 0; i < threadCount; i++) {
+                executor.submit(() -> {
+                    for (int j = 0; j < depositsPerThread; j++) {
+                        var transactionId = UUID.randomUUID();
+                        while (true) {
+                            try {
+                                cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(1));
+                                break;
+                            } catch (ConcurrentModificationException ignored) {
+                                // retry operation
+                            }
+                        }
+                    }
+                });
+            }
+            executor.shutdown();
+            assertThat(executor.awaitTermination(1, TimeUnit.MINUTES)).isTrue();
+        }
+
+        assertThat(cachingAccountRepository.query(accountId).balance()).isEqualTo(threadCount * depositsPerThread);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(threadCount * depositsPerThread);
+    }
+
+    @Test
+    void shouldRuleOutNewTransactionsOfCachedAggregateWithoutLookingThemUp() {
+        var lookupCountingEventStore = new TransactionLookupCountingEventStore(eventStore);
+        var repository = ApiConfiguration.cachingAccountRepository(lookupCountingEventStore, 5, cache);
+        var accountId = UUID.randomUUID();
+        repository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        for (int i = 0; i < 10; i++) {
+            repository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        }
+        repository.transact(accountId, List.of(
+                new AggregateTransaction<>(UUID.randomUUID(), AtomicOperation.deposit(1)),
+                new AggregateTransaction<>(UUID.randomUUID(), AtomicOperation.deposit(1))));
+
+        assertThat(lookupCountingEventStore.transactionLookups).isZero();
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(12);
+    }
+
+    @Test
+    void shouldLookUpTransactionThatCachedTransactionsCanNotRuleOut() {
+        var lookupCountingEventStore = new TransactionLookupCountingEventStore(eventStore);
+        var repository = ApiConfiguration.cachingAccountRepository(lookupCountingEventStore, 5, cache);
+        var accountId = UUID.randomUUID();
+        repository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        var transactionId = UUID.randomUUID();
+        repository.transact(accountId, transactionId, AtomicOperation.deposit(1));
+
+        repository.transact(accountId, transactionId, AtomicOperation.deposit(1));
+
+        assertThat(lookupCountingEventStore.transactionLookups).isEqualTo(1);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldBringCachedTransactionsUpToNewerSnapshotWithoutScanningAllTransactions() {
+        var lookupCountingEventStore = new TransactionLookupCountingEventStore(eventStore);
+        var repository = ApiConfiguration.cachingAccountRepository(lookupCountingEventStore, 5, cache);
+        var snapshottingRepository = ApiConfiguration.snapshottingAccountRepository(eventStore, 5);
+        var accountId = UUID.randomUUID();
+        repository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        repository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        var transactionIdBeforeSnapshot = UUID.randomUUID();
+        snapshottingRepository.transact(accountId, transactionIdBeforeSnapshot, AtomicOperation.deposit(1));
+        for (int i = 0; i < 5; i++) {
+            snapshottingRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        }
+        assertThat(eventStore.loadSnapshot(accountId)).isNotNull();
+
+        repository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        repository.transact(accountId, transactionIdBeforeSnapshot, AtomicOperation.deposit(1));
+
+        assertThat(lookupCountingEventStore.transactionScans).isZero();
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(8);
+    }
+
+    @Test
+    void shouldNotScanAllTransactionsOfAggregateLoadedFromSnapshot() {
+        var accountId = UUID.randomUUID();
+        var snapshottingRepository = ApiConfiguration.snapshottingAccountRepository(eventStore, 5);
+        snapshottingRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        for (int i = 0; i < 5; i++) {
+            snapshottingRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        }
+        var lookupCountingEventStore = new TransactionLookupCountingEventStore(eventStore);
+        var repository = ApiConfiguration.cachingAccountRepository(lookupCountingEventStore, 5, cache);
+
+        var transactionId = UUID.randomUUID();
+        repository.transact(accountId, transactionId, AtomicOperation.deposit(1));
+        repository.transact(accountId, transactionId, AtomicOperation.deposit(1));
+
+        assertThat(lookupCountingEventStore.transactionScans).isZero();
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(6);
+    }
+
+    private UUID openNewAccount() {
+        var accountId = UUID.randomUUID();
+        cachingAccountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        return accountId;
+    }
+
+    private static class TransactionLookupCountingEventStore implements EventStore<AccountEvent> {
+        private final EventStore<AccountEvent> delegate;
+        private int transactionLookups;
+        private int transactionScans;
+
+        TransactionLookupCountingEventStore(EventStore<AccountEvent> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void append(
+                Collection<SequencedEvent<AccountEvent>> uncommittedEvents,
+                Collection<SequencedEvent<AccountEvent>> uncommittedSnapshots,
+                UUID transactionId) {
+            delegate.append(uncommittedEvents, uncommittedSnapshots, transactionId);
+        }
+
+        @Override
+        public Stream<SequencedEvent<AccountEvent>> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+            if (fromVersion == 0) {
+                transactionScans++;
+            }
+            return delegate.getEvents(aggregateId, fromVersion, toVersion);
+        }
+
+        @Override
+        public SequencedEvent<AccountEvent> loadSnapshot(UUID aggregateId) {
+            return delegate.loadSnapshot(aggregateId);
+        }
+
+        @Override
+        public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+            transactionLookups++;
+            return delegate.transactionExists(aggregateId, transactionId);
+        }
+
+        @Override
+        public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+            transactionLookups++;
+            return delegate.findTransactions(aggregateId, transactionIds);
+        }
+
+        @Override
+        public AggregateHistory<AccountEvent> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+            if (transactionId != null) {
+                transactionLookups++;
+            }
+            return delegate.loadAggregate(aggregateId, fromVersion, transactionId);
+        }
+    }
+}
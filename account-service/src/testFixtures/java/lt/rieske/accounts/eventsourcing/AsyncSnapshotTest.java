@@ -0,0 +1,172 @@
+package lt.rieske.accounts.eventsourcing;
+
+import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.domain.Account;
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.domain.AtomicOperation;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public abstract class AsyncSnapshotTest {
+
+    private static final int SNAPSHOTTING_FREQUENCY = 5;
+
+    private SnapshotInterceptingEventStore eventStore;
+    private AsyncSnapshotWriter<AccountEvent> snapshotWriter;
+    private AggregateRepository<Account, AccountEvent> accountRepository;
+
+    private final UUID accountId = UUID.randomUUID();
+
+    protected abstract EventStore<AccountEvent> getEventStore();
+
+    @BeforeEach
+    void init() {
+        eventStore = new SnapshotInterceptingEventStore(getEventStore());
+        snapshotWriter = new AsyncSnapshotWriter<>(eventStore);
+        accountRepository = ApiConfiguration.cachingAccountRepository(
+                eventStore, SNAPSHOTTING_FREQUENCY, ApiConfiguration.accountCache(100, Duration.ofMinutes(1)), snapshotWriter);
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(UUID.randomUUID()));
+    }
+
+    @AfterEach
+    void closeWriter() {
+        snapshotWriter.close();
+    }
+
+    @Test
+    void shouldStoreSnapshotSeparatelyFromTheCommit() {
+        deposit(SNAPSHOTTING_FREQUENCY - 1);
+
+        snapshotWriter.close();
+
+        assertThat(eventStore.snapshotAppends).hasSize(1);
+        assertThat(eventStore.snapshotAppends.getFirst()).extracting(SequencedEvent::sequenceNumber).containsExactly(5L);
+        assertThat(eventStore.loadSnapshot(accountId).sequenceNumber()).isEqualTo(5);
+        assertThat(eventStore.loadSnapshot(accountId).event()).isInstanceOf(AccountEvent.AccountSnapshot.class);
+    }
+
+    @Test
+    void shouldStoreOnlyTheLatestOfPendingSnapshots() throws InterruptedException {
+        var writing = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        eventStore.beforeSnapshotAppend = snapshots -> {
+            eventStore.beforeSnapshotAppend = s -> {
+            };
+            writing.countDown();
+            await(release);
+        };
+
+        deposit(SNAPSHOTTING_FREQUENCY - 1);
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        deposit(SNAPSHOTTING_FREQUENCY * 2);
+        assertThat(snapshotWriter.pendingSnapshots()).isEqualTo(1);
+        release.countDown();
+        snapshotWriter.close();
+
+        assertThat(eventStore.snapshotAppends).hasSize(2);
+        assertThat(eventStore.snapshotAppends.getLast()).extracting(SequencedEvent::sequenceNumber).containsExactly(15L);
+        assertThat(eventStore.loadSnapshot(accountId).sequenceNumber()).isEqualTo(15);
+    }
+
+    @Test
+    void shouldCommitWhenSnapshotCanNotBeStored() {
+        eventStore.beforeSnapshotAppend = snapshots -> {
+            throw new IllegalStateException("snapshot store failure");
+        };
+
+        deposit(SNAPSHOTTING_FREQUENCY - 1);
+        snapshotWriter.close();
+
+        assertThat(eventStore.loadSnapshot(accountId)).isNull();
+        assertThat(ApiConfiguration.accountRepository(eventStore).query(accountId).balance())
+                .isEqualTo(SNAPSHOTTING_FREQUENCY - 1);
+    }
+
+    @Test
+    void shouldRestoreAggregateFromAsynchronouslyStoredSnapshot() {
+        deposit(SNAPSHOTTING_FREQUENCY + 1);
+        snapshotWriter.close();
+
+        var account = ApiConfiguration.snapshottingAccountRepository(eventStore, SNAPSHOTTING_FREQUENCY).query(accountId);
+
+        assertThat(account.balance()).isEqualTo(SNAPSHOTTING_FREQUENCY + 1);
+    }
+
+    private void deposit(int times) {
+        for (int i = 0; i < times; i++) {
+            accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class SnapshotInterceptingEventStore implements EventStore<AccountEvent> {
+        private final EventStore<AccountEvent> delegate;
+        private final List<List<SequencedEvent<AccountEvent>>> snapshotAppends = new CopyOnWriteArrayList<>();
+        private volatile Consumer<Collection<SequencedEvent<AccountEvent>>> beforeSnapshotAppend = snapshots -> {
+        };
+
+        SnapshotInterceptingEventStore(EventStore<AccountEvent> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void append(
+                Collection<SequencedEvent<AccountEvent>> uncommittedEvents,
+                Collection<SequencedEvent<AccountEvent>> uncommittedSnapshots,
+                UUID transactionId) {
+            if (!uncommittedEvents.isEmpty()) {
+                assertThat(uncommittedSnapshots).isEmpty();
+            } else {
+                beforeSnapshotAppend.accept(uncommittedSnapshots);
+                snapshotAppends.add(List.copyOf(uncommittedSnapshots));
+            }
+            delegate.append(uncommittedEvents, uncommittedSnapshots, transactionId);
+        }
+
+        @Override
+        public Stream<SequencedEvent<AccountEvent>> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+            return delegate.getEvents(aggregateId, fromVersion, toVersion);
+        }
+
+        @Override
+        public SequencedEvent<AccountEvent> loadSnapshot(UUID aggregateId) {
+            return delegate.loadSnapshot(aggregateId);
+        }
+
+        @Override
+        public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+            return delegate.transactionExists(aggregateId, transactionId);
+        }
+
+        @Override
+        public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+            return delegate.findTransactions(aggregateId, transactionIds);
+        }
+
+        @Override
+        public AggregateHistory<AccountEvent> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+            return delegate.loadAggregate(aggregateId, fromVersion, transactionId);
+        }
+    }
+}
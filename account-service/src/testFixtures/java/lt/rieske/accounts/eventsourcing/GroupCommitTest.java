@@ -0,0 +1,206 @@
+package lt.rieske.accounts.eventsourcing;
+
+import lt.rieske.accounts.api.ApiConfiguration;
+import lt.rieske.accounts.domain.Account;
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.domain.AtomicOperation;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public abstract class GroupCommitTest {
+
+    private CountingEventStore eventStore;
+    private AggregateRepository<Account, AccountEvent> accountRepository;
+
+    private final UUID accountId = UUID.randomUUID();
+
+    protected abstract EventStore<AccountEvent> getEventStore();
+
+    @BeforeEach
+    void init() {
+        eventStore = new CountingEventStore(getEventStore());
+        accountRepository = ApiConfiguration.accountRepository(eventStore);
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(UUID.randomUUID()));
+        eventStore.appends = 0;
+    }
+
+    @Test
+    void shouldCommitAllTransactionsInOneAppend() {
+        var failures = accountRepository.transact(accountId, List.of(
+                transaction(AtomicOperation.deposit(10)),
+                transaction(AtomicOperation.deposit(20)),
+                transaction(AtomicOperation.withdraw(5))));
+
+        assertThat(failures).containsExactly(null, null, null);
+        assertThat(eventStore.appends).isEqualTo(1);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(25);
+    }
+
+    @Test
+    void shouldTagEventsWithTheirTransactionIds() {
+        var transaction1 = transaction(AtomicOperation.deposit(10));
+        var transaction2 = transaction(AtomicOperation.deposit(20));
+
+        accountRepository.transact(accountId, List.of(transaction1, transaction2));
+
+        assertThat(eventStore.getEvents(accountId, 1))
+                .extracting(SequencedEvent::transactionId)
+                .containsExactly(transaction1.transactionId(), transaction2.transactionId());
+        assertThat(eventStore.transactionExists(accountId, transaction2.transactionId())).isTrue();
+    }
+
+    @Test
+    void shouldReportFailedTransactionsIndividually() {
+        var failures = accountRepository.transact(accountId, List.of(
+                transaction(AtomicOperation.deposit(10)),
+                transaction(AtomicOperation.withdraw(11)),
+                transaction(AtomicOperation.withdraw(10))));
+
+        assertThat(failures.get(0)).isNull();
+        assertThat(failures.get(1)).isInstanceOf(IllegalArgumentException.class).hasMessage("Insufficient balance");
+        assertThat(failures.get(2)).isNull();
+        assertThat(accountRepository.query(accountId).balance()).isZero();
+    }
+
+    @Test
+    void shouldSkipAlreadyAppliedTransactions() {
+        var transactionId = UUID.randomUUID();
+        accountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+
+        var failures = accountRepository.transact(accountId, List.of(
+                transaction(AtomicOperation.deposit(1)),
+                new AggregateTransaction<>(transactionId, AtomicOperation.deposit(10))));
+
+        assertThat(failures).containsExactly(null, null);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(11);
+    }
+
+    @Test
+    void shouldApplyTransactionRepeatedInTheSameBatchOnce() {
+        var transactionId = UUID.randomUUID();
+
+        var failures = accountRepository.transact(accountId, List.of(
+                new AggregateTransaction<>(transactionId, AtomicOperation.deposit(10)),
+                new AggregateTransaction<>(transactionId, AtomicOperation.deposit(10))));
+
+        assertThat(failures).containsExactly(null, null);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(10);
+    }
+
+    @Test
+    void shouldRetryRepeatedTransactionWhenItsFirstAttemptInTheBatchFailed() {
+        var transactionId = UUID.randomUUID();
+
+        var failures = accountRepository.transact(accountId, List.of(
+                new AggregateTransaction<>(transactionId, AtomicOperation.withdraw(10)),
+                transaction(AtomicOperation.deposit(10)),
+                new AggregateTransaction<>(transactionId, AtomicOperation.withdraw(10))));
+
+        assertThat(failures.get(0)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(failures.get(1)).isNull();
+        assertThat(failures.get(2)).isNull();
+        assertThat(accountRepository.query(accountId).balance()).isZero();
+    }
+
+    @Test
+    void shouldNotAppendWhenNoTransactionProducedEvents() {
+        var failures = accountRepository.transact(accountId, List.of(transaction(AtomicOperation.withdraw(1))));
+
+        assertThat(failures.getFirst()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(eventStore.appends).isZero();
+    }
+
+    @Test
+    void shouldNotApplyAnyTransactionOfTheBatchOnConcurrentModification() {
+        eventStore.beforeAppend = () -> {
+            eventStore.beforeAppend = () -> {
+            };
+            accountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        };
+
+        assertThatThrownBy(() -> accountRepository.transact(accountId, List.of(
+                transaction(AtomicOperation.deposit(10)),
+                transaction(AtomicOperation.deposit(20)))))
+                .isInstanceOf(ConcurrentModificationException.class);
+
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldRejectBatchWhenTransactionFailsAfterModifyingTheAggregate() {
+        var failures = accountRepository.transact(accountId, List.of(transaction(AtomicOperation.deposit(5))));
+        assertThat(failures).containsExactly((RuntimeException) null);
+
+        assertThatThrownBy(() -> accountRepository.transact(accountId, List.of(
+                transaction(AtomicOperation.deposit(10)),
+                transaction(account -> {
+                    account.deposit(1);
+                    throw new IllegalStateException("failure after append");
+                }))))
+                .isInstanceOf(IllegalStateException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(5);
+    }
+
+    private static AggregateTransaction<Account> transaction(Consumer<Account> operation) {
+        return new AggregateTransaction<>(UUID.randomUUID(), operation);
+    }
+
+    private static class CountingEventStore implements EventStore<AccountEvent> {
+        private final EventStore<AccountEvent> delegate;
+        private int appends;
+        private Runnable beforeAppend = () -> {
+        };
+
+        CountingEventStore(EventStore<AccountEvent> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void append(
+                Collection<SequencedEvent<AccountEvent>> uncommittedEvents,
+                Collection<SequencedEvent<AccountEvent>> uncommittedSnapshots,
+                UUID transactionId) {
+            beforeAppend.run();
+            appends++;
+            delegate.append(uncommittedEvents, uncommittedSnapshots, transactionId);
+        }
+
+        @Override
+        public Stream<SequencedEvent<AccountEvent>> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+            return delegate.getEvents(aggregateId, fromVersion, toVersion);
+        }
+
+        @Override
+        public SequencedEvent<AccountEvent> loadSnapshot(UUID aggregateId) {
+            return delegate.loadSnapshot(aggregateId);
+        }
+
+        @Override
+        public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+            return delegate.transactionExists(aggregateId, transactionId);
+        }
+
+        @Override
+        public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+            return delegate.findTransactions(aggregateId, transactionIds);
+        }
+
+        @Override
+        public AggregateHistory<AccountEvent> loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+            return delegate.loadAggregate(aggregateId, fromVersion, transactionId);
+        }
+    }
+}
@@ -7,6 +7,8 @@ import lt.rieske.accounts.domain.AtomicOperation;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+import java.util.List;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -14,6 +16,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 public abstract class IdempotencyTest {
 
     private AggregateRepository<Account, AccountEvent> accountRepository;
+    private AggregateRepository<Account, AccountEvent> cachingAccountRepository;
 
     protected abstract EventStore<AccountEvent> getEventStore();
 
@@ -22,6 +25,8 @@ public abstract class IdempotencyTest {
     @BeforeEach
     void init() {
         accountRepository = ApiConfiguration.accountRepository(getEventStore());
+        cachingAccountRepository = ApiConfiguration.cachingAccountRepository(
+                getEventStore(), 5, ApiConfiguration.accountCache(100, Duration.ofMinutes(1)));
     }
 
     @Test
@@ -70,4 +75,64 @@ public abstract class IdempotencyTest {
         var targetAccount = accountRepository.query(targetAccountId);
         assertThat(targetAccount.balance()).isEqualTo(60);
     }
+
+    @Test
+    void transactionShouldBeIdempotentWithCachedAggregate() {
+        var accountId = UUID.randomUUID();
+        cachingAccountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+
+        var transactionId = UUID.randomUUID();
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(10);
+    }
+
+    @Test
+    void transactionAppliedBeforeTheSnapshotShouldBeIdempotentWithCachedAggregate() {
+        var accountId = UUID.randomUUID();
+        accountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        var transactionId = UUID.randomUUID();
+        accountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+        var snapshottingRepository = ApiConfiguration.snapshottingAccountRepository(getEventStore(), 5);
+        for (int i = 0; i < 5; i++) {
+            snapshottingRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+        }
+
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(15);
+    }
+
+    @Test
+    void transactionAppliedPastTheCacheShouldBeIdempotent() {
+        var accountId = UUID.randomUUID();
+        cachingAccountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        cachingAccountRepository.transact(accountId, UUID.randomUUID(), AtomicOperation.deposit(1));
+
+        var transactionId = UUID.randomUUID();
+        accountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+        cachingAccountRepository.transact(accountId, transactionId, AtomicOperation.deposit(10));
+
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(11);
+    }
+
+    @Test
+    void batchedTransactionsShouldBeIdempotentWithCachedAggregate() {
+        var accountId = UUID.randomUUID();
+        cachingAccountRepository.create(accountId, UUID.randomUUID(), AtomicOperation.open(ownerId));
+        var transactionId1 = UUID.randomUUID();
+        var transactionId2 = UUID.randomUUID();
+        cachingAccountRepository.transact(accountId, transactionId1, AtomicOperation.deposit(10));
+        cachingAccountRepository.transact(accountId, transactionId2, AtomicOperation.deposit(20));
+
+        var failures = cachingAccountRepository.transact(accountId, List.of(
+                new AggregateTransaction<>(UUID.randomUUID(), AtomicOperation.deposit(1)),
+                new AggregateTransaction<>(transactionId1, AtomicOperation.deposit(10)),
+                new AggregateTransaction<>(transactionId2, AtomicOperation.deposit(20))));
+
+        assertThat(failures).containsExactly(null, null, null);
+        assertThat(accountRepository.query(accountId).balance()).isEqualTo(31);
+    }
 }
@@ -0,0 +1,118 @@
+package lt.rieske.accounts.eventstore;
+
+import io.github.rieske.dbtest.extension.DatabaseTestExtension;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PostgresEventNotificationsIntegrationTest {
+
+    @RegisterExtension
+    public final DatabaseTestExtension database = new PostgresqlEventStoreIntegrationTests.PostgresEventStoreExtension();
+
+    private final BlockingQueue<EventsAppended> notified = new LinkedBlockingQueue<>();
+
+    private PostgresEventStore eventStore;
+    private EventNotifications notifications;
+
+    @BeforeEach
+    void startListening() throws InterruptedException {
+        eventStore = new PostgresEventStore(database.getDataSource(), database.getDataSource());
+        notifications = new EventNotifications(database.getDataSource(), eventStore);
+        notifications.addListener(notified::add);
+        notifications.start();
+        awaitListening();
+    }
+
+    @AfterEach
+    void stopListening() {
+        notifications.close();
+        eventStore.close();
+    }
+
+    @Test
+    void shouldNotifyOfAppendsDoneByOtherStores() throws InterruptedException {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId1, 1, UUID.randomUUID(), "1".getBytes()),
+                        new SerializedEvent(aggregateId1, 2, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId2, 1, UUID.randomUUID(), "3".getBytes())),
+                List.of(), UUID.randomUUID());
+
+        assertThat(notified.poll(5, TimeUnit.SECONDS))
+                .isEqualTo(new EventsAppended(3, Map.of(aggregateId1, 2L, aggregateId2, 1L)));
+    }
+
+    @Test
+    void shouldWakeUpSubscriptionsOnNotifiedAppend() throws InterruptedException {
+        BlockingQueue<List<PositionedEvent>> batches = new LinkedBlockingQueue<>();
+        try (var otherStore = new PostgresEventStore(database.getDataSource(), database.getDataSource());
+             var subscription = otherStore.subscribe(0, 10, batches::add)) {
+            while (!subscription.isLive()) {
+                Thread.sleep(1);
+            }
+
+            eventStore.append(List.of(new SerializedEvent(UUID.randomUUID(), 1, UUID.randomUUID(), "1".getBytes())),
+                    List.of(), UUID.randomUUID());
+
+            // well within the poll interval
+            assertThat(batches.poll(500, TimeUnit.MILLISECONDS)).hasSize(1);
+        }
+    }
+
+    @Test
+    void shouldReadAppendsToTooManyAggregatesFromTheLog() throws InterruptedException {
+        var events = new ArrayList<SerializedEvent>();
+        for (int i = 0; i < 150; i++) {
+            events.add(new SerializedEvent(UUID.randomUUID(), 1, UUID.randomUUID(), "1".getBytes()));
+        }
+
+        eventStore.append(events, List.of(), UUID.randomUUID());
+
+        var eventsAppended = notified.poll(5, TimeUnit.SECONDS);
+        assertThat(eventsAppended.position()).isEqualTo(150);
+        assertThat(eventsAppended.aggregateVersions()).hasSize(150);
+    }
+
+    @Test
+    void shouldCatchUpWithAppendsMissedWhileDisconnected() throws SQLException, InterruptedException {
+        var aggregateId = UUID.randomUUID();
+        terminateOtherConnections();
+
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())),
+                List.of(), UUID.randomUUID());
+
+        assertThat(notified.poll(10, TimeUnit.SECONDS)).isEqualTo(new EventsAppended(1, Map.of(aggregateId, 1L)));
+        awaitListening();
+    }
+
+    private void awaitListening() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!notifications.isListening() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertThat(notifications.isListening()).isTrue();
+    }
+
+    private void terminateOtherConnections() throws SQLException {
+        try (var connection = database.getDataSource().getConnection();
+             var statement = connection.prepareStatement(
+                     "SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = current_database() AND pid <> pg_backend_pid()")) {
+            statement.executeQuery().close();
+        }
+    }
+}
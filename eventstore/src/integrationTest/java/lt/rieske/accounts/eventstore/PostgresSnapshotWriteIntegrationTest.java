@@ -0,0 +1,197 @@
+package lt.rieske.accounts.eventstore;
+
+import io.github.rieske.dbtest.extension.DatabaseTestExtension;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Rewrites the snapshots of a number of aggregates and checks how the rows are written - through the table statistics
+// of PostgreSQL that tell inserts, updates and deletes apart - and what is left in the tables afterwards. The delete and
+// insert the snapshots used to be written with is kept as the baseline the dead rows are compared to.
+class PostgresSnapshotWriteIntegrationTest {
+
+    private static final int AGGREGATES = 100;
+    private static final int SNAPSHOTS_PER_AGGREGATE = 50;
+    private static final int HISTORY_SIZE = 10;
+    private static final byte[] PAYLOAD = new byte[256];
+
+    // the single row layout as it was written before the upsert
+    private static final String DELETE_SNAPSHOT_SQL = "DELETE FROM Snapshot WHERE aggregateId = ?";
+    private static final String INSERT_SNAPSHOT_SQL = "INSERT INTO Snapshot(aggregateId, sequenceNumber, payload) VALUES(?, ?, ?)";
+
+    private static final String TABLE_STATS_SQL =
+            "SELECT n_tup_ins, n_tup_upd, n_tup_del FROM pg_stat_user_tables WHERE relname = ?";
+    private static final String SNAPSHOT_VERSIONS_SQL =
+            "SELECT COUNT(*), MIN(sequenceNumber), MAX(sequenceNumber) FROM Snapshot";
+    private static final String SNAPSHOT_HISTORY_VERSIONS_SQL =
+            "SELECT aggregateId, COUNT(*), MIN(sequenceNumber), MAX(sequenceNumber) FROM SnapshotHistory GROUP BY aggregateId";
+
+    @RegisterExtension
+    public final DatabaseTestExtension database = new PostgresqlEventStoreIntegrationTests.PostgresEventStoreExtension();
+
+    private record TableStats(long inserts, long updates, long deletes) {
+    }
+
+    private record Versions(long rows, long min, long max) {
+    }
+
+    @Test
+    void deleteAndInsertBaselineLeavesDeletedRowsBehind() throws SQLException, InterruptedException {
+        writeSnapshots(snapshot -> {
+            try (var connection = database.getDataSource().getConnection()) {
+                connection.setAutoCommit(false);
+                try (var delete = connection.prepareStatement(DELETE_SNAPSHOT_SQL);
+                     var insert = connection.prepareStatement(INSERT_SNAPSHOT_SQL)) {
+                    delete.setObject(1, snapshot.aggregateId());
+                    delete.executeUpdate();
+                    insert.setObject(1, snapshot.aggregateId());
+                    insert.setLong(2, snapshot.sequenceNumber());
+                    insert.setBytes(3, snapshot.payload());
+                    insert.executeUpdate();
+                }
+                connection.commit();
+            }
+        });
+
+        var snapshotStats = awaitTableStats("snapshot", AGGREGATES * SNAPSHOTS_PER_AGGREGATE);
+        assertThat(snapshotStats.inserts()).isEqualTo(AGGREGATES * SNAPSHOTS_PER_AGGREGATE);
+        assertThat(snapshotStats.deletes()).isEqualTo(AGGREGATES * (SNAPSHOTS_PER_AGGREGATE - 1));
+    }
+
+    @Test
+    void shouldUpsertConcurrentFirstSnapshotsOfAggregate() throws Exception {
+        var eventStore = new PostgresEventStore(database.getDataSource());
+        try (var executor = Executors.newFixedThreadPool(2)) {
+            for (int i = 0; i < AGGREGATES; i++) {
+                var aggregateId = UUID.randomUUID();
+                var start = new CyclicBarrier(2);
+                var writes = new ArrayList<Future<?>>();
+                for (int version = 1; version <= 2; version++) {
+                    var snapshot = new SerializedEvent(aggregateId, version, null, PAYLOAD);
+                    writes.add(executor.submit(() -> {
+                        start.await();
+                        eventStore.append(List.of(), List.of(snapshot), null);
+                        return null;
+                    }));
+                }
+                for (var write : writes) {
+                    write.get(10, TimeUnit.SECONDS);
+                }
+                assertThat(eventStore.loadLatestSnapshot(aggregateId).sequenceNumber()).isEqualTo(2);
+            }
+        }
+    }
+
+    @Test
+    void shouldUpdateLatestSnapshotInPlace() throws SQLException, InterruptedException {
+        var eventStore = new PostgresEventStore(database.getDataSource());
+
+        writeSnapshots(snapshot -> eventStore.append(List.of(), List.of(snapshot), null));
+
+        var snapshotStats = awaitTableStats("snapshot", AGGREGATES * SNAPSHOTS_PER_AGGREGATE);
+        assertThat(snapshotStats.inserts()).isEqualTo(AGGREGATES);
+        assertThat(snapshotStats.updates()).isEqualTo(AGGREGATES * (SNAPSHOTS_PER_AGGREGATE - 1));
+        assertThat(snapshotStats.deletes()).isZero();
+        assertThat(snapshotVersions()).isEqualTo(new Versions(AGGREGATES, SNAPSHOTS_PER_AGGREGATE, SNAPSHOTS_PER_AGGREGATE));
+        assertThat(countRows("SnapshotHistory")).isZero();
+    }
+
+    @Test
+    void shouldPruneSnapshotHistoryToConfiguredSize() throws SQLException, InterruptedException {
+        var eventStore = new PostgresEventStore(database.getDataSource(), null, HISTORY_SIZE);
+
+        writeSnapshots(snapshot -> eventStore.append(List.of(), List.of(snapshot), null));
+
+        var snapshotStats = awaitTableStats("snapshot", AGGREGATES * SNAPSHOTS_PER_AGGREGATE);
+        var historyStats = awaitTableStats("snapshothistory", AGGREGATES * SNAPSHOTS_PER_AGGREGATE);
+        assertThat(snapshotStats.deletes()).isZero();
+        assertThat(historyStats.inserts()).isEqualTo(AGGREGATES * SNAPSHOTS_PER_AGGREGATE);
+        assertThat(historyStats.deletes()).isEqualTo(AGGREGATES * (SNAPSHOTS_PER_AGGREGATE - HISTORY_SIZE));
+        assertThat(snapshotVersions()).isEqualTo(new Versions(AGGREGATES, SNAPSHOTS_PER_AGGREGATE, SNAPSHOTS_PER_AGGREGATE));
+        var historyVersions = snapshotHistoryVersions();
+        assertThat(historyVersions).hasSize(AGGREGATES);
+        assertThat(historyVersions).allSatisfy(versions -> assertThat(versions).isEqualTo(
+                new Versions(HISTORY_SIZE, SNAPSHOTS_PER_AGGREGATE - HISTORY_SIZE + 1, SNAPSHOTS_PER_AGGREGATE)));
+    }
+
+    @FunctionalInterface
+    private interface SnapshotWriter {
+        void write(SerializedEvent snapshot) throws SQLException;
+    }
+
+    // every aggregate gets a newer snapshot in each round, one transaction per snapshot
+    private static void writeSnapshots(SnapshotWriter writer) throws SQLException {
+        var aggregateIds = new ArrayList<UUID>(AGGREGATES);
+        for (int i = 0; i < AGGREGATES; i++) {
+            aggregateIds.add(UUID.randomUUID());
+        }
+        for (int version = 1; version <= SNAPSHOTS_PER_AGGREGATE; version++) {
+            for (var aggregateId : aggregateIds) {
+                writer.write(new SerializedEvent(aggregateId, version, null, PAYLOAD));
+            }
+        }
+    }
+
+    // statistics are reported by the backends asynchronously - waiting until all the written rows are accounted for
+    private TableStats awaitTableStats(String table, long writtenRows) throws SQLException, InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (true) {
+            var stats = tableStats(table);
+            if (stats.inserts() + stats.updates() >= writtenRows || System.nanoTime() - deadline > 0) {
+                return stats;
+            }
+            Thread.sleep(100);
+        }
+    }
+
+    private TableStats tableStats(String table) throws SQLException {
+        try (var connection = database.getDataSource().getConnection();
+             var statement = connection.prepareStatement(TABLE_STATS_SQL)) {
+            statement.setString(1, table);
+            try (var resultSet = statement.executeQuery()) {
+                assertThat(resultSet.next()).isTrue();
+                return new TableStats(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3));
+            }
+        }
+    }
+
+    private Versions snapshotVersions() throws SQLException {
+        try (var connection = database.getDataSource().getConnection();
+             var statement = connection.prepareStatement(SNAPSHOT_VERSIONS_SQL);
+             var resultSet = statement.executeQuery()) {
+            assertThat(resultSet.next()).isTrue();
+            return new Versions(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3));
+        }
+    }
+
+    private List<Versions> snapshotHistoryVersions() throws SQLException {
+        try (var connection = database.getDataSource().getConnection();
+             var statement = connection.prepareStatement(SNAPSHOT_HISTORY_VERSIONS_SQL);
+             var resultSet = statement.executeQuery()) {
+            var versions = new ArrayList<Versions>();
+            while (resultSet.next()) {
+                versions.add(new Versions(resultSet.getLong(2), resultSet.getLong(3), resultSet.getLong(4)));
+            }
+            return versions;
+        }
+    }
+
+    private long countRows(String table) throws SQLException {
+        try (var connection = database.getDataSource().getConnection();
+             var statement = connection.prepareStatement("SELECT COUNT(*) FROM " + table);
+             var resultSet = statement.executeQuery()) {
+            assertThat(resultSet.next()).isTrue();
+            return resultSet.getLong(1);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package lt.rieske.accounts.eventstore;
+
+import java.util.UUID;
+
+
+// The current state of an account as of the given version, kept up to date along with the account's events.
+public record AccountView(
+        UUID accountId,
+        UUID ownerId,
+        long balance,
+        boolean open,
+        long version
+) {
+}
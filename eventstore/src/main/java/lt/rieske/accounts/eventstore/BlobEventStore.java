@@ -1,15 +1,88 @@
 package lt.rieske.accounts.eventstore;
 
+import java.time.Instant;
 import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 
 public interface BlobEventStore {
     void append(Collection<SerializedEvent> serializedEvents, Collection<SerializedEvent> serializedSnapshots, UUID transactionId);
 
-    List<SerializedEvent> getEvents(UUID aggregateId, long fromVersion);
+    // Appends the same way, also upserting the given account views within the same transaction -
+    // an older view never replaces a newer one. Stores that do not keep account views only append.
+    default void append(
+            Collection<SerializedEvent> serializedEvents,
+            Collection<SerializedEvent> serializedSnapshots,
+            Collection<AccountView> accountViews,
+            UUID transactionId) {
+        append(serializedEvents, serializedSnapshots, transactionId);
+    }
+
+    // null if the store has no view of the account
+    default AccountView loadAccountView(UUID accountId) {
+        return null;
+    }
+
+    // The stream holds on to store resources until it is fully consumed or closed - close it when reading only a part of it.
+    default Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion) {
+        return getEvents(aggregateId, fromVersion, Long.MAX_VALUE);
+    }
+
+    // Events with sequence numbers after fromVersion, up to and including toVersion.
+    Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion, long toVersion);
     SerializedEvent loadLatestSnapshot(UUID aggregateId);
 
+    // The latest snapshot at or before the given version, null if there is none. Stores that keep a history of
+    // snapshots find older ones in it, others only have the latest snapshot.
+    default SerializedEvent loadSnapshot(UUID aggregateId, long atVersion) {
+        var snapshot = loadLatestSnapshot(aggregateId);
+        return snapshot != null && snapshot.sequenceNumber() <= atVersion ? snapshot : null;
+    }
+
+    // Whether the store records the times of the appends - only those can tell the version an aggregate had at a time.
+    default boolean recordsEventTimes() {
+        return false;
+    }
+
+    // The version the aggregate had at the given time - the sequence number of its last event appended by then, 0 if none.
+    // Only stores that record the times of the appends can tell - an IllegalArgumentException if the time precedes
+    // the times the store knows of the aggregate.
+    default long versionAt(UUID aggregateId, Instant time) {
+        throw new UnsupportedOperationException("The event store does not record the times of the events");
+    }
+
+    // Events of all the aggregates in commit order - at most maxEvents of them, positioned after the given position.
+    // Positions start at 1 and grow by one with each event - a reader resuming from the last position it has seen
+    // does not miss an event committed after it has read.
+    List<PositionedEvent> getEventsAfter(long position, int maxEvents);
+
+    // Hands the events positioned after fromPosition over to the consumer, batchSize events at a time, first catching up
+    // with the log, then tailing it. Stores wake their subscriptions up on append, this one only polls for new events.
+    default EventSubscription subscribe(long fromPosition, int batchSize, Consumer<List<PositionedEvent>> consumer) {
+        var subscription = new EventSubscription(this, fromPosition, batchSize, EventSubscription.POLL_INTERVAL, consumer, s -> {
+        });
+        subscription.start();
+        return subscription;
+    }
+
+    // Registers a listener to the appends done by any process sharing the store, as they get committed.
+    // Returns false if the store can not tell about the appends of other processes - the listener is not registered then.
+    default boolean addAppendListener(Consumer<EventsAppended> listener) {
+        return false;
+    }
+
     boolean transactionExists(UUID aggregateId, UUID transactionId);
+
+    // Which of the given transactions have been applied to the aggregate - one lookup for a whole batch of transactions.
+    Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds);
+
+    // Everything needed to rebuild an aggregate from the given version in a single exchange with the store:
+    // the latest snapshot if it is newer than fromVersion, the events after the snapshot or fromVersion, whichever is later,
+    // and whether the given transaction (if not null) has been applied to the aggregate.
+    // The events are held in memory - unlike getEvents, this does not stream, so the history should be bounded by snapshots.
+    SerializedAggregateHistory loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId);
 }
@@ -0,0 +1,214 @@
+package lt.rieske.accounts.eventstore;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Receives the notifications PostgreSQL event stores send out on append and hands them over to the listeners in this
+ * process - every process sharing the database gets to know about an append within milliseconds of its commit, without
+ * polling the event log.
+ * <p>
+ * Notification payload: position( aggregateId:version)* - the log position the append reached and the latest version of
+ * each aggregate appended to. An append to more aggregates than fit into a notification only sends the position.
+ * <p>
+ * Notifications that arrive together are merged into one. The ones sent while the connection was down are lost -
+ * after reconnecting, the appends since the last notified position are read from the event log instead, as are the
+ * appends that only sent the position.
+ */
+class EventNotifications implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EventNotifications.class);
+
+    static final String CHANNEL = "event_appended";
+    private static final int MAX_NOTIFIED_AGGREGATES = 100;
+
+    private static final String SELECT_LOG_HEAD_SQL = "SELECT position FROM EventLogHead";
+    private static final int RECEIVE_TIMEOUT_MILLIS = 500;
+    private static final Duration RECONNECT_DELAY = Duration.ofSeconds(1);
+    private static final int CATCH_UP_BATCH_SIZE = 1000;
+
+    private final DataSource dataSource;
+    private final BlobEventStore eventStore;
+    private final List<Consumer<EventsAppended>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean listening;
+
+    // the last position the listeners got to know about - only accessed by the listening thread
+    private long position = -1;
+
+    // the connections of the data source are held on to for as long as the listening goes on - it should not be pooled
+    EventNotifications(DataSource dataSource, BlobEventStore eventStore) {
+        this.dataSource = dataSource;
+        this.eventStore = eventStore;
+        this.thread = Thread.ofVirtual().name("event-notifications").unstarted(this::run);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void addListener(Consumer<EventsAppended> listener) {
+        listeners.add(listener);
+    }
+
+    boolean isListening() {
+        return listening;
+    }
+
+    // waits for the notifications being received to be handed over
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // " aggregateId:version" for the latest version of each aggregate appended to - the position is prepended in SQL
+    static String notifiedVersions(Collection<SerializedEvent> events) {
+        Map<UUID, Long> versions = new LinkedHashMap<>();
+        for (var event : events) {
+            versions.merge(event.aggregateId(), event.sequenceNumber(), Math::max);
+        }
+        if (versions.size() > MAX_NOTIFIED_AGGREGATES) {
+            return "";
+        }
+        var payload = new StringBuilder(versions.size() * 48);
+        versions.forEach((aggregateId, version) -> payload.append(' ').append(aggregateId).append(':').append(version));
+        return payload.toString();
+    }
+
+    static long notifiedPosition(String payload) {
+        int separator = payload.indexOf(' ');
+        return Long.parseLong(separator < 0 ? payload : payload.substring(0, separator));
+    }
+
+    // merges the notified versions into the given ones - false if the notification only carries the position
+    static boolean mergeNotifiedVersions(String payload, Map<UUID, Long> versions) {
+        int separator = payload.indexOf(' ');
+        if (separator < 0) {
+            return false;
+        }
+        for (var entry : payload.substring(separator + 1).split(" ")) {
+            int colon = entry.indexOf(':');
+            versions.merge(UUID.fromString(entry.substring(0, colon)), Long.parseLong(entry.substring(colon + 1)), Math::max);
+        }
+        return true;
+    }
+
+    private void run() {
+        while (running) {
+            try (var connection = dataSource.getConnection()) {
+                listen(connection);
+            } catch (SQLException | RuntimeException e) {
+                if (running) {
+                    log.warn("Event notifications connection lost, reconnecting in {}", RECONNECT_DELAY, e);
+                    LockSupport.parkNanos(RECONNECT_DELAY.toNanos());
+                }
+            }
+        }
+    }
+
+    private void listen(Connection connection) throws SQLException {
+        var pgConnection = connection.unwrap(PGConnection.class);
+        try (var statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+        // the appends committed from here on get notified, the ones missed while not listening are read from the log
+        long head = logHead(connection);
+        if (position < 0) {
+            position = head;
+        } else {
+            catchUp(head);
+        }
+        log.info("Listening for event notifications from position {}", position);
+        listening = true;
+        try {
+            while (running) {
+                var notifications = pgConnection.getNotifications(RECEIVE_TIMEOUT_MILLIS);
+                if (notifications != null && notifications.length > 0) {
+                    received(notifications);
+                }
+            }
+        } finally {
+            listening = false;
+        }
+    }
+
+    // notifications come in commit order - the ones up to the known position have been caught up with from the log
+    private void received(PGNotification[] notifications) {
+        long lastPosition = position;
+        Map<UUID, Long> versions = new HashMap<>();
+        boolean complete = true;
+        for (var notification : notifications) {
+            var payload = notification.getParameter();
+            long notifiedPosition = notifiedPosition(payload);
+            if (notifiedPosition > lastPosition) {
+                lastPosition = notifiedPosition;
+                complete &= mergeNotifiedVersions(payload, versions);
+            }
+        }
+        if (lastPosition == position) {
+            return;
+        }
+        if (complete) {
+            position = lastPosition;
+            notifyListeners(new EventsAppended(lastPosition, versions));
+        } else {
+            catchUp(lastPosition);
+        }
+    }
+
+    private void catchUp(long toPosition) {
+        while (position < toPosition) {
+            var events = eventStore.getEventsAfter(position, (int) Math.min(CATCH_UP_BATCH_SIZE, toPosition - position));
+            if (events.isEmpty()) {
+                return;
+            }
+            Map<UUID, Long> versions = new HashMap<>();
+            for (var event : events) {
+                versions.merge(event.event().aggregateId(), event.event().sequenceNumber(), Math::max);
+            }
+            position = events.getLast().position();
+            notifyListeners(new EventsAppended(position, versions));
+        }
+    }
+
+    private void notifyListeners(EventsAppended eventsAppended) {
+        for (var listener : listeners) {
+            try {
+                listener.accept(eventsAppended);
+            } catch (RuntimeException e) {
+                log.warn("Event notification listener failed at position {}", eventsAppended.position(), e);
+            }
+        }
+    }
+
+    private static long logHead(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement();
+             var resultSet = statement.executeQuery(SELECT_LOG_HEAD_SQL)) {
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+}
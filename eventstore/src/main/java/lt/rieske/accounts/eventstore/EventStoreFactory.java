@@ -6,6 +6,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.nio.file.Path;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.util.function.Function;
@@ -14,21 +15,48 @@ public final class EventStoreFactory {
 
     private static final Logger log = LoggerFactory.getLogger(EventStoreFactory.class);
 
+    private static final long EVENT_LOG_SEGMENT_SIZE = 64L * 1024 * 1024;
+
     private EventStoreFactory() {
     }
 
     public static BlobEventStore makeEventStore(String jdbcUrl, String username, String password, Function<DataSource, DataSource> initializer) {
-        return postgresEventStore(jdbcUrl, username, password, initializer);
+        return makeEventStore(jdbcUrl, username, password, initializer, 0, false, false);
+    }
+
+    // snapshotHistorySize latest snapshots of each aggregate are kept, none when 0. With the event log, the events of
+    // all the aggregates get positioned in commit order at the cost of serializing the appends. Append notifications
+    // need the event log - each append notifies every listening process, under the database wide notification queue lock
+    public static BlobEventStore makeEventStore(
+            String jdbcUrl, String username, String password, Function<DataSource, DataSource> initializer,
+            int snapshotHistorySize, boolean eventLog, boolean notifyAppends) {
+        return postgresEventStore(
+                postgresDataSource(jdbcUrl, username, password), initializer, eventLog, notifyAppends, snapshotHistorySize);
     }
 
-    static BlobEventStore postgresEventStore(String jdbcUrl, String username, String password, Function<DataSource, DataSource> initializer) {
-        return postgresEventStore(postgresDataSource(jdbcUrl, username, password), initializer);
+    // fsyncInterval only applies to the INTERVAL policy
+    public static BlobEventStore makeSegmentedLogEventStore(Path directory, FsyncPolicy fsyncPolicy, Duration fsyncInterval) {
+        return segmentedLogEventStore(directory, EVENT_LOG_SEGMENT_SIZE, fsyncPolicy, fsyncInterval);
+    }
+
+    static SegmentedLogEventStore segmentedLogEventStore(Path directory, long segmentSize, FsyncPolicy fsyncPolicy, Duration fsyncInterval) {
+        log.info("Creating segmented log event store in {} with {} fsync policy", directory, fsyncPolicy);
+        return new SegmentedLogEventStore(directory, segmentSize, fsyncPolicy, fsyncInterval);
     }
 
     static BlobEventStore postgresEventStore(DataSource dataSource, Function<DataSource, DataSource> initializer) {
-        log.info("Creating PostgreSQL event store");
+        return postgresEventStore(dataSource, initializer, true, false, 0);
+    }
+
+    // notifications need a real PostgreSQL database - they listen on a dedicated connection of the unpooled data source
+    static BlobEventStore postgresEventStore(
+            DataSource dataSource, Function<DataSource, DataSource> initializer,
+            boolean eventLog, boolean notifyAppends, int snapshotHistorySize) {
+        log.info("Creating PostgreSQL event store, event log {}, append notifications {}, snapshot history size {}",
+                eventLog ? "enabled" : "disabled", notifyAppends ? "enabled" : "disabled", snapshotHistorySize);
         migrateDatabase(dataSource);
-        return new PostgresEventStore(initializer.apply(dataSource));
+        return new PostgresEventStore(
+                initializer.apply(dataSource), notifyAppends ? dataSource : null, snapshotHistorySize, eventLog);
     }
 
     private static DataSource postgresDataSource(String jdbcUrl, String username, String password) {
@@ -36,6 +64,7 @@ public final class EventStoreFactory {
         dataSource.setUrl(jdbcUrl);
         dataSource.setUser(username);
         dataSource.setPassword(password);
+        dataSource.setReWriteBatchedInserts(true);
         return dataSource;
     }
 
@@ -0,0 +1,135 @@
+package lt.rieske.accounts.eventstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Subscription to the events of all aggregates, in commit order.
+ * <p>
+ * Events are read in batches on a dedicated thread and handed over to the consumer a batch at a time. While the batches
+ * come back full, the subscription is catching up with the log and reads the next batch right away. Once a batch comes
+ * back short, the subscription is live - it waits to be woken up by an append to the store, polling every poll interval
+ * for the appends it does not get to know about, i.e. the ones done by other processes.
+ * <p>
+ * The next batch is only read once the consumer returns - a slow consumer slows the subscription down instead of
+ * events piling up in memory.
+ * <p>
+ * A failed read is retried after the poll interval. A failed consumer closes the subscription - the batch it failed on
+ * would otherwise be handed to it over and over again. The consumer can resume from the position the subscription stopped at.
+ */
+public final class EventSubscription implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EventSubscription.class);
+
+    static final Duration POLL_INTERVAL = Duration.ofSeconds(1);
+
+    private final BlobEventStore eventStore;
+    private final int batchSize;
+    private final long pollIntervalNanos;
+    private final Consumer<List<PositionedEvent>> consumer;
+    private final Consumer<EventSubscription> onClose;
+    private final Thread thread;
+
+    private volatile long position;
+    private volatile boolean live;
+    private volatile boolean running = true;
+
+    EventSubscription(
+            BlobEventStore eventStore,
+            long fromPosition,
+            int batchSize,
+            Duration pollInterval,
+            Consumer<List<PositionedEvent>> consumer,
+            Consumer<EventSubscription> onClose) {
+        if (fromPosition < 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("Position can not be negative, batch size has to be positive");
+        }
+        this.eventStore = eventStore;
+        this.position = fromPosition;
+        this.batchSize = batchSize;
+        this.pollIntervalNanos = pollInterval.toNanos();
+        this.consumer = consumer;
+        this.onClose = onClose;
+        this.thread = Thread.ofVirtual().name("event-subscription").unstarted(this::run);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // a wake up that comes in before the subscription parks lets it through right away - it is never lost
+    void eventsAppended() {
+        LockSupport.unpark(thread);
+    }
+
+    // the position of the last event handed over to the consumer
+    public long position() {
+        return position;
+    }
+
+    // caught up with the log, waiting for new events
+    public boolean isLive() {
+        return live;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    // Waits for the batch being consumed, if any. Not interrupting the subscription thread -
+    // an interrupt would close the file channels of the segmented log in the middle of a read.
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // the subscription thread hands the subscription over to onClose however it stops - closed or failed
+    private void run() {
+        try {
+            poll();
+        } finally {
+            live = false;
+            onClose.accept(this);
+        }
+    }
+
+    private void poll() {
+        while (running) {
+            List<PositionedEvent> batch;
+            try {
+                batch = eventStore.getEventsAfter(position, batchSize);
+            } catch (RuntimeException e) {
+                log.warn("Could not read events after position {}, retrying", position, e);
+                LockSupport.parkNanos(this, pollIntervalNanos);
+                continue;
+            }
+            if (!batch.isEmpty()) {
+                try {
+                    consumer.accept(batch);
+                } catch (RuntimeException e) {
+                    log.error("Event consumer failed on events after position {}, closing the subscription", position, e);
+                    running = false;
+                    return;
+                }
+                position = batch.getLast().position();
+            }
+            live = batch.size() < batchSize;
+            if (live && running) {
+                LockSupport.parkNanos(this, pollIntervalNanos);
+            }
+        }
+    }
+}
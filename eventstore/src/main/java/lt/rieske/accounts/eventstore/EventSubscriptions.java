@@ -0,0 +1,33 @@
+package lt.rieske.accounts.eventstore;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// The open subscriptions to a store - woken up when events get appended to it.
+class EventSubscriptions {
+
+    private final Set<EventSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+
+    EventSubscription subscribe(
+            BlobEventStore eventStore, long fromPosition, int batchSize, Consumer<List<PositionedEvent>> consumer) {
+        var subscription = new EventSubscription(
+                eventStore, fromPosition, batchSize, EventSubscription.POLL_INTERVAL, consumer, subscriptions::remove);
+        subscriptions.add(subscription);
+        subscription.start();
+        return subscription;
+    }
+
+    void eventsAppended() {
+        for (var subscription : subscriptions) {
+            subscription.eventsAppended();
+        }
+    }
+
+    void close() {
+        for (var subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package lt.rieske.accounts.eventstore;
+
+import java.util.Map;
+import java.util.UUID;
+
+
+// The aggregates appended to, with their latest versions, up to the given log position.
+// Appends that follow each other closely may come merged into one.
+public record EventsAppended(
+        long position,
+        Map<UUID, Long> aggregateVersions
+) {
+}
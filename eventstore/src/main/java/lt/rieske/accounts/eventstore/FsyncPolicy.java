@@ -0,0 +1,19 @@
+package lt.rieske.accounts.eventstore;
+
+/**
+ * When the segmented log event store forces appended data to disk.
+ */
+public enum FsyncPolicy {
+    /**
+     * Every append is forced to disk before it returns.
+     */
+    PER_COMMIT,
+    /**
+     * Every append is durable when it returns, but concurrent appends share a single force.
+     */
+    GROUP,
+    /**
+     * Appends are forced to disk periodically in the background - a crash may lose the appends of the last interval.
+     */
+    INTERVAL
+}
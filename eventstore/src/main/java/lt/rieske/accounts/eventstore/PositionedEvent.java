@@ -0,0 +1,10 @@
+package lt.rieske.accounts.eventstore;
+
+
+// An event along with its position in the event log of the store - the order in which the events of all aggregates
+// were committed.
+public record PositionedEvent(
+        long position,
+        SerializedEvent event
+) {
+}
@@ -1,43 +1,166 @@
 package lt.rieske.accounts.eventstore;
 
-import org.postgresql.util.PSQLException;
-
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 
-class PostgresEventStore implements BlobEventStore {
+class PostgresEventStore implements BlobEventStore, AutoCloseable {
 
     private static final String UNIQUE_CONSTRAINT_VIOLATION_SQLSTATE = "23505";
 
+    // Positions are taken from the log head, the row lock of which is held until the commit - appends get
+    // their positions in commit order, and a reader never sees a position before the ones committed ahead of it.
+    // The same lock serializes all the appends of all the processes sharing the database, hence the log is optional.
+    private static final String ADVANCE_LOG_HEAD_SQL = "UPDATE EventLogHead SET position = position + ?";
+    // PostgreSQL only - the notification goes out on commit, it costs no extra round trip
+    private static final String ADVANCE_LOG_HEAD_AND_NOTIFY_SQL =
+            "WITH head AS (UPDATE EventLogHead SET position = position + ? RETURNING position) "
+                    + "SELECT pg_notify('" + EventNotifications.CHANNEL + "', CAST(position AS TEXT) || ?) FROM head";
     private static final String APPEND_EVENT_SQL =
+            "INSERT INTO Event(aggregateId, sequenceNumber, transactionId, payload, position) "
+                    + "VALUES(?, ?, ?, ?, (SELECT position FROM EventLogHead) - ?)";
+    private static final String APPEND_UNPOSITIONED_EVENT_SQL =
             "INSERT INTO Event(aggregateId, sequenceNumber, transactionId, payload) VALUES(?, ?, ?, ?)";
     private static final String SELECT_EVENTS_SQL =
-            "SELECT sequenceNumber, transactionId, payload FROM Event WHERE aggregateId = ? AND sequenceNumber > ? ORDER BY sequenceNumber ASC";
+            "SELECT sequenceNumber, transactionId, payload FROM Event WHERE aggregateId = ? AND sequenceNumber > ? AND sequenceNumber <= ? "
+                    + "ORDER BY sequenceNumber ASC";
+
+    private static final String SELECT_EVENTS_AFTER_POSITION_SQL =
+            "SELECT position, aggregateId, sequenceNumber, transactionId, payload FROM Event WHERE position > ? "
+                    + "ORDER BY position ASC LIMIT ?";
 
-    private static final String REMOVE_SNAPSHOT_SQL =
-            "DELETE FROM Snapshot WHERE aggregateId = ?";
+    // Upserts, a single statement instead of a DELETE and INSERT. Unlike MERGE, INSERT ... ON CONFLICT does not fail on
+    // concurrent inserts of the same key - it is what PostgreSQL gets. H2, which the tests run on, only has MERGE.
     private static final String STORE_SNAPSHOT_SQL =
-            "INSERT INTO Snapshot(aggregateId, sequenceNumber, payload) VALUES(?, ?, ?)";
+            "INSERT INTO Snapshot(aggregateId, sequenceNumber, payload) VALUES(?, ?, ?) "
+                    + "ON CONFLICT (aggregateId) DO UPDATE SET sequenceNumber = EXCLUDED.sequenceNumber, payload = EXCLUDED.payload "
+                    + "WHERE Snapshot.sequenceNumber < EXCLUDED.sequenceNumber";
+    private static final String H2_STORE_SNAPSHOT_SQL =
+            "MERGE INTO Snapshot s USING (VALUES (CAST(? AS UUID), CAST(? AS BIGINT), CAST(? AS BYTEA))) AS v(aggregateId, sequenceNumber, payload) "
+                    + "ON s.aggregateId = v.aggregateId "
+                    + "WHEN MATCHED AND s.sequenceNumber < v.sequenceNumber THEN UPDATE SET sequenceNumber = v.sequenceNumber, payload = v.payload "
+                    + "WHEN NOT MATCHED THEN INSERT (aggregateId, sequenceNumber, payload) VALUES (v.aggregateId, v.sequenceNumber, v.payload)";
+    private static final String STORE_SNAPSHOT_HISTORY_SQL =
+            "INSERT INTO SnapshotHistory(aggregateId, sequenceNumber, payload) VALUES(?, ?, ?) ON CONFLICT DO NOTHING";
+    // everything older than the Nth newest snapshot - nothing while there are fewer than N
+    private static final String PRUNE_SNAPSHOT_HISTORY_SQL =
+            "DELETE FROM SnapshotHistory WHERE aggregateId = ? AND sequenceNumber < "
+                    + "(SELECT sequenceNumber FROM SnapshotHistory WHERE aggregateId = ? ORDER BY sequenceNumber DESC LIMIT 1 OFFSET ?)";
+    private static final String STORE_ACCOUNT_VIEW_SQL =
+            "INSERT INTO AccountView(accountId, ownerId, balance, open, version) VALUES(?, ?, ?, ?, ?) "
+                    + "ON CONFLICT (accountId) DO UPDATE SET ownerId = EXCLUDED.ownerId, balance = EXCLUDED.balance, "
+                    + "open = EXCLUDED.open, version = EXCLUDED.version "
+                    + "WHERE AccountView.version < EXCLUDED.version";
+    private static final String H2_STORE_ACCOUNT_VIEW_SQL =
+            "MERGE INTO AccountView a USING (VALUES (CAST(? AS UUID), CAST(? AS UUID), CAST(? AS BIGINT), CAST(? AS BOOLEAN), CAST(? AS BIGINT))) "
+                    + "AS v(accountId, ownerId, balance, open, version) "
+                    + "ON a.accountId = v.accountId "
+                    + "WHEN MATCHED AND a.version < v.version THEN UPDATE SET ownerId = v.ownerId, balance = v.balance, open = v.open, version = v.version "
+                    + "WHEN NOT MATCHED THEN INSERT (accountId, ownerId, balance, open, version) "
+                    + "VALUES (v.accountId, v.ownerId, v.balance, v.open, v.version)";
+    private static final String SELECT_ACCOUNT_VIEW_SQL =
+            "SELECT ownerId, balance, open, version FROM AccountView WHERE accountId = ?";
     private static final String SELECT_SNAPSHOT_SQL =
             "SELECT sequenceNumber, payload FROM Snapshot WHERE aggregateId = ?";
+    // the latest snapshot might predate the history
+    private static final String SELECT_SNAPSHOT_AT_VERSION_SQL =
+            "SELECT sequenceNumber, payload FROM Snapshot WHERE aggregateId = ? AND sequenceNumber <= ? "
+                    + "UNION ALL "
+                    + "SELECT sequenceNumber, payload FROM SnapshotHistory WHERE aggregateId = ? AND sequenceNumber <= ? "
+                    + "ORDER BY sequenceNumber DESC LIMIT 1";
+    // events appended before their times got recorded have none - they are not matched
+    // along with the version at the time, the last version appended without a time, before the times got recorded
+    private static final String SELECT_VERSION_AT_TIME_SQL =
+            "SELECT MAX(CASE WHEN createdAt <= ? THEN sequenceNumber END), MAX(CASE WHEN createdAt IS NULL THEN sequenceNumber END) " +
+                    "FROM Event WHERE aggregateId = ?";
 
     private static final String SELECT_TRANSACTION_SQL =
             "SELECT aggregateId FROM Event WHERE aggregateId = ? AND transactionId = ?";
+    private static final String SELECT_TRANSACTIONS_SQL =
+            "SELECT DISTINCT transactionId FROM Event WHERE aggregateId = ? AND transactionId IN (%s)";
+
+    private static final int EVENT_FETCH_SIZE = 1000;
+
+    private static final int SNAPSHOT_RECORD = 0;
+    private static final int EVENT_RECORD = 1;
+    private static final int TRANSACTION_RECORD = 2;
+
+    // Snapshot, the events after it and the idempotency check in one statement - a single round trip
+    // and a single consistent view of the aggregate.
+    private static final String LOAD_AGGREGATE_SQL =
+            "SELECT " + SNAPSHOT_RECORD + ", sequenceNumber, CAST(NULL AS UUID), payload FROM Snapshot WHERE aggregateId = ? "
+                    + "AND sequenceNumber > ? "
+                    + "UNION ALL "
+                    + "SELECT " + EVENT_RECORD + ", sequenceNumber, transactionId, payload FROM Event WHERE aggregateId = ? "
+                    + "AND sequenceNumber > GREATEST(?, COALESCE((SELECT sequenceNumber FROM Snapshot WHERE aggregateId = ?), 0)) ";
+    private static final String LOAD_AGGREGATE_ORDER_SQL = "ORDER BY 1, 2";
+    private static final String LOAD_AGGREGATE_WITH_TRANSACTION_SQL = LOAD_AGGREGATE_SQL
+            + "UNION ALL "
+            + "SELECT " + TRANSACTION_RECORD + ", 0, CAST(NULL AS UUID), CAST(NULL AS BYTEA) "
+            + "WHERE EXISTS (SELECT 1 FROM Event WHERE aggregateId = ? AND transactionId = ?) "
+            + LOAD_AGGREGATE_ORDER_SQL;
 
     private final DataSource dataSource;
+    private final EventSubscriptions subscriptions = new EventSubscriptions();
+    private final EventNotifications notifications;
+    private final int snapshotHistorySize;
+    private final boolean eventLog;
 
     PostgresEventStore(DataSource dataSource) {
+        this(dataSource, null, 0);
+    }
+
+    PostgresEventStore(DataSource dataSource, DataSource notificationDataSource) {
+        this(dataSource, notificationDataSource, 0);
+    }
+
+    PostgresEventStore(DataSource dataSource, DataSource notificationDataSource, int snapshotHistorySize) {
+        this(dataSource, notificationDataSource, snapshotHistorySize, true);
+    }
+
+    // With a notification data source, appends notify all the processes sharing the database - PostgreSQL only.
+    // With a snapshot history size, that many latest snapshots of each aggregate are kept for point in time loads.
+    // Without the event log, appends do not contend on the log head, but the events are not positioned - they can
+    // not be read in commit order, subscribed to or notified about.
+    PostgresEventStore(DataSource dataSource, DataSource notificationDataSource, int snapshotHistorySize, boolean eventLog) {
+        if (snapshotHistorySize < 0) {
+            throw new IllegalArgumentException("Snapshot history size can not be negative: " + snapshotHistorySize);
+        }
+        if (notificationDataSource != null && !eventLog) {
+            throw new IllegalArgumentException("Append notifications need the event log");
+        }
         this.dataSource = dataSource;
+        this.snapshotHistorySize = snapshotHistorySize;
+        this.eventLog = eventLog;
+        if (notificationDataSource != null) {
+            this.notifications = new EventNotifications(notificationDataSource, this);
+            notifications.addListener(eventsAppended -> subscriptions.eventsAppended());
+            notifications.start();
+        } else {
+            this.notifications = null;
+        }
     }
 
     @Override
@@ -45,44 +168,116 @@ class PostgresEventStore implements BlobEventStore {
             Collection<SerializedEvent> serializedEvents,
             Collection<SerializedEvent> serializedSnapshots,
             UUID transactionId) {
+        append(serializedEvents, serializedSnapshots, List.of(), transactionId);
+    }
+
+    @Override
+    public void append(
+            Collection<SerializedEvent> serializedEvents,
+            Collection<SerializedEvent> serializedSnapshots,
+            Collection<AccountView> accountViews,
+            UUID transactionId) {
 
         try (var connection = dataSource.getConnection()) {
             connection.setAutoCommit(false);
             try {
-                insertEvents(connection, serializedEvents);
+                // the events go last - the log head stays locked from positioning them until the commit
                 updateSnapshots(connection, serializedSnapshots);
+                updateSnapshotHistory(connection, serializedSnapshots);
+                updateAccountViews(connection, accountViews);
+                insertEvents(connection, serializedEvents);
                 connection.commit();
             } catch (SQLException e) {
                 connection.rollback();
                 throw e;
             }
-        } catch (SQLIntegrityConstraintViolationException e) {
-            throw new ConcurrentModificationException(e);
-        } catch (PSQLException e) {
-            if (e.getSQLState().equals(UNIQUE_CONSTRAINT_VIOLATION_SQLSTATE)) {
+        } catch (SQLException e) {
+            if (isConstraintViolation(e)) {
                 throw new ConcurrentModificationException(e);
             }
             throw new UncheckedIOException(new IOException(e));
+        }
+        if (!serializedEvents.isEmpty()) {
+            subscriptions.eventsAppended();
+        }
+    }
+
+    // Events are read through a cursor, EVENT_FETCH_SIZE rows at a time, for as long as the stream is being consumed.
+    // The connection is held until the stream is exhausted or closed.
+    @Override
+    public Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+        var cursor = new EventCursor(aggregateId);
+        try {
+            cursor.open(dataSource, fromVersion, toVersion);
         } catch (SQLException e) {
-            throw new UncheckedIOException(new IOException(e));
+            throw cursor.closeAfter(e);
         }
+        return StreamSupport.stream(cursor, false).onClose(cursor::close);
     }
 
     @Override
-    public List<SerializedEvent> getEvents(UUID aggregateId, long fromVersion) {
+    public List<PositionedEvent> getEventsAfter(long position, int maxEvents) {
+        ensureEventLog();
         try (var connection = dataSource.getConnection();
-             var statement = connection.prepareStatement(SELECT_EVENTS_SQL)) {
-            statement.setObject(1, aggregateId);
-            statement.setLong(2, fromVersion);
+             var statement = connection.prepareStatement(SELECT_EVENTS_AFTER_POSITION_SQL)) {
+            statement.setLong(1, position);
+            statement.setInt(2, maxEvents);
             try (var resultSet = statement.executeQuery()) {
-                List<SerializedEvent> eventPayloads = new ArrayList<>();
+                List<PositionedEvent> events = new ArrayList<>();
                 while (resultSet.next()) {
-                    eventPayloads.add(new SerializedEvent(aggregateId,
-                            resultSet.getLong(1),
+                    events.add(new PositionedEvent(resultSet.getLong(1), new SerializedEvent(
                             resultSet.getObject(2, UUID.class),
-                            resultSet.getBytes(3)));
+                            resultSet.getLong(3),
+                            resultSet.getObject(4, UUID.class),
+                            resultSet.getBytes(5))));
+                }
+                return events;
+            }
+        } catch (SQLException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    // Appends done by this store wake the subscriptions up, as do the notified appends done elsewhere.
+    // Without notifications, the appends done elsewhere are polled for.
+    @Override
+    public EventSubscription subscribe(long fromPosition, int batchSize, Consumer<List<PositionedEvent>> consumer) {
+        ensureEventLog();
+        return subscriptions.subscribe(this, fromPosition, batchSize, consumer);
+    }
+
+    @Override
+    public boolean addAppendListener(Consumer<EventsAppended> listener) {
+        if (notifications == null) {
+            return false;
+        }
+        notifications.addListener(listener);
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if (notifications != null) {
+            notifications.close();
+        }
+        subscriptions.close();
+    }
+
+    @Override
+    public AccountView loadAccountView(UUID accountId) {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(SELECT_ACCOUNT_VIEW_SQL)) {
+            statement.setObject(1, accountId);
+            try (var resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new AccountView(accountId,
+                            resultSet.getObject(1, UUID.class),
+                            resultSet.getLong(2),
+                            resultSet.getBoolean(3),
+                            resultSet.getLong(4));
+                } else {
+                    return null;
                 }
-                return eventPayloads;
             }
         } catch (SQLException e) {
             throw new UncheckedIOException(new IOException(e));
@@ -109,6 +304,60 @@ class PostgresEventStore implements BlobEventStore {
         }
     }
 
+    @Override
+    public SerializedEvent loadSnapshot(UUID aggregateId, long atVersion) {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(SELECT_SNAPSHOT_AT_VERSION_SQL)) {
+            statement.setObject(1, aggregateId);
+            statement.setLong(2, atVersion);
+            statement.setObject(3, aggregateId);
+            statement.setLong(4, atVersion);
+            try (var resultSet = statement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new SerializedEvent(aggregateId,
+                            resultSet.getLong(1),
+                            null,
+                            resultSet.getBytes(2));
+                } else {
+                    return null;
+                }
+            }
+        } catch (SQLException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    // The time of an event is the start of the transaction that appended it - the event only became visible at its commit.
+    // Events stored before the times were recorded have none - they precede all the timed events of their aggregate, so
+    // only the times before the first timed event of such an aggregate can not be told.
+    @Override
+    public boolean recordsEventTimes() {
+        return true;
+    }
+
+    @Override
+    public long versionAt(UUID aggregateId, Instant time) {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(SELECT_VERSION_AT_TIME_SQL)) {
+            statement.setObject(1, OffsetDateTime.ofInstant(time, ZoneOffset.UTC));
+            statement.setObject(2, aggregateId);
+            try (var resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return 0;
+                }
+                long version = resultSet.getLong(1);
+                long untimedVersion = resultSet.getLong(2);
+                if (version == 0 && untimedVersion != 0) {
+                    throw new IllegalArgumentException("The times of the events of aggregate " + aggregateId +
+                            " up to version " + untimedVersion + " are not known, its version at " + time + " can not be told");
+                }
+                return version;
+            }
+        } catch (SQLException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
     @Override
     public boolean transactionExists(UUID aggregateId, UUID transactionId) {
         try (var connection = dataSource.getConnection();
@@ -123,33 +372,270 @@ class PostgresEventStore implements BlobEventStore {
         }
     }
 
-    private static void insertEvents(Connection connection, Collection<SerializedEvent> events) throws SQLException {
+    @Override
+    public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+        if (transactionIds.isEmpty()) {
+            return Set.of();
+        }
+        var sql = SELECT_TRANSACTIONS_SQL.formatted(String.join(", ", Collections.nCopies(transactionIds.size(), "?")));
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(sql)) {
+            statement.setObject(1, aggregateId);
+            int parameterIndex = 2;
+            for (var transactionId : transactionIds) {
+                statement.setObject(parameterIndex++, transactionId);
+            }
+            try (var resultSet = statement.executeQuery()) {
+                Set<UUID> existingTransactions = new HashSet<>();
+                while (resultSet.next()) {
+                    existingTransactions.add(resultSet.getObject(1, UUID.class));
+                }
+                return existingTransactions;
+            }
+        } catch (SQLException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    // Unlike getEvents, the events are read into memory at once - the history is only as long as the events since the
+    // latest snapshot, which the snapshotting bounds. An aggregate that is never snapshotted is read in full.
+    @Override
+    public SerializedAggregateHistory loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+        var sql = transactionId != null ? LOAD_AGGREGATE_WITH_TRANSACTION_SQL : LOAD_AGGREGATE_SQL + LOAD_AGGREGATE_ORDER_SQL;
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(sql)) {
+            statement.setObject(1, aggregateId);
+            statement.setLong(2, fromVersion);
+            statement.setObject(3, aggregateId);
+            statement.setLong(4, fromVersion);
+            statement.setObject(5, aggregateId);
+            if (transactionId != null) {
+                statement.setObject(6, aggregateId);
+                statement.setObject(7, transactionId);
+            }
+            try (var resultSet = statement.executeQuery()) {
+                SerializedEvent snapshot = null;
+                List<SerializedEvent> events = new ArrayList<>();
+                boolean transactionExists = false;
+                while (resultSet.next()) {
+                    switch (resultSet.getInt(1)) {
+                        case SNAPSHOT_RECORD -> snapshot = new SerializedEvent(aggregateId,
+                                resultSet.getLong(2),
+                                null,
+                                resultSet.getBytes(4));
+                        case EVENT_RECORD -> events.add(new SerializedEvent(aggregateId,
+                                resultSet.getLong(2),
+                                resultSet.getObject(3, UUID.class),
+                                resultSet.getBytes(4)));
+                        case TRANSACTION_RECORD -> transactionExists = true;
+                        default -> throw new IllegalStateException("Unexpected record type: " + resultSet.getInt(1));
+                    }
+                }
+                return new SerializedAggregateHistory(snapshot, events, transactionExists);
+            }
+        } catch (SQLException e) {
+            throw new UncheckedIOException(new IOException(e));
+        }
+    }
+
+    // All events of a transaction go out as a single batch - with reWriteBatchedInserts enabled
+    // the PostgreSQL driver turns it into a multi-row INSERT, one round trip regardless of the event count.
+    private void insertEvents(Connection connection, Collection<SerializedEvent> events) throws SQLException {
+        if (events.isEmpty()) {
+            return;
+        }
+        if (!eventLog) {
+            insertUnpositionedEvents(connection, events);
+            return;
+        }
+        advanceLogHead(connection, events);
         try (var statement = connection.prepareStatement(APPEND_EVENT_SQL)) {
+            // positions of the events run up to the advanced head
+            long offset = events.size();
             for (var e : events) {
                 statement.setObject(1, e.aggregateId());
                 statement.setLong(2, e.sequenceNumber());
                 statement.setObject(3, e.transactionId());
                 statement.setBytes(4, e.payload());
+                statement.setLong(5, --offset);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static void insertUnpositionedEvents(Connection connection, Collection<SerializedEvent> events) throws SQLException {
+        try (var statement = connection.prepareStatement(APPEND_UNPOSITIONED_EVENT_SQL)) {
+            for (var e : events) {
+                statement.setObject(1, e.aggregateId());
+                statement.setLong(2, e.sequenceNumber());
+                statement.setObject(3, e.transactionId());
+                statement.setBytes(4, e.payload());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private void ensureEventLog() {
+        if (!eventLog) {
+            throw new UnsupportedOperationException("The event log is not enabled");
+        }
+    }
+
+    private void advanceLogHead(Connection connection, Collection<SerializedEvent> events) throws SQLException {
+        if (notifications == null) {
+            try (var statement = connection.prepareStatement(ADVANCE_LOG_HEAD_SQL)) {
+                statement.setLong(1, events.size());
                 statement.executeUpdate();
             }
+            return;
+        }
+        try (var statement = connection.prepareStatement(ADVANCE_LOG_HEAD_AND_NOTIFY_SQL)) {
+            statement.setLong(1, events.size());
+            statement.setString(2, EventNotifications.notifiedVersions(events));
+            statement.executeQuery().close();
         }
     }
 
-    private static void updateSnapshots(Connection connection, Collection<SerializedEvent> events) throws SQLException {
-        if (events.isEmpty()) {
+    private static void updateAccountViews(Connection connection, Collection<AccountView> accountViews) throws SQLException {
+        if (accountViews.isEmpty()) {
             return;
         }
-        try (var deleteStatement = connection.prepareStatement(REMOVE_SNAPSHOT_SQL);
-             var storeStatement = connection.prepareStatement(STORE_SNAPSHOT_SQL)) {
-            for (var e : events) {
-                deleteStatement.setObject(1, e.aggregateId());
-                deleteStatement.executeUpdate();
-                storeStatement.setObject(1, e.aggregateId());
-                storeStatement.setLong(2, e.sequenceNumber());
-                storeStatement.setBytes(3, e.payload());
-                storeStatement.executeUpdate();
+        try (var statement = connection.prepareStatement(isH2(connection) ? H2_STORE_ACCOUNT_VIEW_SQL : STORE_ACCOUNT_VIEW_SQL)) {
+            for (var view : accountViews) {
+                statement.setObject(1, view.accountId());
+                statement.setObject(2, view.ownerId());
+                statement.setLong(3, view.balance());
+                statement.setBoolean(4, view.open());
+                statement.setLong(5, view.version());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+        }
+    }
+
+    private static void updateSnapshots(Connection connection, Collection<SerializedEvent> snapshots) throws SQLException {
+        if (snapshots.isEmpty()) {
+            return;
+        }
+        try (var statement = connection.prepareStatement(isH2(connection) ? H2_STORE_SNAPSHOT_SQL : STORE_SNAPSHOT_SQL)) {
+            for (var s : snapshots) {
+                statement.setObject(1, s.aggregateId());
+                statement.setLong(2, s.sequenceNumber());
+                statement.setBytes(3, s.payload());
+                statement.addBatch();
             }
+            statement.executeBatch();
         }
     }
 
+    private void updateSnapshotHistory(Connection connection, Collection<SerializedEvent> snapshots) throws SQLException {
+        if (snapshotHistorySize == 0 || snapshots.isEmpty()) {
+            return;
+        }
+        try (var insert = connection.prepareStatement(STORE_SNAPSHOT_HISTORY_SQL);
+             var prune = connection.prepareStatement(PRUNE_SNAPSHOT_HISTORY_SQL)) {
+            for (var s : snapshots) {
+                insert.setObject(1, s.aggregateId());
+                insert.setLong(2, s.sequenceNumber());
+                insert.setBytes(3, s.payload());
+                insert.addBatch();
+                prune.setObject(1, s.aggregateId());
+                prune.setObject(2, s.aggregateId());
+                prune.setInt(3, snapshotHistorySize - 1);
+                prune.addBatch();
+            }
+            insert.executeBatch();
+            prune.executeBatch();
+        }
+    }
+
+    // the driver hands out the same metadata object and product name for the life of the connection
+    private static boolean isH2(Connection connection) throws SQLException {
+        return "H2".equals(connection.getMetaData().getDatabaseProductName());
+    }
+
+    // a failed batch surfaces as a BatchUpdateException - drivers chain the offending row's failure to it
+    private static boolean isConstraintViolation(SQLException e) {
+        for (SQLException current = e; current != null; current = current.getNextException()) {
+            if (current instanceof SQLIntegrityConstraintViolationException
+                    || UNIQUE_CONSTRAINT_VIOLATION_SQLSTATE.equals(current.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class EventCursor extends Spliterators.AbstractSpliterator<SerializedEvent> implements AutoCloseable {
+        private final UUID aggregateId;
+        private Connection connection;
+        private PreparedStatement statement;
+        private ResultSet resultSet;
+
+        EventCursor(UUID aggregateId) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.aggregateId = aggregateId;
+        }
+
+        void open(DataSource dataSource, long fromVersion, long toVersion) throws SQLException {
+            connection = dataSource.getConnection();
+            // the PostgreSQL driver only fetches in batches with autocommit disabled, otherwise it reads the whole result
+            connection.setAutoCommit(false);
+            statement = connection.prepareStatement(SELECT_EVENTS_SQL);
+            statement.setFetchSize(EVENT_FETCH_SIZE);
+            statement.setObject(1, aggregateId);
+            statement.setLong(2, fromVersion);
+            statement.setLong(3, toVersion);
+            resultSet = statement.executeQuery();
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super SerializedEvent> action) {
+            if (resultSet == null) {
+                return false;
+            }
+            try {
+                if (!resultSet.next()) {
+                    close();
+                    return false;
+                }
+                action.accept(new SerializedEvent(aggregateId,
+                        resultSet.getLong(1),
+                        resultSet.getObject(2, UUID.class),
+                        resultSet.getBytes(3)));
+                return true;
+            } catch (SQLException e) {
+                throw closeAfter(e);
+            }
+        }
+
+        // the failure to close goes along with the failure that caused it instead of replacing it
+        UncheckedIOException closeAfter(SQLException failure) {
+            var exception = new UncheckedIOException(new IOException(failure));
+            try {
+                close();
+            } catch (RuntimeException e) {
+                exception.addSuppressed(e);
+            }
+            return exception;
+        }
+
+        // closing an exhausted cursor again when the stream gets closed is a no-op
+        @Override
+        public void close() {
+            if (connection == null) {
+                return;
+            }
+            try (var c = connection; var s = statement; var r = resultSet) {
+                c.rollback();
+            } catch (SQLException e) {
+                throw new UncheckedIOException(new IOException(e));
+            } finally {
+                connection = null;
+                statement = null;
+                resultSet = null;
+            }
+        }
+    }
 }
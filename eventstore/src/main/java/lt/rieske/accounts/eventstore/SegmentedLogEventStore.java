@@ -0,0 +1,708 @@
+package lt.rieske.accounts.eventstore;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Embedded event store keeping events in append-only segment files.
+ * <p>
+ * Each append is written as a single checksummed record to the active segment, rolling over to a new segment once
+ * the active one reaches the configured size. A record is either recovered whole on startup or not at all - a torn
+ * record at the tail of the log is truncated. Snapshots are kept in a side file, superseded snapshots being dropped
+ * when the side file is compacted on startup.
+ * <p>
+ * The position of every event is kept in a per-aggregate in-memory index, rebuilt from the segments on startup.
+ * The index enforces sequence number uniqueness per aggregate - the same guarantee the primary key gives in SQL stores.
+ * The positions of all the events in the order they were appended are kept in memory as well - the log position of an
+ * event is its ordinal number in the log.
+ * <p>
+ * Account views are only kept in memory - the log is not shared, so the views of the accounts appended to since the
+ * startup are up to date, the rest are not known.
+ * <p>
+ * Log record: length(4) crc32c(4) body(length), body: commit(8) eventCount(4) events.
+ * Event: aggregateId(16) sequenceNumber(8) transactionId(16) payloadLength(4) payload.
+ * Snapshot record: length(4) crc32c(4) body(length), body: commit(8) aggregateId(16) sequenceNumber(8) payload.
+ */
+class SegmentedLogEventStore implements BlobEventStore, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedLogEventStore.class);
+
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE = "snapshots.dat";
+    private static final String COMPACTED_SNAPSHOT_FILE = "snapshots.dat.compacted";
+
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int UUID_SIZE = 2 * Long.BYTES;
+    private static final int EVENT_HEADER_SIZE = UUID_SIZE + Long.BYTES + UUID_SIZE + Integer.BYTES;
+    private static final int LOG_RECORD_PREFIX_SIZE = Long.BYTES + Integer.BYTES;
+    private static final int SNAPSHOT_RECORD_PREFIX_SIZE = Long.BYTES + UUID_SIZE + Long.BYTES;
+
+    private final Path directory;
+    private final long maxSegmentSize;
+    private final FsyncPolicy fsyncPolicy;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<UUID, AggregateIndex> aggregates = new HashMap<>();
+    private final Map<UUID, SnapshotLocation> snapshots = new HashMap<>();
+    private final Map<UUID, AccountView> accountViews = new HashMap<>();
+    private final List<EventLocation> eventLog = new ArrayList<>();
+    // read without the lock by the lazy event streams and the syncs - only appended to when rolling over, rarely
+    private final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+    private FileChannel snapshotFile;
+    private long activeSegmentSize;
+    private long snapshotFileSize;
+    private long lastCommit;
+
+    private final Object syncLock = new Object();
+    private volatile long writtenCommit;
+    private long syncedCommit;
+    private final ScheduledExecutorService syncScheduler;
+    private volatile boolean closed;
+
+    private final EventSubscriptions subscriptions = new EventSubscriptions();
+
+    SegmentedLogEventStore(Path directory, long maxSegmentSize, FsyncPolicy fsyncPolicy, Duration fsyncInterval) {
+        this.directory = directory;
+        this.maxSegmentSize = maxSegmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        try {
+            Files.createDirectories(directory);
+            recoverSegments();
+            recoverSnapshots();
+        } catch (IOException e) {
+            closeChannels();
+            throw new UncheckedIOException(e);
+        }
+        this.writtenCommit = lastCommit;
+        this.syncedCommit = lastCommit;
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.syncScheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("event-log-sync").daemon().factory());
+            long intervalMillis = fsyncInterval.toMillis();
+            syncScheduler.scheduleWithFixedDelay(this::syncInBackground, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncScheduler = null;
+        }
+    }
+
+    @Override
+    public void append(Collection<SerializedEvent> serializedEvents, Collection<SerializedEvent> serializedSnapshots, UUID transactionId) {
+        append(serializedEvents, serializedSnapshots, List.of(), transactionId);
+    }
+
+    @Override
+    public void append(
+            Collection<SerializedEvent> serializedEvents,
+            Collection<SerializedEvent> serializedSnapshots,
+            Collection<AccountView> accountViews,
+            UUID transactionId) {
+        long commit;
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            validateSequence(serializedEvents);
+            commit = lastCommit + 1;
+            EventLocation[] eventLocations;
+            Map<UUID, SnapshotLocation> snapshotLocations;
+            int segmentCount = segments.size();
+            long segmentSize = activeSegmentSize;
+            long snapshotSize = snapshotFileSize;
+            try {
+                eventLocations = writeEvents(commit, serializedEvents);
+                snapshotLocations = writeSnapshots(commit, serializedSnapshots);
+            } catch (IOException e) {
+                discardPartialAppend(segmentCount, segmentSize, snapshotSize);
+                throw e;
+            }
+
+            int i = 0;
+            for (var event : serializedEvents) {
+                aggregates.computeIfAbsent(event.aggregateId(), id -> new AggregateIndex())
+                        .add(event.sequenceNumber(), eventLocations[i], event.transactionId());
+                eventLog.add(eventLocations[i++]);
+            }
+            snapshotLocations.forEach(this::keepNewestSnapshot);
+            for (var view : accountViews) {
+                this.accountViews.merge(view.accountId(), view,
+                        (current, candidate) -> candidate.version() > current.version() ? candidate : current);
+            }
+            lastCommit = commit;
+            writtenCommit = commit;
+            if (fsyncPolicy == FsyncPolicy.PER_COMMIT) {
+                sync(commit);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        // appends that came in while a force was in progress get forced together by the next one
+        if (fsyncPolicy == FsyncPolicy.GROUP) {
+            syncUpTo(commit);
+        }
+        if (!serializedEvents.isEmpty()) {
+            subscriptions.eventsAppended();
+        }
+    }
+
+    // The index entries are copied under the lock, the events are then read lazily -
+    // segments are append-only, so what the index pointed to at the time of the call stays valid.
+    @Override
+    public Stream<SerializedEvent> getEvents(UUID aggregateId, long fromVersion, long toVersion) {
+        EventLocation[] locations;
+        lock.readLock().lock();
+        try {
+            var index = aggregates.get(aggregateId);
+            if (index == null) {
+                return Stream.empty();
+            }
+            locations = index.range(fromVersion, toVersion);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return IntStream.range(0, locations.length).mapToObj(i -> readEvent(locations[i]));
+    }
+
+    @Override
+    public List<PositionedEvent> getEventsAfter(long position, int maxEvents) {
+        int from;
+        List<EventLocation> locations;
+        lock.readLock().lock();
+        try {
+            from = Math.clamp(position, 0, eventLog.size());
+            locations = List.copyOf(eventLog.subList(from, (int) Math.min((long) from + maxEvents, eventLog.size())));
+        } finally {
+            lock.readLock().unlock();
+        }
+        var events = new ArrayList<PositionedEvent>(locations.size());
+        for (var location : locations) {
+            events.add(new PositionedEvent(++from, readEvent(location)));
+        }
+        return events;
+    }
+
+    @Override
+    public EventSubscription subscribe(long fromPosition, int batchSize, Consumer<List<PositionedEvent>> consumer) {
+        return subscriptions.subscribe(this, fromPosition, batchSize, consumer);
+    }
+
+    @Override
+    public AccountView loadAccountView(UUID accountId) {
+        lock.readLock().lock();
+        try {
+            return accountViews.get(accountId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SerializedEvent loadLatestSnapshot(UUID aggregateId) {
+        lock.readLock().lock();
+        try {
+            var snapshot = snapshots.get(aggregateId);
+            return snapshot != null ? readSnapshot(aggregateId, snapshot) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean transactionExists(UUID aggregateId, UUID transactionId) {
+        lock.readLock().lock();
+        try {
+            var index = aggregates.get(aggregateId);
+            return index != null && index.transactions.contains(transactionId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<UUID> findTransactions(UUID aggregateId, Collection<UUID> transactionIds) {
+        lock.readLock().lock();
+        try {
+            var index = aggregates.get(aggregateId);
+            if (index == null) {
+                return Set.of();
+            }
+            Set<UUID> existingTransactions = new HashSet<>();
+            for (var transactionId : transactionIds) {
+                if (index.transactions.contains(transactionId)) {
+                    existingTransactions.add(transactionId);
+                }
+            }
+            return existingTransactions;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SerializedAggregateHistory loadAggregate(UUID aggregateId, long fromVersion, UUID transactionId) {
+        lock.readLock().lock();
+        try {
+            var snapshotLocation = snapshots.get(aggregateId);
+            var snapshot = snapshotLocation != null && snapshotLocation.sequenceNumber > fromVersion
+                    ? readSnapshot(aggregateId, snapshotLocation)
+                    : null;
+            var index = aggregates.get(aggregateId);
+            if (index == null) {
+                return new SerializedAggregateHistory(snapshot, List.of(), false);
+            }
+            var locations = index.range(snapshot != null ? snapshot.sequenceNumber() : fromVersion, Long.MAX_VALUE);
+            var events = new ArrayList<SerializedEvent>(locations.length);
+            for (var location : locations) {
+                events.add(readEvent(location));
+            }
+            return new SerializedAggregateHistory(snapshot, events,
+                    transactionId != null && index.transactions.contains(transactionId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The background sync is let to finish - interrupting it within a force would close the channels
+    // and lose the writes not yet forced.
+    @Override
+    public void close() {
+        subscriptions.close();
+        if (syncScheduler != null) {
+            syncScheduler.shutdown();
+            try {
+                if (!syncScheduler.awaitTermination(10, TimeUnit.SECONDS)) {
+                    log.warn("The event log sync did not finish in time");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            sync(lastCommit);
+            closed = true;
+            closeChannels();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void validateSequence(Collection<SerializedEvent> events) {
+        Map<UUID, Set<Long>> appendedSequences = new HashMap<>();
+        for (var event : events) {
+            var index = aggregates.get(event.aggregateId());
+            boolean appendedBefore = index != null && index.contains(event.sequenceNumber());
+            boolean appendedNow = !appendedSequences.computeIfAbsent(event.aggregateId(), id -> new HashSet<>()).add(event.sequenceNumber());
+            if (appendedBefore || appendedNow) {
+                throw new ConcurrentModificationException("Event " + event.sequenceNumber()
+                        + " already exists for aggregate " + event.aggregateId());
+            }
+        }
+    }
+
+    private EventLocation[] writeEvents(long commit, Collection<SerializedEvent> events) throws IOException {
+        int bodySize = LOG_RECORD_PREFIX_SIZE;
+        for (var event : events) {
+            bodySize += EVENT_HEADER_SIZE + event.payload().length;
+        }
+        if (activeSegmentSize > 0 && activeSegmentSize + RECORD_HEADER_SIZE + bodySize > maxSegmentSize) {
+            rollSegment();
+        }
+
+        var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bodySize);
+        record.position(RECORD_HEADER_SIZE);
+        record.putLong(commit);
+        record.putInt(events.size());
+        int segment = segments.size() - 1;
+        var locations = new EventLocation[events.size()];
+        int i = 0;
+        for (var event : events) {
+            locations[i++] = new EventLocation(segment, activeSegmentSize + record.position(), EVENT_HEADER_SIZE + event.payload().length);
+            putUUID(record, event.aggregateId());
+            record.putLong(event.sequenceNumber());
+            putUUID(record, event.transactionId());
+            record.putInt(event.payload().length);
+            record.put(event.payload());
+        }
+        writeRecord(segments.getLast(), activeSegmentSize, record);
+        activeSegmentSize += record.capacity();
+        return locations;
+    }
+
+    private Map<UUID, SnapshotLocation> writeSnapshots(long commit, Collection<SerializedEvent> serializedSnapshots) throws IOException {
+        Map<UUID, SnapshotLocation> locations = new HashMap<>();
+        for (var snapshot : serializedSnapshots) {
+            var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + SNAPSHOT_RECORD_PREFIX_SIZE + snapshot.payload().length);
+            record.position(RECORD_HEADER_SIZE);
+            record.putLong(commit);
+            putUUID(record, snapshot.aggregateId());
+            record.putLong(snapshot.sequenceNumber());
+            record.put(snapshot.payload());
+            writeRecord(snapshotFile, snapshotFileSize, record);
+            locations.put(snapshot.aggregateId(), new SnapshotLocation(snapshot.sequenceNumber(), snapshotFileSize, record.capacity()));
+            snapshotFileSize += record.capacity();
+        }
+        return locations;
+    }
+
+    private static void writeRecord(FileChannel channel, long position, ByteBuffer record) throws IOException {
+        int bodySize = record.capacity() - RECORD_HEADER_SIZE;
+        var crc = new CRC32C();
+        crc.update(record.array(), RECORD_HEADER_SIZE, bodySize);
+        record.putInt(0, bodySize);
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+        record.rewind();
+        long writePosition = position;
+        while (record.hasRemaining()) {
+            writePosition += channel.write(record, writePosition);
+        }
+    }
+
+    // a failed append must not leave records behind - recovery would take them as committed
+    private void discardPartialAppend(int segmentCount, long segmentSize, long snapshotSize) throws IOException {
+        while (segments.size() > segmentCount) {
+            var segment = segments.removeLast();
+            segment.close();
+            Files.delete(segmentPath(segments.size()));
+        }
+        segments.getLast().truncate(segmentSize);
+        activeSegmentSize = segmentSize;
+        snapshotFile.truncate(snapshotSize);
+        snapshotFileSize = snapshotSize;
+    }
+
+    private void rollSegment() throws IOException {
+        segments.getLast().force(false);
+        segments.add(openSegment(segments.size(), true));
+        activeSegmentSize = 0;
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The event store is closed");
+        }
+    }
+
+    private SerializedEvent readEvent(EventLocation location) {
+        ensureOpen();
+        var buffer = ByteBuffer.allocate(location.length);
+        read(segments.get(location.segment), location.position, buffer);
+        var aggregateId = getUUID(buffer);
+        long sequenceNumber = buffer.getLong();
+        var transactionId = getUUID(buffer);
+        var payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+        return new SerializedEvent(aggregateId, sequenceNumber, transactionId, payload);
+    }
+
+    private SerializedEvent readSnapshot(UUID aggregateId, SnapshotLocation location) {
+        ensureOpen();
+        var buffer = ByteBuffer.allocate(location.length);
+        read(snapshotFile, location.position, buffer);
+        var payload = new byte[location.length - RECORD_HEADER_SIZE - SNAPSHOT_RECORD_PREFIX_SIZE];
+        buffer.position(RECORD_HEADER_SIZE + SNAPSHOT_RECORD_PREFIX_SIZE);
+        buffer.get(payload);
+        return new SerializedEvent(aggregateId, location.sequenceNumber, null, payload);
+    }
+
+    private static void read(FileChannel channel, long position, ByteBuffer buffer) {
+        try {
+            long readPosition = position;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, readPosition);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file at " + readPosition);
+                }
+                readPosition += read;
+            }
+            buffer.flip();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void syncUpTo(long commit) {
+        synchronized (syncLock) {
+            if (syncedCommit >= commit) {
+                return;
+            }
+            try {
+                sync(writtenCommit);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private void syncInBackground() {
+        try {
+            syncUpTo(writtenCommit);
+        } catch (RuntimeException e) {
+            log.warn("Could not sync the event log", e);
+        }
+    }
+
+    // Segments that have been rolled over were forced when rolling - only the active one can hold unforced data.
+    // The snapshot file is forced after the segment: snapshots of commits lost from the log are discarded on recovery.
+    private void sync(long commit) throws IOException {
+        synchronized (syncLock) {
+            if (syncedCommit >= commit) {
+                return;
+            }
+            ensureOpen();
+            segments.getLast().force(false);
+            snapshotFile.force(false);
+            syncedCommit = commit;
+        }
+    }
+
+    private void recoverSegments() throws IOException {
+        List<Path> segmentFiles;
+        try (var files = Files.list(directory)) {
+            segmentFiles = files.filter(file -> file.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+        for (int segment = 0; segment < segmentFiles.size(); segment++) {
+            if (!segmentFiles.get(segment).equals(segmentPath(segment))) {
+                throw new IllegalStateException("Missing event log segment " + segmentPath(segment));
+            }
+            var channel = openSegment(segment, false);
+            segments.add(channel);
+            long validSize = recoverSegment(segment, channel);
+            if (validSize < channel.size()) {
+                if (segment != segmentFiles.size() - 1) {
+                    throw new IllegalStateException("Corrupted event log segment " + segmentPath(segment) + " at " + validSize);
+                }
+                log.warn("Truncating torn tail of event log segment {} from {} to {} bytes", segmentPath(segment), channel.size(), validSize);
+                channel.truncate(validSize);
+                channel.force(true);
+            }
+            activeSegmentSize = validSize;
+        }
+        if (segments.isEmpty()) {
+            segments.add(openSegment(0, true));
+            activeSegmentSize = 0;
+        }
+    }
+
+    private long recoverSegment(int segment, FileChannel channel) throws IOException {
+        long position = 0;
+        ByteBuffer body;
+        while ((body = readValidRecord(channel, position)) != null) {
+            long commit = body.getLong();
+            if (commit <= lastCommit) {
+                throw new IllegalStateException("Out of order commit " + commit + " in event log segment " + segmentPath(segment));
+            }
+            lastCommit = commit;
+            int eventCount = body.getInt();
+            for (int i = 0; i < eventCount; i++) {
+                int eventPosition = body.position();
+                var aggregateId = getUUID(body);
+                long sequenceNumber = body.getLong();
+                var transactionId = getUUID(body);
+                int payloadLength = body.getInt();
+                body.position(body.position() + payloadLength);
+                var location = new EventLocation(segment, position + RECORD_HEADER_SIZE + eventPosition, EVENT_HEADER_SIZE + payloadLength);
+                aggregates.computeIfAbsent(aggregateId, id -> new AggregateIndex()).add(sequenceNumber, location, transactionId);
+                eventLog.add(location);
+            }
+            position += RECORD_HEADER_SIZE + body.capacity();
+        }
+        return position;
+    }
+
+    private void recoverSnapshots() throws IOException {
+        var snapshotPath = directory.resolve(SNAPSHOT_FILE);
+        snapshotFile = FileChannel.open(snapshotPath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long position = 0;
+        ByteBuffer body;
+        while ((body = readValidRecord(snapshotFile, position)) != null) {
+            long commit = body.getLong();
+            // the snapshot made it to disk, but the commit it belongs to did not
+            if (commit > lastCommit) {
+                break;
+            }
+            var aggregateId = getUUID(body);
+            long sequenceNumber = body.getLong();
+            int length = RECORD_HEADER_SIZE + body.capacity();
+            keepNewestSnapshot(aggregateId, new SnapshotLocation(sequenceNumber, position, length));
+            position += length;
+        }
+        snapshotFileSize = position;
+        compactSnapshots();
+    }
+
+    // snapshots can be stored out of order - an older one must not replace a newer one
+    private void keepNewestSnapshot(UUID aggregateId, SnapshotLocation location) {
+        snapshots.merge(aggregateId, location,
+                (current, candidate) -> candidate.sequenceNumber() > current.sequenceNumber() ? candidate : current);
+    }
+
+    // rewrites the latest snapshot of each aggregate into a fresh side file, replacing the old one
+    private void compactSnapshots() throws IOException {
+        var compactedPath = directory.resolve(COMPACTED_SNAPSHOT_FILE);
+        Map<UUID, SnapshotLocation> compactedLocations = new HashMap<>();
+        long position = 0;
+        try (var compacted = FileChannel.open(compactedPath,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (var snapshot : snapshots.entrySet()) {
+                var record = ByteBuffer.allocate(snapshot.getValue().length);
+                read(snapshotFile, snapshot.getValue().position, record);
+                long writePosition = position;
+                while (record.hasRemaining()) {
+                    writePosition += compacted.write(record, writePosition);
+                }
+                compactedLocations.put(snapshot.getKey(), new SnapshotLocation(snapshot.getValue().sequenceNumber, position, snapshot.getValue().length));
+                position += snapshot.getValue().length;
+            }
+            compacted.force(true);
+        }
+        snapshotFile.close();
+        Files.move(compactedPath, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotFile = FileChannel.open(directory.resolve(SNAPSHOT_FILE), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        snapshots.putAll(compactedLocations);
+        snapshotFileSize = position;
+    }
+
+    // the body of the record at the given position, or null if there is no complete, intact record there
+    private static ByteBuffer readValidRecord(FileChannel channel, long position) throws IOException {
+        long remaining = channel.size() - position;
+        if (remaining < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        var header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        read(channel, position, header);
+        int bodySize = header.getInt();
+        int checksum = header.getInt();
+        if (bodySize <= 0 || bodySize > remaining - RECORD_HEADER_SIZE) {
+            return null;
+        }
+        var body = ByteBuffer.allocate(bodySize);
+        read(channel, position + RECORD_HEADER_SIZE, body);
+        var crc = new CRC32C();
+        crc.update(body.array());
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+        return body;
+    }
+
+    private FileChannel openSegment(int segment, boolean create) throws IOException {
+        return create
+                ? FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(segmentPath(segment), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private void closeChannels() {
+        for (var segment : segments) {
+            closeQuietly(segment);
+        }
+        if (snapshotFile != null) {
+            closeQuietly(snapshotFile);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Could not close event log file", e);
+        }
+    }
+
+    private static void putUUID(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid != null ? uuid.getMostSignificantBits() : 0);
+        buffer.putLong(uuid != null ? uuid.getLeastSignificantBits() : 0);
+    }
+
+    private static UUID getUUID(ByteBuffer buffer) {
+        long mostSignificantBits = buffer.getLong();
+        long leastSignificantBits = buffer.getLong();
+        return mostSignificantBits == 0 && leastSignificantBits == 0 ? null : new UUID(mostSignificantBits, leastSignificantBits);
+    }
+
+    private record EventLocation(int segment, long position, int length) {
+    }
+
+    private record SnapshotLocation(long sequenceNumber, long position, int length) {
+    }
+
+    // Sequence numbers of an aggregate are appended in increasing order in practice -
+    // an out of order one is still accepted (as long as it is unique), at the cost of shifting the later entries.
+    private static final class AggregateIndex {
+        private long[] sequenceNumbers = new long[4];
+        private EventLocation[] locations = new EventLocation[4];
+        private int size;
+        private final Set<UUID> transactions = new HashSet<>();
+
+        void add(long sequenceNumber, EventLocation location, UUID transactionId) {
+            if (size == sequenceNumbers.length) {
+                sequenceNumbers = Arrays.copyOf(sequenceNumbers, size * 2);
+                locations = Arrays.copyOf(locations, size * 2);
+            }
+            int insertionPoint = size == 0 || sequenceNumbers[size - 1] < sequenceNumber
+                    ? size
+                    : -Arrays.binarySearch(sequenceNumbers, 0, size, sequenceNumber) - 1;
+            System.arraycopy(sequenceNumbers, insertionPoint, sequenceNumbers, insertionPoint + 1, size - insertionPoint);
+            System.arraycopy(locations, insertionPoint, locations, insertionPoint + 1, size - insertionPoint);
+            sequenceNumbers[insertionPoint] = sequenceNumber;
+            locations[insertionPoint] = location;
+            size++;
+            if (transactionId != null) {
+                transactions.add(transactionId);
+            }
+        }
+
+        boolean contains(long sequenceNumber) {
+            return Arrays.binarySearch(sequenceNumbers, 0, size, sequenceNumber) >= 0;
+        }
+
+        // locations of events with sequence numbers in (fromVersion, toVersion]
+        EventLocation[] range(long fromVersion, long toVersion) {
+            int from = firstIndexAfter(fromVersion);
+            int to = toVersion == Long.MAX_VALUE ? size : firstIndexAfter(toVersion);
+            return from < to ? Arrays.copyOfRange(locations, from, to) : new EventLocation[0];
+        }
+
+        private int firstIndexAfter(long sequenceNumber) {
+            int index = Arrays.binarySearch(sequenceNumbers, 0, size, sequenceNumber);
+            return index >= 0 ? index + 1 : -index - 1;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package lt.rieske.accounts.eventstore;
+
+import java.util.List;
+
+
+public record SerializedAggregateHistory(
+        SerializedEvent snapshot,
+        List<SerializedEvent> events,
+        boolean transactionExists
+) {
+}
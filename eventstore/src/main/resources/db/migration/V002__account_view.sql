@@ -0,0 +1,8 @@
+CREATE TABLE AccountView(
+    accountId UUID NOT NULL,
+    ownerId UUID NOT NULL,
+    balance BIGINT NOT NULL,
+    open BOOLEAN NOT NULL,
+    version BIGINT NOT NULL,
+    PRIMARY KEY(accountId)
+);
@@ -0,0 +1,17 @@
+-- the global event log is optional - events appended without it are left unpositioned, outside of the log
+ALTER TABLE Event ADD COLUMN position BIGINT;
+
+-- the commit order of the events stored so far is not known - they get positioned aggregate by aggregate
+MERGE INTO Event e
+USING (SELECT aggregateId, sequenceNumber, ROW_NUMBER() OVER (ORDER BY aggregateId, sequenceNumber) AS position FROM Event) p
+ON e.aggregateId = p.aggregateId AND e.sequenceNumber = p.sequenceNumber
+WHEN MATCHED THEN UPDATE SET position = p.position;
+
+CREATE UNIQUE INDEX idx_position ON Event(position);
+
+-- the last position taken - its row lock orders appends by commit
+CREATE TABLE EventLogHead(
+    position BIGINT NOT NULL
+);
+
+INSERT INTO EventLogHead(position) SELECT COALESCE(MAX(position), 0) FROM Event;
@@ -0,0 +1,8 @@
+-- The last few snapshots of each aggregate by version, when the store is configured to keep them - Snapshot holds
+-- only the latest one. Kept apart so that pruning the history does not churn the table read on every load.
+CREATE TABLE SnapshotHistory(
+    aggregateId UUID NOT NULL,
+    sequenceNumber BIGINT NOT NULL,
+    payload BYTEA NOT NULL,
+    PRIMARY KEY(aggregateId, sequenceNumber)
+);
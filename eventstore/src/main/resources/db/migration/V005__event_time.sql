@@ -0,0 +1,5 @@
+-- the time each event got appended, for point in time queries. The events stored so far are left without one -
+-- their times are not known
+ALTER TABLE Event ADD COLUMN createdAt TIMESTAMP WITH TIME ZONE;
+
+ALTER TABLE Event ALTER COLUMN createdAt SET DEFAULT CURRENT_TIMESTAMP;
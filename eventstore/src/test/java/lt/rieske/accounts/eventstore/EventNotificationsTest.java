@@ -0,0 +1,53 @@
+package lt.rieske.accounts.eventstore;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventNotificationsTest {
+
+    @Test
+    void shouldNotifyLatestVersionOfEachAggregate() {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+        var payload = "42" + EventNotifications.notifiedVersions(List.of(
+                new SerializedEvent(aggregateId1, 1, null, new byte[0]),
+                new SerializedEvent(aggregateId2, 7, null, new byte[0]),
+                new SerializedEvent(aggregateId1, 2, null, new byte[0])));
+
+        Map<UUID, Long> versions = new HashMap<>();
+        assertThat(EventNotifications.notifiedPosition(payload)).isEqualTo(42);
+        assertThat(EventNotifications.mergeNotifiedVersions(payload, versions)).isTrue();
+        assertThat(versions).containsExactlyInAnyOrderEntriesOf(Map.of(aggregateId1, 2L, aggregateId2, 7L));
+    }
+
+    @Test
+    void shouldMergeNotificationsKeepingLatestVersions() {
+        var aggregateId = UUID.randomUUID();
+        var otherAggregateId = UUID.randomUUID();
+        Map<UUID, Long> versions = new HashMap<>();
+
+        EventNotifications.mergeNotifiedVersions("5 " + aggregateId + ":3 " + otherAggregateId + ":1", versions);
+        EventNotifications.mergeNotifiedVersions("6 " + aggregateId + ":4", versions);
+
+        assertThat(versions).containsExactlyInAnyOrderEntriesOf(Map.of(aggregateId, 4L, otherAggregateId, 1L));
+    }
+
+    @Test
+    void shouldOnlyNotifyPositionOfAppendToTooManyAggregates() {
+        var events = new ArrayList<SerializedEvent>();
+        for (int i = 0; i < 101; i++) {
+            events.add(new SerializedEvent(UUID.randomUUID(), 1, null, new byte[0]));
+        }
+        var payload = "101" + EventNotifications.notifiedVersions(events);
+
+        assertThat(EventNotifications.notifiedPosition(payload)).isEqualTo(101);
+        assertThat(EventNotifications.mergeNotifiedVersions(payload, new HashMap<>())).isFalse();
+    }
+}
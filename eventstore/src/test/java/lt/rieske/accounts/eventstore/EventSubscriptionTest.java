@@ -0,0 +1,62 @@
+package lt.rieske.accounts.eventstore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventSubscriptionTest {
+
+    @TempDir
+    private Path directory;
+
+    private SegmentedLogEventStore eventStore;
+
+    @BeforeEach
+    void openEventStore() {
+        eventStore = EventStoreFactory.segmentedLogEventStore(directory, 1024, FsyncPolicy.PER_COMMIT, Duration.ofMillis(10));
+        eventStore.append(List.of(new SerializedEvent(UUID.randomUUID(), 1, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                UUID.randomUUID());
+    }
+
+    @AfterEach
+    void closeEventStore() {
+        eventStore.close();
+    }
+
+    @Test
+    void shouldHandOverSubscriptionToOnCloseWhenConsumerFails() throws InterruptedException {
+        var closed = new CountDownLatch(1);
+        var subscription = new EventSubscription(eventStore, 0, 10, Duration.ofMillis(10), batch -> {
+            throw new IllegalStateException("consumer failure");
+        }, s -> closed.countDown());
+
+        subscription.start();
+
+        assertThat(closed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(subscription.isRunning()).isFalse();
+    }
+
+    @Test
+    void shouldHandOverSubscriptionToOnCloseOnceWhenClosed() {
+        var closeCount = new AtomicInteger();
+        var subscription = new EventSubscription(eventStore, 0, 10, Duration.ofMillis(10), batch -> {
+        }, s -> closeCount.incrementAndGet());
+        subscription.start();
+
+        subscription.close();
+
+        assertThat(closeCount).hasValue(1);
+        assertThat(subscription.isLive()).isFalse();
+    }
+}
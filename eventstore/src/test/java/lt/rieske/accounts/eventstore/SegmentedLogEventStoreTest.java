@@ -0,0 +1,228 @@
+package lt.rieske.accounts.eventstore;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class SegmentedLogEventStoreTest {
+
+    private static final long SEGMENT_SIZE = 1024;
+
+    @TempDir
+    private Path directory;
+
+    private SegmentedLogEventStore eventStore;
+
+    @AfterEach
+    void closeEventStore() {
+        eventStore.close();
+    }
+
+    @ParameterizedTest
+    @EnumSource(FsyncPolicy.class)
+    void shouldRecoverEventsAndSnapshotsOnReopen(FsyncPolicy fsyncPolicy) {
+        var aggregateId = UUID.randomUUID();
+        var txId = UUID.randomUUID();
+        eventStore = open(fsyncPolicy);
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, txId, "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, txId, "2".getBytes())),
+                List.of(new SerializedEvent(aggregateId, 2, null, "snapshot".getBytes())), txId);
+
+        eventStore.close();
+        eventStore = open(fsyncPolicy);
+
+        assertThat(eventStore.getEvents(aggregateId, 0))
+                .extracting(SerializedEvent::sequenceNumber, e -> new String(e.payload()))
+                .containsExactly(tuple(1L, "1"), tuple(2L, "2"));
+        assertThat(eventStore.loadLatestSnapshot(aggregateId).payload()).isEqualTo("snapshot".getBytes());
+        assertThat(eventStore.transactionExists(aggregateId, txId)).isTrue();
+    }
+
+    @Test
+    void shouldRollOverToNewSegments() throws IOException {
+        var aggregateId = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        for (int i = 1; i <= 50; i++) {
+            eventStore.append(List.of(new SerializedEvent(aggregateId, i, UUID.randomUUID(), new byte[100])), List.of(), UUID.randomUUID());
+        }
+
+        assertThat(segmentFiles()).hasSizeGreaterThan(1);
+        eventStore.close();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        assertThat(eventStore.getEvents(aggregateId, 0)).hasSize(50);
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 51, UUID.randomUUID(), new byte[100])), List.of(), UUID.randomUUID());
+        assertThat(eventStore.getEvents(aggregateId, 49)).extracting(SerializedEvent::sequenceNumber).containsExactly(50L, 51L);
+    }
+
+    @Test
+    void shouldTruncateTornRecordAtTheEndOfTheLog() throws IOException {
+        var aggregateId = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.close();
+
+        var segment = segmentFiles().getLast();
+        long validSize = Files.size(segment);
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(validSize - 3);
+        }
+
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        assertThat(eventStore.getEvents(aggregateId, 0)).extracting(SerializedEvent::sequenceNumber).containsExactly(1L);
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "3".getBytes())), List.of(), UUID.randomUUID());
+        assertThat(eventStore.getEvents(aggregateId, 1)).extracting(e -> new String(e.payload())).containsExactly("3");
+    }
+
+    @Test
+    void shouldDiscardRecordWithBadChecksumAtTheEndOfTheLog() throws IOException {
+        var aggregateId = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.close();
+
+        corruptLastByte(segmentFiles().getLast());
+
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        assertThat(eventStore.getEvents(aggregateId, 0)).extracting(SerializedEvent::sequenceNumber).containsExactly(1L);
+    }
+
+    @Test
+    void shouldRefuseToOpenLogWithCorruptedSealedSegment() throws IOException {
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        for (int i = 1; i <= 50; i++) {
+            eventStore.append(List.of(new SerializedEvent(UUID.randomUUID(), i, UUID.randomUUID(), new byte[100])), List.of(), UUID.randomUUID());
+        }
+        eventStore.close();
+
+        corruptLastByte(segmentFiles().getFirst());
+
+        assertThatThrownBy(() -> open(FsyncPolicy.PER_COMMIT))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("Corrupted event log segment");
+    }
+
+    @Test
+    void shouldDiscardSnapshotsOfCommitsLostFromTheLog() throws IOException {
+        var aggregateId = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())),
+                List.of(new SerializedEvent(aggregateId, 1, null, "snapshot1".getBytes())), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes())),
+                List.of(new SerializedEvent(aggregateId, 2, null, "snapshot2".getBytes())), UUID.randomUUID());
+        eventStore.close();
+
+        var segment = segmentFiles().getLast();
+        try (var channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(segment) - 1);
+        }
+
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        assertThat(eventStore.getEvents(aggregateId, 0)).hasSize(1);
+        assertThat(eventStore.loadLatestSnapshot(aggregateId).payload()).isEqualTo("snapshot1".getBytes());
+    }
+
+    @Test
+    void shouldKeepEventPositionsAcrossSegmentsOnReopen() {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        for (int i = 1; i <= 20; i++) {
+            eventStore.append(List.of(
+                            new SerializedEvent(aggregateId1, i, UUID.randomUUID(), new byte[100]),
+                            new SerializedEvent(aggregateId2, i, UUID.randomUUID(), new byte[100])),
+                    List.of(), UUID.randomUUID());
+        }
+
+        eventStore.close();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        eventStore.append(List.of(new SerializedEvent(aggregateId1, 21, UUID.randomUUID(), new byte[100])), List.of(), UUID.randomUUID());
+
+        assertThat(eventStore.getEventsAfter(38, 10))
+                .extracting(PositionedEvent::position, e -> e.event().aggregateId(), e -> e.event().sequenceNumber())
+                .containsExactly(tuple(39L, aggregateId1, 20L), tuple(40L, aggregateId2, 20L), tuple(41L, aggregateId1, 21L));
+    }
+
+    @Test
+    void shouldCompactSnapshotsOnReopen() throws IOException {
+        var aggregateId = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        for (int i = 1; i <= 20; i++) {
+            eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, i, null, new byte[100])), UUID.randomUUID());
+        }
+        long snapshotFileSize = Files.size(directory.resolve("snapshots.dat"));
+        eventStore.close();
+
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+
+        assertThat(Files.size(directory.resolve("snapshots.dat"))).isEqualTo(snapshotFileSize / 20);
+        assertThat(eventStore.loadLatestSnapshot(aggregateId).sequenceNumber()).isEqualTo(20);
+    }
+
+    @Test
+    void shouldServeAppendsBeforeTheyAreSyncedOnInterval() {
+        var aggregateId = UUID.randomUUID();
+        eventStore = EventStoreFactory.segmentedLogEventStore(directory, SEGMENT_SIZE, FsyncPolicy.INTERVAL, Duration.ofHours(1));
+
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
+
+        assertThat(eventStore.getEvents(aggregateId, 0)).hasSize(1);
+    }
+
+    @Test
+    void shouldRefuseToReadEventsStreamedBeforeClose() {
+        var aggregateId = UUID.randomUUID();
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
+        var events = eventStore.getEvents(aggregateId, 0);
+
+        eventStore.close();
+
+        assertThatThrownBy(events::toList)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("The event store is closed");
+    }
+
+    @Test
+    void shouldRefuseToAppendAfterClose() {
+        eventStore = open(FsyncPolicy.PER_COMMIT);
+        eventStore.close();
+
+        assertThatThrownBy(() -> eventStore.append(
+                List.of(new SerializedEvent(UUID.randomUUID(), 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID()))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    private SegmentedLogEventStore open(FsyncPolicy fsyncPolicy) {
+        return EventStoreFactory.segmentedLogEventStore(directory, SEGMENT_SIZE, fsyncPolicy, Duration.ofMillis(10));
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static void corruptLastByte(Path file) throws IOException {
+        var content = Files.readAllBytes(file);
+        content[content.length - 1] ^= 1;
+        Files.write(file, content);
+    }
+}
@@ -0,0 +1,141 @@
+package lt.rieske.accounts.eventstore;
+
+import lt.rieske.accounts.domain.AccountEvent;
+import lt.rieske.accounts.eventsourcing.AccountConsistencyTest;
+import lt.rieske.accounts.eventsourcing.AccountEventSourcingTest;
+import lt.rieske.accounts.eventsourcing.AccountViewTest;
+import lt.rieske.accounts.eventsourcing.AdaptiveSnapshotTest;
+import lt.rieske.accounts.eventsourcing.AggregateCacheTest;
+import lt.rieske.accounts.eventsourcing.AsyncSnapshotTest;
+import lt.rieske.accounts.eventsourcing.EventStore;
+import lt.rieske.accounts.eventsourcing.GroupCommitTest;
+import lt.rieske.accounts.eventsourcing.IdempotencyTest;
+import lt.rieske.accounts.eventsourcing.MoneyTransferTest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+class SegmentedLogEventStoreTests {
+
+    @TempDir
+    private Path directory;
+
+    private SegmentedLogEventStore blobEventStore;
+    private EventStore<AccountEvent> eventStore;
+
+    @BeforeEach
+    void createEventStore() {
+        // small segments to have the suites roll over them
+        this.blobEventStore = EventStoreFactory.segmentedLogEventStore(directory, 64 * 1024, FsyncPolicy.GROUP, Duration.ZERO);
+        this.eventStore = Configuration.accountEventStore(blobEventStore);
+    }
+
+    @AfterEach
+    void closeEventStore() {
+        blobEventStore.close();
+    }
+
+    @Nested
+    class SegmentedLogBlobEventStoreTest extends BlobEventStoreTest {
+
+        @Override
+        protected BlobEventStore blobEventStore() {
+            return blobEventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogAccountEventSourcingTest extends AccountEventSourcingTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogMoneyTransferTest extends MoneyTransferTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogIdempotencyTest extends IdempotencyTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogAggregateCacheTest extends AggregateCacheTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogGroupCommitTest extends GroupCommitTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogAsyncSnapshotTest extends AsyncSnapshotTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogAdaptiveSnapshotTest extends AdaptiveSnapshotTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogAccountViewTest extends AccountViewTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SegmentedLogAccountConsistencyTest extends AccountConsistencyTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+
+        @Override
+        protected int operationCount() {
+            return 10;
+        }
+
+        @Override
+        protected int threadCount() {
+            return 8;
+        }
+    }
+}
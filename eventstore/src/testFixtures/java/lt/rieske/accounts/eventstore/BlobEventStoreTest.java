@@ -0,0 +1,516 @@
+package lt.rieske.accounts.eventstore;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+public abstract class BlobEventStoreTest {
+
+    protected BlobEventStore eventStore;
+
+    protected abstract BlobEventStore blobEventStore();
+
+    @BeforeEach
+    void setupEventStore() {
+        this.eventStore = blobEventStore();
+    }
+
+    @Test
+    void shouldStoreAnEvent() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                UUID.randomUUID());
+
+        assertThat(countEvents(aggregateId)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldThrowWhenInsertingEventWithExistingSequenceNumberForAggregate() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                UUID.randomUUID());
+
+        assertThatThrownBy(() ->
+                eventStore.append(List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())),
+                        List.of(), UUID.randomUUID()))
+                .isInstanceOf(ConcurrentModificationException.class);
+
+        assertThat(countEvents(aggregateId)).isEqualTo(1);
+    }
+
+    @Test
+    void shouldStoreAllEventsOfATransaction() {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+        var txId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId1, 1, txId, "1".getBytes()),
+                        new SerializedEvent(aggregateId1, 2, txId, "2".getBytes()),
+                        new SerializedEvent(aggregateId2, 7, txId, "3".getBytes())),
+                List.of(), txId);
+
+        assertThat(countEvents(aggregateId1)).isEqualTo(2);
+        assertThat(countEvents(aggregateId2)).isEqualTo(1);
+        assertThat(eventStore.transactionExists(aggregateId1, txId)).isTrue();
+        assertThat(eventStore.transactionExists(aggregateId2, txId)).isTrue();
+    }
+
+    @Test
+    void shouldNotStoreAnyEventsOfATransactionWhenOneOfThemConflicts() {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId2, 1, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                UUID.randomUUID());
+
+        var txId = UUID.randomUUID();
+        assertThatThrownBy(() -> eventStore.append(List.of(
+                        new SerializedEvent(aggregateId1, 1, txId, "1".getBytes()),
+                        new SerializedEvent(aggregateId1, 2, txId, "2".getBytes()),
+                        new SerializedEvent(aggregateId2, 1, txId, "3".getBytes())),
+                List.of(new SerializedEvent(aggregateId1, 2, null, "snapshot".getBytes())), txId))
+                .isInstanceOf(ConcurrentModificationException.class);
+
+        assertThat(countEvents(aggregateId1)).isZero();
+        assertThat(countEvents(aggregateId2)).isEqualTo(1);
+        assertThat(eventStore.loadLatestSnapshot(aggregateId1)).isNull();
+    }
+
+    @Test
+    void shouldGetStoredEvent() {
+        var aggregateId = UUID.randomUUID();
+        var txId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, txId, "foobar".getBytes())), List.of(),
+                UUID.randomUUID());
+
+        var events = eventStore.getEvents(aggregateId, 0).toList();
+
+        assertThat(events).hasSize(1);
+        var event = events.get(0);
+        assertThat(event.aggregateId()).isEqualTo(aggregateId);
+        assertThat(event.sequenceNumber()).isEqualTo(1);
+        assertThat(event.transactionId()).isEqualTo(txId);
+        assertThat(event.payload()).isEqualTo("foobar".getBytes());
+    }
+
+    @Test
+    void shouldGetStoredEventsFromSpecificVersion() {
+        var aggregateId = UUID.randomUUID();
+
+        var txId3 = UUID.randomUUID();
+        var txId4 = UUID.randomUUID();
+        eventStore.append(List.of(
+                new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
+                new SerializedEvent(aggregateId, 3, txId3, "3".getBytes()),
+                new SerializedEvent(aggregateId, 4, txId4, "4".getBytes())),
+                List.of(), UUID.randomUUID());
+
+        var events = eventStore.getEvents(aggregateId, 2).toList();
+
+        assertThat(events).hasSize(2);
+        var seq3 = events.get(0);
+        assertThat(seq3.aggregateId()).isEqualTo(aggregateId);
+        assertThat(seq3.sequenceNumber()).isEqualTo(3);
+        assertThat(seq3.transactionId()).isEqualTo(txId3);
+        assertThat(seq3.payload()).isEqualTo("3".getBytes());
+        var seq4 = events.get(1);
+        assertThat(seq4.aggregateId()).isEqualTo(aggregateId);
+        assertThat(seq4.sequenceNumber()).isEqualTo(4);
+        assertThat(seq4.transactionId()).isEqualTo(txId4);
+        assertThat(seq4.payload()).isEqualTo("4".getBytes());
+    }
+
+    @Test
+    void shouldStreamEventsBeyondASingleFetch() {
+        var aggregateId = UUID.randomUUID();
+        var events = new ArrayList<SerializedEvent>();
+        for (int i = 1; i <= 2500; i++) {
+            events.add(new SerializedEvent(aggregateId, i, UUID.randomUUID(), String.valueOf(i).getBytes()));
+        }
+        eventStore.append(events, List.of(), UUID.randomUUID());
+
+        try (var storedEvents = eventStore.getEvents(aggregateId, 0)) {
+            assertThat(storedEvents.mapToLong(SerializedEvent::sequenceNumber))
+                    .containsExactlyElementsOf(LongStream.rangeClosed(1, 2500).boxed().toList());
+        }
+    }
+
+    @Test
+    void shouldAllowClosingPartiallyConsumedEventStream() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes())),
+                List.of(), UUID.randomUUID());
+
+        for (int i = 0; i < 20; i++) {
+            try (var events = eventStore.getEvents(aggregateId, 0)) {
+                assertThat(events.findFirst()).get().extracting(SerializedEvent::sequenceNumber).isEqualTo(1L);
+            }
+        }
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 4, UUID.randomUUID(), "4".getBytes())),
+                List.of(), UUID.randomUUID());
+        assertThat(eventStore.getEvents(aggregateId, 0)).hasSize(4);
+    }
+
+    @Test
+    void shouldGetStoredEventsInVersionRange() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes()),
+                        new SerializedEvent(aggregateId, 4, UUID.randomUUID(), "4".getBytes())),
+                List.of(), UUID.randomUUID());
+
+        assertThat(eventStore.getEvents(aggregateId, 1, 3))
+                .extracting(SerializedEvent::sequenceNumber)
+                .containsExactly(2L, 3L);
+        assertThat(eventStore.getEvents(aggregateId, 3, 10))
+                .extracting(SerializedEvent::sequenceNumber)
+                .containsExactly(4L);
+        assertThat(eventStore.getEvents(aggregateId, 2, 2)).isEmpty();
+    }
+
+    @Test
+    void emptyListWhenNoEventsFound() {
+        var events = eventStore.getEvents(UUID.randomUUID(), 2);
+
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    void shouldStoreSnapshotsOfMultipleAggregatesInOneAppend() {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+        eventStore.append(List.of(), List.of(
+                        new SerializedEvent(aggregateId1, 50, null, "1".getBytes()),
+                        new SerializedEvent(aggregateId2, 100, null, "2".getBytes())),
+                UUID.randomUUID());
+
+        assertThat(eventStore.loadLatestSnapshot(aggregateId1).payload()).isEqualTo("1".getBytes());
+        assertThat(eventStore.loadLatestSnapshot(aggregateId2).payload()).isEqualTo("2".getBytes());
+    }
+
+    @Test
+    void shouldLoadLatestSnapshot() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 50, UUID.randomUUID(), "1".getBytes())),
+                UUID.randomUUID());
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 100, UUID.randomUUID(), "2".getBytes())),
+                UUID.randomUUID());
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 150, UUID.randomUUID(), "3".getBytes())),
+                UUID.randomUUID());
+
+        var snapshot = eventStore.loadLatestSnapshot(aggregateId);
+
+        assertThat(snapshot.sequenceNumber()).isEqualTo(150);
+        assertThat(snapshot.payload()).isEqualTo("3".getBytes());
+    }
+
+    @Test
+    void shouldLoadLatestSnapshotAtOrBeforeGivenVersion() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 50, null, "1".getBytes())), null);
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 100, null, "2".getBytes())), null);
+
+        assertThat(eventStore.loadSnapshot(aggregateId, 150).sequenceNumber()).isEqualTo(100);
+        assertThat(eventStore.loadSnapshot(aggregateId, 100).payload()).isEqualTo("2".getBytes());
+        assertThat(eventStore.loadSnapshot(aggregateId, 49)).isNull();
+        assertThat(eventStore.loadSnapshot(UUID.randomUUID(), 100)).isNull();
+    }
+
+    @Test
+    void shouldNotReplaceSnapshotWithAnOlderOne() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 100, null, "2".getBytes())), null);
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 50, null, "1".getBytes())), null);
+
+        var snapshot = eventStore.loadLatestSnapshot(aggregateId);
+
+        assertThat(snapshot.sequenceNumber()).isEqualTo(100);
+        assertThat(snapshot.payload()).isEqualTo("2".getBytes());
+    }
+
+    @Test
+    void shouldStoreAccountViewsAlongWithEvents() {
+        var accountId = UUID.randomUUID();
+        var ownerId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(accountId, 1, UUID.randomUUID(), "1".getBytes())), List.of(),
+                List.of(new AccountView(accountId, ownerId, 0, true, 1)), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(accountId, 2, UUID.randomUUID(), "2".getBytes())), List.of(),
+                List.of(new AccountView(accountId, ownerId, 42, true, 2)), UUID.randomUUID());
+
+        assertThat(eventStore.loadAccountView(accountId)).isEqualTo(new AccountView(accountId, ownerId, 42, true, 2));
+        assertThat(eventStore.loadAccountView(UUID.randomUUID())).isNull();
+    }
+
+    @Test
+    void shouldNotReplaceAccountViewWithAnOlderOne() {
+        var accountId = UUID.randomUUID();
+        var ownerId = UUID.randomUUID();
+        eventStore.append(List.of(), List.of(), List.of(new AccountView(accountId, ownerId, 42, true, 5)), UUID.randomUUID());
+        eventStore.append(List.of(), List.of(), List.of(new AccountView(accountId, ownerId, 10, true, 4)), UUID.randomUUID());
+
+        assertThat(eventStore.loadAccountView(accountId).version()).isEqualTo(5);
+        assertThat(eventStore.loadAccountView(accountId).balance()).isEqualTo(42);
+    }
+
+    @Test
+    void shouldNotStoreAccountViewsWhenAppendConflicts() {
+        var accountId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(accountId, 1, UUID.randomUUID(), "1".getBytes())), List.of(),
+                UUID.randomUUID());
+
+        assertThatThrownBy(() -> eventStore.append(
+                List.of(new SerializedEvent(accountId, 1, UUID.randomUUID(), "1".getBytes())), List.of(),
+                List.of(new AccountView(accountId, UUID.randomUUID(), 0, true, 1)), UUID.randomUUID()))
+                .isInstanceOf(ConcurrentModificationException.class);
+
+        assertThat(eventStore.loadAccountView(accountId)).isNull();
+    }
+
+    @Test
+    void shouldReturnNullWhenSnapshotNotFound() {
+        var snapshot = eventStore.loadLatestSnapshot(UUID.randomUUID());
+
+        assertThat(snapshot).isNull();
+    }
+
+    @Test
+    void shouldLoadAggregateHistoryWithoutSnapshot() {
+        var aggregateId = UUID.randomUUID();
+        var txId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, txId, "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, txId, "2".getBytes())),
+                List.of(), txId);
+
+        var history = eventStore.loadAggregate(aggregateId, 0, txId);
+
+        assertThat(history.snapshot()).isNull();
+        assertThat(history.events()).extracting(SerializedEvent::sequenceNumber).containsExactly(1L, 2L);
+        assertThat(history.events()).extracting(SerializedEvent::transactionId).containsOnly(txId);
+        assertThat(history.events().get(1).payload()).isEqualTo("2".getBytes());
+        assertThat(history.transactionExists()).isTrue();
+    }
+
+    @Test
+    void shouldLoadAggregateHistoryFromLatestSnapshot() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes())),
+                List.of(new SerializedEvent(aggregateId, 2, null, "snapshot".getBytes())), UUID.randomUUID());
+
+        var history = eventStore.loadAggregate(aggregateId, 0, UUID.randomUUID());
+
+        assertThat(history.snapshot().sequenceNumber()).isEqualTo(2);
+        assertThat(history.snapshot().payload()).isEqualTo("snapshot".getBytes());
+        assertThat(history.events()).extracting(SerializedEvent::sequenceNumber).containsExactly(3L);
+        assertThat(history.transactionExists()).isFalse();
+    }
+
+    @Test
+    void shouldLoadAggregateHistoryAfterGivenVersion() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes()),
+                        new SerializedEvent(aggregateId, 4, UUID.randomUUID(), "4".getBytes())),
+                List.of(new SerializedEvent(aggregateId, 2, null, "snapshot".getBytes())), UUID.randomUUID());
+
+        var history = eventStore.loadAggregate(aggregateId, 3, null);
+
+        assertThat(history.snapshot()).isNull();
+        assertThat(history.events()).extracting(SerializedEvent::sequenceNumber).containsExactly(4L);
+    }
+
+    @Test
+    void shouldLoadAggregateHistoryFromSnapshotNewerThanGivenVersion() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes())),
+                List.of(new SerializedEvent(aggregateId, 2, null, "snapshot".getBytes())), UUID.randomUUID());
+
+        var history = eventStore.loadAggregate(aggregateId, 1, null);
+
+        assertThat(history.snapshot().sequenceNumber()).isEqualTo(2);
+        assertThat(history.events()).extracting(SerializedEvent::sequenceNumber).containsExactly(3L);
+    }
+
+    @Test
+    void shouldLoadAggregateHistoryWithoutTransactionCheck() {
+        var aggregateId = UUID.randomUUID();
+        var txId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, txId, "1".getBytes())), List.of(), txId);
+
+        var history = eventStore.loadAggregate(aggregateId, 0, null);
+
+        assertThat(history.events()).hasSize(1);
+        assertThat(history.transactionExists()).isFalse();
+    }
+
+    @Test
+    void shouldLoadEmptyHistoryOfNonExistentAggregate() {
+        var history = eventStore.loadAggregate(UUID.randomUUID(), 0, UUID.randomUUID());
+
+        assertThat(history.snapshot()).isNull();
+        assertThat(history.events()).isEmpty();
+        assertThat(history.transactionExists()).isFalse();
+    }
+
+    @Test
+    void shouldStoreEventsWithTheirOwnTransactionIds() {
+        var aggregateId = UUID.randomUUID();
+        var txId1 = UUID.randomUUID();
+        var txId2 = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, txId1, "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, txId2, "2".getBytes())),
+                List.of(), txId1);
+
+        assertThat(eventStore.getEvents(aggregateId, 0))
+                .extracting(SerializedEvent::transactionId)
+                .containsExactly(txId1, txId2);
+        assertThat(eventStore.transactionExists(aggregateId, txId2)).isTrue();
+    }
+
+    @Test
+    void shouldFindExistingTransactions() {
+        var aggregateId = UUID.randomUUID();
+        var txId1 = UUID.randomUUID();
+        var txId2 = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId, 1, txId1, "1".getBytes()),
+                        new SerializedEvent(aggregateId, 2, txId2, "2".getBytes()),
+                        new SerializedEvent(aggregateId, 3, txId2, "3".getBytes())),
+                List.of(), txId1);
+
+        var otherTxId = UUID.randomUUID();
+        assertThat(eventStore.findTransactions(aggregateId, List.of(txId1, txId2, otherTxId)))
+                .containsExactlyInAnyOrder(txId1, txId2);
+        assertThat(eventStore.findTransactions(UUID.randomUUID(), List.of(txId1, txId2))).isEmpty();
+        assertThat(eventStore.findTransactions(aggregateId, List.of())).isEmpty();
+    }
+
+    @Test
+    void shouldPositionEventsOfAllAggregatesInCommitOrder() {
+        var aggregateId1 = UUID.randomUUID();
+        var aggregateId2 = UUID.randomUUID();
+        var txId = UUID.randomUUID();
+        eventStore.append(List.of(
+                        new SerializedEvent(aggregateId1, 1, txId, "1".getBytes()),
+                        new SerializedEvent(aggregateId2, 1, txId, "2".getBytes())),
+                List.of(), txId);
+        eventStore.append(List.of(new SerializedEvent(aggregateId1, 2, txId, "3".getBytes())), List.of(), txId);
+
+        assertThat(eventStore.getEventsAfter(0, 10))
+                .extracting(PositionedEvent::position, e -> e.event().aggregateId(), e -> e.event().sequenceNumber(),
+                        e -> e.event().transactionId(), e -> new String(e.event().payload()))
+                .containsExactly(
+                        tuple(1L, aggregateId1, 1L, txId, "1"),
+                        tuple(2L, aggregateId2, 1L, txId, "2"),
+                        tuple(3L, aggregateId1, 2L, txId, "3"));
+    }
+
+    @Test
+    void shouldGetLimitedNumberOfEventsAfterGivenPosition() {
+        var aggregateId = UUID.randomUUID();
+        for (int i = 1; i <= 5; i++) {
+            eventStore.append(List.of(new SerializedEvent(aggregateId, i, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                    UUID.randomUUID());
+        }
+
+        assertThat(eventStore.getEventsAfter(1, 2)).extracting(PositionedEvent::position).containsExactly(2L, 3L);
+        assertThat(eventStore.getEventsAfter(3, 10)).extracting(PositionedEvent::position).containsExactly(4L, 5L);
+        assertThat(eventStore.getEventsAfter(5, 10)).isEmpty();
+    }
+
+    @Test
+    void shouldNotLeaveGapsInPositionsAfterConflictingAppend() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(),
+                UUID.randomUUID());
+        assertThatThrownBy(() -> eventStore.append(List.of(
+                        new SerializedEvent(UUID.randomUUID(), 1, UUID.randomUUID(), "2".getBytes()),
+                        new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "2".getBytes())),
+                List.of(), UUID.randomUUID()))
+                .isInstanceOf(ConcurrentModificationException.class);
+
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "3".getBytes())), List.of(),
+                UUID.randomUUID());
+
+        assertThat(eventStore.getEventsAfter(0, 10))
+                .extracting(PositionedEvent::position, e -> new String(e.event().payload()))
+                .containsExactly(tuple(1L, "1"), tuple(2L, "3"));
+    }
+
+    @Test
+    void shouldCatchUpWithTheLogAndTailItThroughSubscription() throws InterruptedException {
+        var aggregateId = UUID.randomUUID();
+        for (int i = 1; i <= 5; i++) {
+            eventStore.append(List.of(new SerializedEvent(aggregateId, i, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                    UUID.randomUUID());
+        }
+        BlockingQueue<List<PositionedEvent>> batches = new LinkedBlockingQueue<>();
+
+        try (var subscription = eventStore.subscribe(1, 2, batches::add)) {
+            assertThat(positions(batches.poll(5, TimeUnit.SECONDS))).containsExactly(2L, 3L);
+            assertThat(positions(batches.poll(5, TimeUnit.SECONDS))).containsExactly(4L, 5L);
+
+            eventStore.append(List.of(new SerializedEvent(aggregateId, 6, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                    UUID.randomUUID());
+
+            assertThat(positions(batches.poll(5, TimeUnit.SECONDS))).containsExactly(6L);
+            // the position moves on once the consumer returns - closing waits for the batch being consumed
+            subscription.close();
+            assertThat(subscription.position()).isEqualTo(6);
+        }
+    }
+
+    @Test
+    void shouldStopSubscriptionWhenConsumerFails() throws InterruptedException {
+        eventStore.append(List.of(new SerializedEvent(UUID.randomUUID(), 1, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+                UUID.randomUUID());
+        BlockingQueue<List<PositionedEvent>> batches = new LinkedBlockingQueue<>();
+
+        try (var subscription = eventStore.subscribe(0, 10, batch -> {
+            batches.add(batch);
+            throw new IllegalStateException("consumer failure");
+        })) {
+            assertThat(positions(batches.poll(5, TimeUnit.SECONDS))).containsExactly(1L);
+            // closing waits for the subscription thread, stopped by the failure
+            subscription.close();
+            assertThat(subscription.isRunning()).isFalse();
+            assertThat(subscription.position()).isZero();
+            assertThat(subscription.isLive()).isFalse();
+        }
+    }
+
+    protected long countEvents(UUID aggregateId) {
+        return eventStore.getEvents(aggregateId, 0).count();
+    }
+
+    private static List<Long> positions(List<PositionedEvent> batch) {
+        assertThat(batch).isNotNull();
+        return batch.stream().map(PositionedEvent::position).toList();
+    }
+}
@@ -3,7 +3,12 @@ package lt.rieske.accounts.eventstore;
 import lt.rieske.accounts.domain.AccountEvent;
 import lt.rieske.accounts.eventsourcing.AccountConsistencyTest;
 import lt.rieske.accounts.eventsourcing.AccountEventSourcingTest;
+import lt.rieske.accounts.eventsourcing.AccountViewTest;
+import lt.rieske.accounts.eventsourcing.AdaptiveSnapshotTest;
+import lt.rieske.accounts.eventsourcing.AggregateCacheTest;
+import lt.rieske.accounts.eventsourcing.AsyncSnapshotTest;
 import lt.rieske.accounts.eventsourcing.EventStore;
+import lt.rieske.accounts.eventsourcing.GroupCommitTest;
 import lt.rieske.accounts.eventsourcing.IdempotencyTest;
 import lt.rieske.accounts.eventsourcing.MoneyTransferTest;
 import org.junit.jupiter.api.BeforeEach;
@@ -78,6 +83,51 @@ public abstract class SqlEventStoreIntegrationTests {
         }
     }
 
+    @Nested
+    class SqlAggregateCacheTest extends AggregateCacheTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SqlGroupCommitTest extends GroupCommitTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SqlAsyncSnapshotTest extends AsyncSnapshotTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SqlAdaptiveSnapshotTest extends AdaptiveSnapshotTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
+    @Nested
+    class SqlAccountViewTest extends AccountViewTest {
+
+        @Override
+        protected EventStore<AccountEvent> getEventStore() {
+            return eventStore;
+        }
+    }
+
     @Nested
     class SqlAccountConsistencyTest extends AccountConsistencyTest {
 
@@ -6,39 +6,40 @@ import org.junit.jupiter.api.Test;
 import javax.sql.DataSource;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
-import java.util.ConcurrentModificationException;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.UUID;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
-public abstract class SqlEventStoreTest {
+public abstract class SqlEventStoreTest extends BlobEventStoreTest {
 
     private DataSource dataSource;
-    private BlobEventStore eventStore;
 
     protected abstract DataSource dataSource();
 
-    protected abstract BlobEventStore blobEventStore();
-
     protected abstract void setUUID(PreparedStatement statement, int column, UUID uuid) throws SQLException;
 
     @BeforeEach
     void setup() {
         this.dataSource = dataSource();
-        this.eventStore = blobEventStore();
     }
 
     @Test
-    void shouldStoreAnEvent() throws SQLException {
+    void shouldStoreSnapshot() throws SQLException {
         var aggregateId = UUID.randomUUID();
-        eventStore.append(List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())), List.of(),
+
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())),
                 UUID.randomUUID());
 
         try (var connection = dataSource.getConnection();
              var statement = connection.prepareStatement(
-                     "SELECT COUNT(*) FROM Event WHERE aggregateId=?")) {
+                     "SELECT COUNT(*) FROM Snapshot WHERE aggregateId=?")) {
             setUUID(statement, 1, aggregateId);
             try (var resultSet = statement.executeQuery()) {
                 assertThat(resultSet.next()).isTrue();
@@ -48,118 +49,191 @@ public abstract class SqlEventStoreTest {
     }
 
     @Test
-    void shouldThrowWhenInsertingEventWithExistingSequenceNumberForAggregate() throws SQLException {
+    void shouldKeepASingleSnapshotRowPerAggregate() throws SQLException {
         var aggregateId = UUID.randomUUID();
-        eventStore.append(List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())), List.of(),
-                UUID.randomUUID());
-
-        assertThatThrownBy(() ->
-                eventStore.append(List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())),
-                        List.of(), UUID.randomUUID()))
-                .isInstanceOf(ConcurrentModificationException.class);
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 5, null, "1".getBytes())), UUID.randomUUID());
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 10, null, "2".getBytes())), UUID.randomUUID());
 
         try (var connection = dataSource.getConnection();
              var statement = connection.prepareStatement(
-                     "SELECT COUNT(*) FROM Event WHERE aggregateId=?")) {
+                     "SELECT COUNT(*) FROM Snapshot WHERE aggregateId=?")) {
             setUUID(statement, 1, aggregateId);
             try (var resultSet = statement.executeQuery()) {
                 assertThat(resultSet.next()).isTrue();
                 assertThat(resultSet.getLong(1)).isEqualTo(1);
             }
         }
+        assertThat(eventStore.loadLatestSnapshot(aggregateId).sequenceNumber()).isEqualTo(10);
     }
 
     @Test
-    void shouldGetStoredEvent() {
+    void shouldNotKeepSnapshotHistoryByDefault() throws SQLException {
         var aggregateId = UUID.randomUUID();
-        var txId = UUID.randomUUID();
-        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, txId, "foobar".getBytes())), List.of(),
-                UUID.randomUUID());
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 5, null, "1".getBytes())), UUID.randomUUID());
+        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 10, null, "2".getBytes())), UUID.randomUUID());
 
-        var events = eventStore.getEvents(aggregateId, 0);
-
-        assertThat(events).hasSize(1);
-        var event = events.get(0);
-        assertThat(event.aggregateId()).isEqualTo(aggregateId);
-        assertThat(event.sequenceNumber()).isEqualTo(1);
-        assertThat(event.transactionId()).isEqualTo(txId);
-        assertThat(event.payload()).isEqualTo("foobar".getBytes());
+        assertThat(countSnapshotHistory(aggregateId)).isZero();
+        assertThat(eventStore.loadSnapshot(aggregateId, 7)).isNull();
     }
 
     @Test
-    void shouldGetStoredEventsFromSpecificVersion() {
+    void shouldKeepGivenNumberOfLatestSnapshotsInHistory() throws SQLException {
+        var store = new PostgresEventStore(dataSource, null, 2);
         var aggregateId = UUID.randomUUID();
+        for (int version = 5; version <= 20; version += 5) {
+            store.append(List.of(), List.of(new SerializedEvent(aggregateId, version, null, String.valueOf(version).getBytes())),
+                    UUID.randomUUID());
+        }
 
-        var txId3 = UUID.randomUUID();
-        var txId4 = UUID.randomUUID();
-        eventStore.append(List.of(
-                new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
-                new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes()),
-                new SerializedEvent(aggregateId, 3, txId3, "3".getBytes()),
-                new SerializedEvent(aggregateId, 4, txId4, "4".getBytes())),
-                List.of(), UUID.randomUUID());
-
-        var events = eventStore.getEvents(aggregateId, 2);
-
-        assertThat(events).hasSize(2);
-        var seq3 = events.get(0);
-        assertThat(seq3.aggregateId()).isEqualTo(aggregateId);
-        assertThat(seq3.sequenceNumber()).isEqualTo(3);
-        assertThat(seq3.transactionId()).isEqualTo(txId3);
-        assertThat(seq3.payload()).isEqualTo("3".getBytes());
-        var seq4 = events.get(1);
-        assertThat(seq4.aggregateId()).isEqualTo(aggregateId);
-        assertThat(seq4.sequenceNumber()).isEqualTo(4);
-        assertThat(seq4.transactionId()).isEqualTo(txId4);
-        assertThat(seq4.payload()).isEqualTo("4".getBytes());
+        assertThat(countSnapshotHistory(aggregateId)).isEqualTo(2);
+        assertThat(store.loadSnapshot(aggregateId, 25).sequenceNumber()).isEqualTo(20);
+        assertThat(store.loadSnapshot(aggregateId, 19).payload()).isEqualTo("15".getBytes());
+        assertThat(store.loadSnapshot(aggregateId, 14)).isNull();
+        assertThat(store.loadLatestSnapshot(aggregateId).sequenceNumber()).isEqualTo(20);
     }
 
     @Test
-    void emptyListWhenNoEventsFound() {
-        var events = eventStore.getEvents(UUID.randomUUID(), 2);
+    void shouldNotDuplicateSnapshotInHistoryWhenWrittenAgain() throws SQLException {
+        var store = new PostgresEventStore(dataSource, null, 3);
+        var aggregateId = UUID.randomUUID();
+        store.append(List.of(), List.of(new SerializedEvent(aggregateId, 5, null, "1".getBytes())), UUID.randomUUID());
+        store.append(List.of(), List.of(new SerializedEvent(aggregateId, 5, null, "1".getBytes())), UUID.randomUUID());
 
-        assertThat(events).isEmpty();
+        assertThat(countSnapshotHistory(aggregateId)).isEqualTo(1);
     }
 
     @Test
-    void shouldStoreSnapshot() throws SQLException {
+    void shouldAppendWithoutPositioningEventsWhenEventLogIsDisabled() throws SQLException {
+        var store = new PostgresEventStore(dataSource, null, 0, false);
         var aggregateId = UUID.randomUUID();
+        var transactionId = UUID.randomUUID();
+        store.append(List.of(
+                new SerializedEvent(aggregateId, 1, transactionId, "1".getBytes()),
+                new SerializedEvent(aggregateId, 2, transactionId, "2".getBytes())), List.of(), transactionId);
 
-        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 42, UUID.randomUUID(), "foobar".getBytes())),
-                UUID.randomUUID());
-
+        assertThat(store.getEvents(aggregateId, 0)).extracting(SerializedEvent::sequenceNumber).containsExactly(1L, 2L);
+        assertThat(store.loadAggregate(aggregateId, 0, transactionId).transactionExists()).isTrue();
         try (var connection = dataSource.getConnection();
              var statement = connection.prepareStatement(
-                     "SELECT COUNT(*) FROM Snapshot WHERE aggregateId=?")) {
+                     "SELECT COUNT(*) FROM Event WHERE aggregateId=? AND position IS NULL")) {
             setUUID(statement, 1, aggregateId);
             try (var resultSet = statement.executeQuery()) {
                 assertThat(resultSet.next()).isTrue();
-                assertThat(resultSet.getLong(1)).isEqualTo(1);
+                assertThat(resultSet.getLong(1)).isEqualTo(2);
             }
         }
+        assertThatThrownBy(() -> store.getEventsAfter(0, 10)).isInstanceOf(UnsupportedOperationException.class);
     }
 
     @Test
-    void shouldLoadLatestSnapshot() {
+    void shouldLeaveUnpositionedEventsOutOfEventLog() {
+        var unpositioningStore = new PostgresEventStore(dataSource, null, 0, false);
         var aggregateId = UUID.randomUUID();
-        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 50, UUID.randomUUID(), "1".getBytes())),
-                UUID.randomUUID());
-        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 100, UUID.randomUUID(), "2".getBytes())),
-                UUID.randomUUID());
-        eventStore.append(List.of(), List.of(new SerializedEvent(aggregateId, 150, UUID.randomUUID(), "3".getBytes())),
-                UUID.randomUUID());
+        unpositioningStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes())), List.of(), UUID.randomUUID());
+
+        assertThat(eventStore.getEventsAfter(0, Integer.MAX_VALUE))
+                .filteredOn(e -> e.event().aggregateId().equals(aggregateId))
+                .extracting(e -> e.event().sequenceNumber())
+                .containsExactly(2L);
+    }
+
+    @Test
+    void shouldRequireEventLogForAppendNotifications() {
+        assertThatThrownBy(() -> new PostgresEventStore(dataSource, dataSource, 0, false))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void shouldTellVersionOfAggregateAtGivenTime() throws SQLException {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes())), List.of(), UUID.randomUUID());
+        var appendTime = Instant.parse("2020-01-01T10:00:00Z");
+        setEventTime(aggregateId, 1, appendTime);
+        setEventTime(aggregateId, 2, appendTime);
+        setEventTime(aggregateId, 3, appendTime.plusSeconds(60));
+
+        assertThat(eventStore.versionAt(aggregateId, appendTime.minusMillis(1))).isZero();
+        assertThat(eventStore.versionAt(aggregateId, appendTime)).isEqualTo(2);
+        assertThat(eventStore.versionAt(aggregateId, appendTime.plusSeconds(59))).isEqualTo(2);
+        assertThat(eventStore.versionAt(aggregateId, appendTime.plusSeconds(60))).isEqualTo(3);
+        assertThat(eventStore.versionAt(UUID.randomUUID(), appendTime.plusSeconds(60))).isZero();
+    }
 
-        var snapshot = eventStore.loadLatestSnapshot(aggregateId);
+    @Test
+    void shouldRecordTimeOfAppendedEvents() {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
 
-        assertThat(snapshot.sequenceNumber()).isEqualTo(150);
-        assertThat(snapshot.payload()).isEqualTo("3".getBytes());
+        assertThat(eventStore.versionAt(aggregateId, Instant.now().plus(1, ChronoUnit.HOURS))).isEqualTo(1);
     }
 
     @Test
-    void shouldReturnNullWhenSnapshotNotFound() {
-        var snapshot = eventStore.loadLatestSnapshot(UUID.randomUUID());
+    void shouldTellVersionAtGivenTimeAfterEventsWithoutTime() throws SQLException {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(
+                new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes()),
+                new SerializedEvent(aggregateId, 2, UUID.randomUUID(), "2".getBytes())), List.of(), UUID.randomUUID());
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 3, UUID.randomUUID(), "3".getBytes())), List.of(), UUID.randomUUID());
+        var appendTime = Instant.parse("2020-01-01T10:00:00Z");
+        setEventTime(aggregateId, 1, null);
+        setEventTime(aggregateId, 2, null);
+        setEventTime(aggregateId, 3, appendTime);
+
+        assertThat(eventStore.versionAt(aggregateId, appendTime)).isEqualTo(3);
+        assertThatThrownBy(() -> eventStore.versionAt(aggregateId, appendTime.minusMillis(1)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("up to version 2");
+    }
+
+    @Test
+    void shouldRejectTimesOfAggregateWithoutTimedEvents() throws SQLException {
+        var aggregateId = UUID.randomUUID();
+        eventStore.append(List.of(new SerializedEvent(aggregateId, 1, UUID.randomUUID(), "1".getBytes())), List.of(), UUID.randomUUID());
+        setEventTime(aggregateId, 1, null);
+
+        assertThatThrownBy(() -> eventStore.versionAt(aggregateId, Instant.now().plus(1, ChronoUnit.HOURS)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private void setEventTime(UUID aggregateId, long sequenceNumber, Instant time) throws SQLException {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(
+                     "UPDATE Event SET createdAt=? WHERE aggregateId=? AND sequenceNumber=?")) {
+            statement.setObject(1, time != null ? OffsetDateTime.ofInstant(time, ZoneOffset.UTC) : null, Types.TIMESTAMP_WITH_TIMEZONE);
+            setUUID(statement, 2, aggregateId);
+            statement.setLong(3, sequenceNumber);
+            assertThat(statement.executeUpdate()).isEqualTo(1);
+        }
+    }
 
-        assertThat(snapshot).isNull();
+    private long countSnapshotHistory(UUID aggregateId) throws SQLException {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(
+                     "SELECT COUNT(*) FROM SnapshotHistory WHERE aggregateId=?")) {
+            setUUID(statement, 1, aggregateId);
+            try (var resultSet = statement.executeQuery()) {
+                assertThat(resultSet.next()).isTrue();
+                return resultSet.getLong(1);
+            }
+        }
     }
 
+    @Override
+    protected long countEvents(UUID aggregateId) {
+        try (var connection = dataSource.getConnection();
+             var statement = connection.prepareStatement(
+                     "SELECT COUNT(*) FROM Event WHERE aggregateId=?")) {
+            setUUID(statement, 1, aggregateId);
+            try (var resultSet = statement.executeQuery()) {
+                assertThat(resultSet.next()).isTrue();
+                return resultSet.getLong(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 }